@@ -50,6 +50,55 @@ INSERT INTO `booking` VALUES (1,101,1,'2019-10-15','09:00:00','11:00:00');
 /*!40000 ALTER TABLE `booking` ENABLE KEYS */;
 UNLOCK TABLES;
 
+--
+-- Table structure for table `booking_change`
+--
+
+DROP TABLE IF EXISTS `booking_change`;
+/*!40101 SET @saved_cs_client     = @@character_set_client */;
+ SET character_set_client = utf8mb4 ;
+CREATE TABLE `booking_change` (
+  `seq` bigint(20) NOT NULL AUTO_INCREMENT,
+  `source` char(36) NOT NULL,
+  `deleted` tinyint(1) NOT NULL,
+  `bookingId` int(11) NOT NULL,
+  `memberId` int(11) NOT NULL,
+  `courtId` int(11) NOT NULL,
+  `date` date NOT NULL,
+  `startTime` time NOT NULL,
+  `endTime` time NOT NULL,
+  PRIMARY KEY (`seq`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_0900_ai_ci;
+/*!40101 SET character_set_client = @saved_cs_client */;
+
+--
+-- Table structure for table `booking_slot`
+--
+
+DROP TABLE IF EXISTS `booking_slot`;
+/*!40101 SET @saved_cs_client     = @@character_set_client */;
+ SET character_set_client = utf8mb4 ;
+CREATE TABLE `booking_slot` (
+  `courtId` int(11) NOT NULL,
+  `date` date NOT NULL,
+  `slot` tinyint(4) NOT NULL,
+  `bookingId` int(11) NOT NULL,
+  PRIMARY KEY (`courtId`,`date`,`slot`),
+  KEY `booking_slot__bookingId_idx` (`bookingId`),
+  CONSTRAINT `booking_slot__bookingId` FOREIGN KEY (`bookingId`) REFERENCES `booking` (`id`) ON DELETE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_0900_ai_ci;
+/*!40101 SET character_set_client = @saved_cs_client */;
+
+--
+-- Dumping data for table `booking_slot`
+--
+
+LOCK TABLES `booking_slot` WRITE;
+/*!40000 ALTER TABLE `booking_slot` DISABLE KEYS */;
+INSERT INTO `booking_slot` VALUES (1,'2019-10-15',18,1),(1,'2019-10-15',19,1),(1,'2019-10-15',20,1),(1,'2019-10-15',21,1);
+/*!40000 ALTER TABLE `booking_slot` ENABLE KEYS */;
+UNLOCK TABLES;
+
 --
 -- Table structure for table `court`
 --
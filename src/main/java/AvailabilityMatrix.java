@@ -0,0 +1,334 @@
+import utility.IntHashMap;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The occupancy of every court in the club for the next 7 days, starting today, kept up to date as bookings and holds
+ * change rather than worked out when asked for. Each court tells the matrix when one of its days changes and only
+ * that cell is updated, and the graph row for a cell is rendered once and reused until the cell changes again. At
+ * midnight the matrix rolls forward a day, dropping yesterday and reading in the new seventh day
+ *
+ * Cells are updated without locking, so bookings on different courts never wait for each other here
+ *
+ * @author Alex McWhae
+ */
+public class AvailabilityMatrix
+{
+    // the number of days covered, today and the 6 after it
+    public static final int DAYS = 7;
+
+    private static final DateTimeFormatter DAY_FORMAT = DateTimeFormatter.ofPattern("EEE dd/MM");
+
+    /**
+     * A rendered graph row and the occupancy it was rendered from
+     */
+    private static class Row
+    {
+        private final long occupancy;
+        private final String text;
+
+        private Row(long occupancy, String text)
+        {
+            this.occupancy = occupancy;
+            this.text = text;
+        }
+    }
+
+    /**
+     * The days covered at one time, replaced as a whole when the matrix rolls forward. Days still covered after a
+     * roll keep their arrays, so updates made during a roll are not lost
+     */
+    private static class Window
+    {
+        private final LocalDate firstDate;
+        // the occupancy of each court on each day, by day then column
+        private final AtomicLongArray[] cells;
+        private final ArrayList<AtomicReferenceArray<Row>> rows;
+
+        private Window(LocalDate firstDate, AtomicLongArray[] cells, ArrayList<AtomicReferenceArray<Row>> rows)
+        {
+            this.firstDate = firstDate;
+            this.cells = cells;
+            this.rows = rows;
+        }
+    }
+
+    // the sports covered, in the club's order
+    private ArrayList<Sport> sports;
+    // every court covered, one column each, in sport then court order
+    private ArrayList<Court> courts;
+    // the column of each court, by court id
+    private IntHashMap<Integer> columns;
+    private volatile Window window;
+    private ScheduledExecutorService rollover;
+
+    /**
+     * Constructor, lays out an empty matrix for every court of the sports for the next 7 days. Nothing is read until
+     * start is called
+     *
+     * @param sports the sports to cover
+     */
+    public AvailabilityMatrix(ArrayList<Sport> sports)
+    {
+        this.sports = new ArrayList<Sport>(sports);
+        this.courts = new ArrayList<Court>();
+        this.columns = new IntHashMap<Integer>();
+        for (Sport sport : this.sports)
+            for (Court court : sport.getCourts())
+            {
+                columns.put(court.getCourtId(), courts.size());
+                courts.add(court);
+            }
+
+        LocalDate today = LocalDate.now();
+        AtomicLongArray[] cells = new AtomicLongArray[DAYS];
+        ArrayList<AtomicReferenceArray<Row>> rows = new ArrayList<AtomicReferenceArray<Row>>(DAYS);
+        for (int d = 0; d < DAYS; d++)
+        {
+            cells[d] = new AtomicLongArray(courts.size());
+            rows.add(new AtomicReferenceArray<Row>(courts.size()));
+        }
+        window = new Window(today, cells, rows);
+
+        rollover = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "availability-rollover");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Registers with the courts for changes, reads the occupancy of every court for the next 7 days and schedules
+     * rolling forward at midnight. Kept out of the constructor so the courts never see a matrix still being built
+     */
+    public void start()
+    {
+        Window current = window;
+        // registered before the days are read, so a change made while reading is either read or sent to the matrix
+        for (Court court : courts)
+            court.setAvailabilityMatrix(this);
+        for (int d = 0; d < DAYS; d++)
+            fillDay(current.cells[d], current.firstDate.plusDays(d));
+        scheduleRollover();
+    }
+
+    /**
+     * Updates a court's cell for a date after its occupancy has changed, called by the court
+     *
+     * @param court the court that changed
+     * @param date the date that changed
+     */
+    public void courtChanged(Court court, LocalDate date)
+    {
+        Window current = window;
+        long day = date.toEpochDay() - current.firstDate.toEpochDay();
+        Integer column = columns.get(court.getCourtId());
+        if (day < 0 || day >= DAYS || column == null)
+            return;
+        store(current.cells[(int) day], column, court, date);
+    }
+
+    /**
+     * Gets a court's occupancy bitmap for a date, from the matrix if the date is covered
+     *
+     * @param court the court
+     * @param date the date
+     * @return long the bitmap, as described in CourtDay
+     */
+    public long getOccupancy(Court court, LocalDate date)
+    {
+        Window current = currentWindow();
+        long day = date.toEpochDay() - current.firstDate.toEpochDay();
+        Integer column = columns.get(court.getCourtId());
+        if (day < 0 || day >= DAYS || column == null)
+            return court.getOccupancy(date);
+        return current.cells[(int) day].get(column);
+    }
+
+    /**
+     * Gets a court's row of the availability graph for a date, rendered only if the cell has changed since it was
+     * last rendered
+     *
+     * @param court the court
+     * @param date the date
+     * @return String the row, as Court.getBookingsGraph
+     */
+    public String getRow(Court court, LocalDate date)
+    {
+        Window current = currentWindow();
+        long day = date.toEpochDay() - current.firstDate.toEpochDay();
+        Integer column = columns.get(court.getCourtId());
+        if (day < 0 || day >= DAYS || column == null)
+            return Court.renderGraph(court.getCourtId(), court.getOccupancy(date));
+
+        long occupancy = current.cells[(int) day].get(column);
+        AtomicReferenceArray<Row> rows = current.rows.get((int) day);
+        Row row = rows.get(column);
+        if (row == null || row.occupancy != occupancy)
+        {
+            row = new Row(occupancy, Court.renderGraph(court.getCourtId(), occupancy));
+            rows.set(column, row);
+        }
+        return row.text;
+    }
+
+    /**
+     * Gets the first date covered
+     *
+     * @return LocalDate today's date once the matrix has rolled forward
+     */
+    public LocalDate getFirstDate()
+    {
+        return currentWindow().firstDate;
+    }
+
+    /**
+     * Gets a week at a glance view of every sport, a row per court with the number of hours free between 09:00 and
+     * 22:00 on each of the 7 days
+     *
+     * @return ArrayList<String> the rows of the view
+     */
+    public ArrayList<String> getWeekView()
+    {
+        Window current = currentWindow();
+        ArrayList<String> result = new ArrayList<String>();
+        StringBuilder header = new StringBuilder("|  id |");
+        for (int d = 0; d < DAYS; d++)
+            header.append(String.format(" %-9s|", current.firstDate.plusDays(d).format(DAY_FORMAT)));
+        String line = "|" + "-".repeat(header.length() - 2) + "|";
+
+        result.add(line);
+        result.add(String.format("|%-" + (header.length() - 2) + "s|", "  Free hours each day from 09:00 to 22:00"));
+        result.add(line);
+        result.add(header.toString());
+        for (Sport sport : sports)
+        {
+            result.add(line);
+            result.add(String.format("| %-" + (header.length() - 3) + "s|", sport.getName()));
+            for (Court court : sport.getCourts())
+            {
+                Integer column = columns.get(court.getCourtId());
+                if (column == null)
+                    continue;
+                StringBuilder row = new StringBuilder(String.format("| %3d |", court.getCourtId()));
+                for (int d = 0; d < DAYS; d++)
+                    row.append(String.format(" %6d   |", freeHours(current.cells[d].get(column))));
+                result.add(row.toString());
+            }
+        }
+        result.add(line);
+        return result;
+    }
+
+    /**
+     * Moves the matrix forward to start at today, keeping the days still covered and reading in the new ones
+     */
+    public synchronized void rollForward()
+    {
+        Window old = window;
+        LocalDate today = LocalDate.now();
+        long shift = today.toEpochDay() - old.firstDate.toEpochDay();
+        if (shift == 0)
+            return;
+
+        AtomicLongArray[] cells = new AtomicLongArray[DAYS];
+        ArrayList<AtomicReferenceArray<Row>> rows = new ArrayList<AtomicReferenceArray<Row>>(DAYS);
+        ArrayList<Integer> newDays = new ArrayList<Integer>();
+        for (int d = 0; d < DAYS; d++)
+        {
+            long oldDay = d + shift;
+            if (oldDay >= 0 && oldDay < DAYS)
+            {
+                cells[d] = old.cells[(int) oldDay];
+                rows.add(old.rows.get((int) oldDay));
+            }
+            else
+            {
+                cells[d] = new AtomicLongArray(courts.size());
+                rows.add(new AtomicReferenceArray<Row>(courts.size()));
+                newDays.add(d);
+            }
+        }
+        window = new Window(today, cells, rows);
+        for (int d : newDays)
+            fillDay(cells[d], today.plusDays(d));
+    }
+
+    /**
+     * Stops rolling forward and stops listening to the courts
+     */
+    public void stop()
+    {
+        rollover.shutdownNow();
+        for (Court court : courts)
+            court.setAvailabilityMatrix(null);
+    }
+
+    /**
+     * Gets the current window, rolling forward first if midnight has passed and the rollover has not run yet
+     *
+     * @return Window the window
+     */
+    private Window currentWindow()
+    {
+        Window current = window;
+        if (!current.firstDate.equals(LocalDate.now()))
+        {
+            rollForward();
+            current = window;
+        }
+        return current;
+    }
+
+    private void scheduleRollover()
+    {
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime midnight = now.toLocalDate().plusDays(1).atStartOfDay();
+        rollover.schedule(() -> {
+            rollForward();
+            scheduleRollover();
+        }, now.until(midnight, ChronoUnit.MILLIS) + 1, TimeUnit.MILLISECONDS);
+    }
+
+    private void fillDay(AtomicLongArray cells, LocalDate date)
+    {
+        for (int c = 0; c < courts.size(); c++)
+            store(cells, c, courts.get(c), date);
+    }
+
+    /**
+     * Copies a court's occupancy into a cell. The court is read again after writing and the write repeated if it has
+     * changed, so when two changes race the cell always ends up with the later occupancy
+     */
+    private static void store(AtomicLongArray cells, int column, Court court, LocalDate date)
+    {
+        long occupancy = court.getOccupancy(date);
+        while (true)
+        {
+            cells.set(column, occupancy);
+            long latest = court.getOccupancy(date);
+            if (latest == occupancy)
+                return;
+            occupancy = latest;
+        }
+    }
+
+    private static int freeHours(long occupancy)
+    {
+        int free = 0;
+        for (int hour = 9; hour < 22; hour++)
+            if ((occupancy & CourtDay.slotMask(LocalTime.of(hour, 0), LocalTime.of(hour + 1, 0))) == 0)
+                free++;
+        return free;
+    }
+}
@@ -0,0 +1,99 @@
+import java.time.LocalDate;
+import java.time.LocalTime;
+
+/**
+ * A time a court is free to be booked, as found by Club.findEarliestSlots
+ *
+ * @author Alex McWhae
+ */
+public class AvailableSlot
+{
+    // the name of the sport played on the court
+    private String sportName;
+    // the id of the free court
+    private int courtId;
+    // the date the court is free
+    private LocalDate date;
+    // the start of the free time
+    private LocalTime startTime;
+    // the end of the free time
+    private LocalTime endTime;
+
+    /**
+     * Constructor
+     *
+     * @param sportName the name of the sport
+     * @param courtId the id of the court
+     * @param date the date
+     * @param startTime the start of the free time
+     * @param endTime the end of the free time
+     */
+    public AvailableSlot(String sportName, int courtId, LocalDate date, LocalTime startTime, LocalTime endTime)
+    {
+        this.sportName = sportName;
+        this.courtId = courtId;
+        this.date = date;
+        this.startTime = startTime;
+        this.endTime = endTime;
+    }
+
+    /**
+     * An accessor method to get the sport name
+     *
+     * @return String the name of the sport
+     */
+    public String getSportName()
+    {
+        return sportName;
+    }
+
+    /**
+     * An accessor method to get the court id
+     *
+     * @return int the id of the court
+     */
+    public int getCourtId()
+    {
+        return courtId;
+    }
+
+    /**
+     * An accessor method to get the date
+     *
+     * @return LocalDate the date the court is free
+     */
+    public LocalDate getDate()
+    {
+        return date;
+    }
+
+    /**
+     * An accessor method to get the start time
+     *
+     * @return LocalTime the start of the free time
+     */
+    public LocalTime getStartTime()
+    {
+        return startTime;
+    }
+
+    /**
+     * An accessor method to get the end time
+     *
+     * @return LocalTime the end of the free time
+     */
+    public LocalTime getEndTime()
+    {
+        return endTime;
+    }
+
+    /**
+     * Returns the slot in a String format
+     *
+     * @return String the slot
+     */
+    public String toString()
+    {
+        return date + " " + startTime + " - " + endTime + " " + sportName + " court " + courtId;
+    }
+}
@@ -16,6 +16,8 @@ public class Booking
     private int memberId;
     // the court id for the court
     private int courtId;
+    // the id of the booking in the database, 0 until the booking has been saved
+    private volatile int bookingId;
     /**
      * Constructor
      *
@@ -34,6 +36,32 @@ public class Booking
         this.courtId = courtId;
     }
 
+    /**
+     * Constructor for a booking that has already been saved
+     *
+     * @param bookingId the id of the booking in the database
+     * @param date the date of the booking
+     * @param startTime the time the booking starts
+     * @param endTime the time the booking ends
+     * @param memberId the id of the member making the booking
+     * @param courtId the id of the court the booking is being made on
+     */
+    public Booking(int bookingId, LocalDate date, LocalTime startTime, LocalTime endTime, int memberId, int courtId)
+    {
+        this(date, startTime, endTime, memberId, courtId);
+        this.bookingId = bookingId;
+    }
+
+    /**
+     * A mutator method to set the booking id, once the booking has been saved
+     *
+     * @param bookingId the id of the booking in the database
+     */
+    public void setBookingId(int bookingId)
+    {
+        this.bookingId = bookingId;
+    }
+
     /**
      * A mutator method to set the court id
      *
@@ -84,6 +112,16 @@ public class Booking
         this.endTime = endTime;
     }
 
+    /**
+     * An accessor method to get the booking id
+     *
+     * @return int the id of the booking in the database, 0 if it has not been saved yet
+     */
+    public int getBookingId()
+    {
+        return bookingId;
+    }
+
     /**
      * An accessor method to get the court id
      *
@@ -0,0 +1,473 @@
+import utility.DBUtility;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The club's booking history, every booking before a given date, kept in a memory mapped file rather than on the
+ * heap. Nothing is read from the file until it is asked for, so the history takes no time to load and none of the
+ * heap, and bookings are made straight from the mapped records. The file is laid out as:
+ *
+ * header:       magic, version, the epoch day the archive covers up to, the number of records
+ * records:      court id, member id, epoch day, start and end in minutes of the day, booking id, 20 bytes each, sorted by court
+ *               then date then start time so each court's history is one run of records
+ * member index: member id and record number, 8 bytes each, sorted by member then date then start time
+ *
+ * A deleted booking is marked in place by setting its start to -1, and is left out when the archive is next written.
+ * The archive is rewritten with the history sealed since when the club loads
+ *
+ * @author Alex McWhae
+ */
+public class BookingArchive
+{
+    private static final int MAGIC = 0x43424841;
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 16;
+    private static final int RECORD_BYTES = 20;
+    private static final int INDEX_BYTES = 8;
+    private static final short DELETED = -1;
+
+    // the mapped archive file, null if there is no history yet
+    private MappedByteBuffer buffer;
+    // bookings before this date are in the archive
+    private LocalDate archivedBefore;
+    private int count;
+
+    /**
+     * Checks if the archive is turned on in config.properties
+     *
+     * @return boolean true if history should be archived
+     */
+    public static boolean isEnabled()
+    {
+        return Boolean.parseBoolean(DBUtility.getProperty("archive.enabled", "true"));
+    }
+
+    /**
+     * Gets the archive file named in config.properties
+     *
+     * @return Path the archive file
+     */
+    public static Path getFile()
+    {
+        return Paths.get(DBUtility.getProperty("archive.file", "bookings.archive"));
+    }
+
+    private BookingArchive(MappedByteBuffer buffer, LocalDate archivedBefore, int count)
+    {
+        this.buffer = buffer;
+        this.archivedBefore = archivedBefore;
+        this.count = count;
+    }
+
+    /**
+     * Opens the archive file, an archive with no history is returned if there is no usable file
+     *
+     * @param file the archive file
+     * @return BookingArchive the archive
+     */
+    public static BookingArchive open(Path file)
+    {
+        BookingArchive empty = new BookingArchive(null, LocalDate.EPOCH, 0);
+        if (!Files.isRegularFile(file))
+            return empty;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE))
+        {
+            if (channel.size() < HEADER_BYTES || channel.size() > Integer.MAX_VALUE)
+                return empty;
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            if (mapped.getInt(0) != MAGIC || mapped.getInt(4) != VERSION)
+            {
+                System.out.println("Archive " + file + " is not a version " + VERSION + " archive");
+                return empty;
+            }
+            int records = mapped.getInt(12);
+            if (channel.size() != HEADER_BYTES + (long) records * (RECORD_BYTES + INDEX_BYTES))
+            {
+                System.out.println("Archive " + file + " is corrupt");
+                return empty;
+            }
+            return new BookingArchive(mapped, LocalDate.ofEpochDay(mapped.getInt(8)), records);
+        }
+        catch (IOException | RuntimeException ex)
+        {
+            System.out.println("Archive " + file + " could not be read: " + ex);
+            return empty;
+        }
+    }
+
+    /**
+     * Writes a new archive file holding this archive's bookings and the given ones, and opens it. The archive is
+     * written to a temporary file first and then moved into place, so a crash while writing leaves the old archive
+     *
+     * @param file the file to write to
+     * @param added the bookings to add, all before archivedBefore
+     * @param archivedBefore the date the new archive covers up to
+     * @return BookingArchive the new archive
+     */
+    public BookingArchive append(Path file, List<PackedBookings> added, LocalDate archivedBefore) throws IOException
+    {
+        int size = 0;
+        for (int r = 0; r < count; r++)
+            if (buffer.getShort(record(r) + 12) != DELETED)
+                size++;
+        for (PackedBookings bookings : added)
+            size += bookings.size();
+
+        int[] courtIds = new int[size];
+        int[] memberIds = new int[size];
+        int[] days = new int[size];
+        short[] starts = new short[size];
+        short[] ends = new short[size];
+        int[] bookingIds = new int[size];
+        int next = 0;
+        for (int r = 0; r < count; r++)
+        {
+            int at = record(r);
+            if (buffer.getShort(at + 12) == DELETED)
+                continue;
+            courtIds[next] = buffer.getInt(at);
+            memberIds[next] = buffer.getInt(at + 4);
+            days[next] = buffer.getInt(at + 8);
+            starts[next] = buffer.getShort(at + 12);
+            ends[next] = buffer.getShort(at + 14);
+            bookingIds[next++] = buffer.getInt(at + 16);
+        }
+        for (PackedBookings bookings : added)
+            for (int i = 0; i < bookings.size(); i++)
+            {
+                courtIds[next] = bookings.getCourtId(i);
+                memberIds[next] = bookings.getMemberId(i);
+                days[next] = bookings.getEpochDay(i);
+                starts[next] = bookings.getStartMinute(i);
+                ends[next] = bookings.getEndMinute(i);
+                bookingIds[next++] = bookings.getBookingId(i);
+            }
+
+        int[] byCourt = order(courtIds, days, starts);
+        // the member index refers to records by their place in court order
+        int[] memberKeys = new int[size];
+        int[] recordDays = new int[size];
+        short[] recordStarts = new short[size];
+        for (int r = 0; r < size; r++)
+        {
+            memberKeys[r] = memberIds[byCourt[r]];
+            recordDays[r] = days[byCourt[r]];
+            recordStarts[r] = starts[byCourt[r]];
+        }
+        int[] byMember = order(memberKeys, recordDays, recordStarts);
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        long length = HEADER_BYTES + (long) size * (RECORD_BYTES + INDEX_BYTES);
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE))
+        {
+            MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+            out.putInt(MAGIC);
+            out.putInt(VERSION);
+            out.putInt((int) archivedBefore.toEpochDay());
+            out.putInt(size);
+            for (int r = 0; r < size; r++)
+            {
+                int i = byCourt[r];
+                out.putInt(courtIds[i]);
+                out.putInt(memberIds[i]);
+                out.putInt(days[i]);
+                out.putShort(starts[i]);
+                out.putShort(ends[i]);
+                out.putInt(bookingIds[i]);
+            }
+            for (int r = 0; r < size; r++)
+            {
+                out.putInt(memberKeys[byMember[r]]);
+                out.putInt(byMember[r]);
+            }
+            out.force();
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        BookingArchive archive = open(file);
+        if (archive.count != size)
+            throw new IOException("Archive " + file + " could not be read back after writing");
+        return archive;
+    }
+
+    /**
+     * Gets the date the archive covers up to
+     *
+     * @return LocalDate bookings before this date are in the archive, the epoch if there is no history
+     */
+    public LocalDate getArchivedBefore()
+    {
+        return archivedBefore;
+    }
+
+    /**
+     * Checks whether a date is in the archive
+     *
+     * @param date the date
+     * @return boolean true if the archive holds every booking on the date
+     */
+    public boolean covers(LocalDate date)
+    {
+        return date.isBefore(archivedBefore);
+    }
+
+    /**
+     * Gets the number of records in the archive, counting those marked deleted
+     *
+     * @return int the number of records
+     */
+    public int size()
+    {
+        return count;
+    }
+
+    /**
+     * Gets the number of records for a court, counting those marked deleted
+     *
+     * @param courtId the id of the court
+     * @return int the number of records
+     */
+    public int getCourtCount(int courtId)
+    {
+        return courtEnd(courtId) - courtStart(courtId);
+    }
+
+    /**
+     * Gets a page of a court's history, read straight from the mapped file. A page holds fewer bookings than asked
+     * for if some of its records have been deleted
+     *
+     * @param courtId the id of the court
+     * @param from the place in the court's history to start at, 0 for its oldest booking
+     * @param pageSize the number of records to read
+     * @return ArrayList<Booking> the bookings, oldest first
+     */
+    public ArrayList<Booking> getCourtPage(int courtId, int from, int pageSize)
+    {
+        ArrayList<Booking> result = new ArrayList<Booking>();
+        int start = courtStart(courtId);
+        int end = (int) Math.min(courtEnd(courtId), (long) start + from + pageSize);
+        for (int r = start + Math.max(0, from); r < end; r++)
+            addBooking(result, r);
+        return result;
+    }
+
+    /**
+     * Gets the number of records for a member, counting those marked deleted
+     *
+     * @param memberId the id of the member
+     * @return int the number of records
+     */
+    public int getMemberCount(int memberId)
+    {
+        return memberEnd(memberId) - memberStart(memberId);
+    }
+
+    /**
+     * Gets a page of a member's history, read straight from the mapped file through the member index. A page holds
+     * fewer bookings than asked for if some of its records have been deleted
+     *
+     * @param memberId the id of the member
+     * @param from the place in the member's history to start at, 0 for their oldest booking
+     * @param pageSize the number of records to read
+     * @return ArrayList<Booking> the bookings, oldest first
+     */
+    public ArrayList<Booking> getMemberPage(int memberId, int from, int pageSize)
+    {
+        ArrayList<Booking> result = new ArrayList<Booking>();
+        int start = memberStart(memberId);
+        int end = (int) Math.min(memberEnd(memberId), (long) start + from + pageSize);
+        for (int e = start + Math.max(0, from); e < end; e++)
+            addBooking(result, buffer.getInt(entry(e) + 4));
+        return result;
+    }
+
+    /**
+     * Gets a member's booking on a court on a date that starts at the given time
+     *
+     * @param courtId the id of the court
+     * @param memberId the id of the member
+     * @param date the date
+     * @param startTime the start time
+     * @return Booking the booking, null if there is none
+     */
+    public Booking find(int courtId, int memberId, LocalDate date, LocalTime startTime)
+    {
+        int r = findRecord(courtId, memberId, date, PackedBookings.toMinute(startTime));
+        return r < 0 ? null : toBooking(r);
+    }
+
+    /**
+     * Gets the occupancy bitmap of a court on a date, as described in CourtDay
+     *
+     * @param courtId the id of the court
+     * @param date the date
+     * @return long the bitmap
+     */
+    public long getOccupancy(int courtId, LocalDate date)
+    {
+        long occupied = 0L;
+        int day = (int) date.toEpochDay();
+        for (int r = dayStart(courtId, day); r < courtEnd(courtId) && buffer.getInt(record(r) + 8) == day; r++)
+        {
+            short start = buffer.getShort(record(r) + 12);
+            short end = buffer.getShort(record(r) + 14);
+            if (start != DELETED)
+                occupied |= CourtDay.rangeMask(start / CourtDay.SLOT_MINUTES, (end + CourtDay.SLOT_MINUTES - 1) / CourtDay.SLOT_MINUTES);
+        }
+        return occupied;
+    }
+
+    /**
+     * Marks a booking deleted in the file
+     *
+     * @param booking the booking to delete
+     * @return boolean true if the booking was in the archive
+     */
+    public synchronized boolean remove(Booking booking)
+    {
+        int r = findRecord(booking.getCourtId(), booking.getMemberId(), booking.getDate(), PackedBookings.toMinute(booking.getStartTime()));
+        if (r < 0)
+            return false;
+        buffer.putShort(record(r) + 12, DELETED);
+        buffer.force(record(r), RECORD_BYTES);
+        return true;
+    }
+
+    private int findRecord(int courtId, int memberId, LocalDate date, short start)
+    {
+        if (buffer == null || !covers(date))
+            return -1;
+        int day = (int) date.toEpochDay();
+        for (int r = dayStart(courtId, day); r < courtEnd(courtId) && buffer.getInt(record(r) + 8) == day; r++)
+        {
+            int at = record(r);
+            if (buffer.getInt(at + 4) == memberId && buffer.getShort(at + 12) == start)
+                return r;
+        }
+        return -1;
+    }
+
+    private void addBooking(ArrayList<Booking> result, int r)
+    {
+        if (buffer.getShort(record(r) + 12) != DELETED)
+            result.add(toBooking(r));
+    }
+
+    private Booking toBooking(int r)
+    {
+        int at = record(r);
+        return new Booking(buffer.getInt(at + 16), LocalDate.ofEpochDay(buffer.getInt(at + 8)),
+                PackedBookings.toTime(buffer.getShort(at + 12)), PackedBookings.toTime(buffer.getShort(at + 14)),
+                buffer.getInt(at + 4), buffer.getInt(at));
+    }
+
+    private static int record(int r)
+    {
+        return HEADER_BYTES + r * RECORD_BYTES;
+    }
+
+    private int entry(int e)
+    {
+        return HEADER_BYTES + count * RECORD_BYTES + e * INDEX_BYTES;
+    }
+
+    /**
+     * Finds the first record for a court on or after a day, by binary search of the records in court and date order
+     */
+    private int dayStart(int courtId, int day)
+    {
+        int low = 0;
+        int high = buffer == null ? 0 : count;
+        while (low < high)
+        {
+            int middle = (low + high) >>> 1;
+            int at = record(middle);
+            int court = buffer.getInt(at);
+            if (court < courtId || (court == courtId && buffer.getInt(at + 8) < day))
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
+    private int courtStart(int courtId)
+    {
+        return dayStart(courtId, Integer.MIN_VALUE);
+    }
+
+    private int courtEnd(int courtId)
+    {
+        return courtId == Integer.MAX_VALUE ? (buffer == null ? 0 : count) : courtStart(courtId + 1);
+    }
+
+    private int memberStart(int memberId)
+    {
+        int low = 0;
+        int high = buffer == null ? 0 : count;
+        while (low < high)
+        {
+            int middle = (low + high) >>> 1;
+            if (buffer.getInt(entry(middle)) < memberId)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
+    private int memberEnd(int memberId)
+    {
+        return memberId == Integer.MAX_VALUE ? (buffer == null ? 0 : count) : memberStart(memberId + 1);
+    }
+
+    /**
+     * Orders records by a key, then by date, then by start time, sorting primitive arrays rather than objects so the
+     * whole history can be ordered without making a Booking for each record
+     *
+     * @return int[] the record numbers in order
+     */
+    private static int[] order(int[] keys, int[] days, short[] starts)
+    {
+        int size = keys.length;
+        // key in the high half, record number in the low half
+        long[] byKey = new long[size];
+        for (int i = 0; i < size; i++)
+            byKey[i] = ((long) keys[i] << 32) | i;
+        Arrays.sort(byKey);
+
+        int[] result = new int[size];
+        long[] within = new long[size];
+        int start = 0;
+        while (start < size)
+        {
+            int key = (int) (byKey[start] >> 32);
+            int end = start;
+            while (end < size && (int) (byKey[end] >> 32) == key)
+            {
+                int i = (int) byKey[end];
+                // date then start time in the high bits, record number in the low half
+                within[end++] = ((long) days[i] << 43) | ((long) starts[i] << 32) | i;
+            }
+            Arrays.sort(within, start, end);
+            for (int k = start; k < end; k++)
+                result[k] = (int) within[k];
+            start = end;
+        }
+        return result;
+    }
+}
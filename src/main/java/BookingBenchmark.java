@@ -0,0 +1,128 @@
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares the cas and locking reservation engines. Writer threads book random hour long times on a sport's courts
+ * over the next week, cancelling their oldest booking once they hold their share of half the week, so the courts stay
+ * about half full, while reader threads check availability and draw the availability graph. No database is used.
+ *
+ * Usage: java BookingBenchmark [writer threads] [seconds per run]
+ *
+ * @author Alex McWhae
+ */
+public class BookingBenchmark
+{
+    private static final int COURTS = 8;
+    private static final int READERS = 2;
+
+    public static void main(String[] args) throws InterruptedException
+    {
+        int writers = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        System.out.println(writers + " writers, " + READERS + " readers, " + COURTS + " courts, " + seconds + "s per run");
+        // the first round of each warms up the JIT and is not reported
+        for (int round = 0; round < 3; round++)
+            for (String engine : new String[] {"locking", "cas"})
+            {
+                String result = run(engine, writers, seconds);
+                if (round > 0)
+                    System.out.println(result);
+            }
+    }
+
+    /**
+     * Runs the writers and readers against a fresh sport for the given time
+     *
+     * @param engine the reservation engine to use
+     * @param writers the number of writer threads
+     * @param seconds how long to run for
+     * @return String the results
+     */
+    private static String run(String engine, int writers, int seconds) throws InterruptedException
+    {
+        Court.setReservationEngine(engine);
+        int[] courtIds = new int[COURTS];
+        for (int i = 0; i < COURTS; i++)
+            courtIds[i] = i + 1;
+        final Sport sport = new Sport("Benchmark", 0, 0, courtIds);
+        final LocalDate today = LocalDate.now();
+        // each writer's share of half of the hour long slots in the week
+        final int held = Math.max(1, 7 * 13 * COURTS / 2 / writers);
+
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicLong booked = new AtomicLong();
+        final AtomicLong full = new AtomicLong();
+        final AtomicLong reads = new AtomicLong();
+        final CountDownLatch done = new CountDownLatch(writers + READERS);
+        ArrayList<Thread> threads = new ArrayList<Thread>();
+
+        for (int w = 0; w < writers; w++)
+        {
+            final int seed = w;
+            threads.add(new Thread(() -> {
+                Random random = new Random(seed);
+                int memberId = seed * 10000000;
+                ArrayDeque<Booking> mine = new ArrayDeque<Booking>();
+                long myBooked = 0;
+                long myFull = 0;
+                while (running.get())
+                {
+                    LocalDate date = today.plusDays(random.nextInt(7));
+                    LocalTime startTime = LocalTime.of(9 + random.nextInt(13), 0);
+                    Booking booking = sport.bookCourt(++memberId, date, startTime, startTime.plusHours(1));
+                    if (booking == null)
+                        myFull++;
+                    else
+                    {
+                        myBooked++;
+                        mine.add(booking);
+                        if (mine.size() > held)
+                        {
+                            Booking oldest = mine.poll();
+                            sport.getCourt(oldest.getCourtId()).removeBooking(oldest.getMemberId(), oldest.getDate(), oldest.getStartTime());
+                        }
+                    }
+                }
+                booked.addAndGet(myBooked);
+                full.addAndGet(myFull);
+                done.countDown();
+            }));
+        }
+        for (int r = 0; r < READERS; r++)
+        {
+            final int seed = -1 - r;
+            threads.add(new Thread(() -> {
+                Random random = new Random(seed);
+                long myReads = 0;
+                while (running.get())
+                {
+                    LocalDate date = today.plusDays(random.nextInt(7));
+                    LocalTime startTime = LocalTime.of(9 + random.nextInt(13), 0);
+                    sport.hasCourtAvailable(date, startTime, startTime.plusHours(1));
+                    if ((myReads & 63) == 0)
+                        sport.getAvailableCourtsGraph(date);
+                    myReads++;
+                }
+                reads.addAndGet(myReads);
+                done.countDown();
+            }));
+        }
+
+        for (Thread thread : threads)
+            thread.start();
+        Thread.sleep(seconds * 1000L);
+        running.set(false);
+        done.await();
+
+        double attempts = booked.get() + full.get();
+        return String.format("%-8s bookings %,12.0f/s  attempts %,12.0f/s  availability reads %,12.0f/s",
+                engine, booked.get() / (double) seconds, attempts / seconds, reads.get() / (double) seconds);
+    }
+}
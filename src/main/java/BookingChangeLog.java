@@ -0,0 +1,247 @@
+import utility.DBUtility;
+
+import java.sql.*;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the club in step with other copies of the program sharing the same database. The booking writer records
+ * every booking it saves or deletes in the booking_change table, in the same transaction as the change itself, and
+ * a background thread reads the changes made since the last one it saw every changes.pollMillis and applies those
+ * made by other copies to the club's courts and members. Applying a change twice has no effect, so nothing is lost
+ * or doubled by reading a change again.
+ *
+ * Changes are numbered by the database as they are inserted but may be committed out of order, so a number skipped
+ * over is looked for again on the following polls until it turns up or changes.gapSeconds has passed. The wait has to
+ * be longer than a transaction can stay open in the database (innodb_lock_wait_timeout is 50 seconds by default),
+ * by which time the transaction must have rolled back. A number given up on is logged, as a change it stood for
+ * would never be applied
+ *
+ * @author Alex McWhae
+ */
+public class BookingChangeLog
+{
+    private static final String INSERT_SQL = "INSERT INTO booking_change(`source`, `deleted`, `bookingId`, `memberId`, `courtId`, `date`, `startTime`, `endTime`) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String SELECT_SQL = "SELECT seq, source, deleted, bookingId, memberId, courtId, date, startTime, endTime FROM booking_change WHERE seq > ? ORDER BY seq";
+    private static final String LAST_SQL = "SELECT MAX(seq) FROM booking_change";
+    // the most skipped numbers looked for at once, so a jump in the numbering does not fill the heap
+    private static final int MAX_GAPS = 1000;
+
+    // the club the changes are applied to, set once it has loaded
+    private Club club;
+    // tells this copy's changes apart from those of other copies
+    private String source;
+    // the highest change number read
+    private long lastSeq;
+    // the change numbers skipped over that may still be committed, with when they were first missed
+    private LinkedHashMap<Long, Long> gaps;
+    // how long a skipped change number is looked for, in milliseconds
+    private long gapMillis;
+    private boolean enabled;
+    private ScheduledExecutorService poller;
+
+    private long appliedCount;
+    private long pollCount;
+    private long lastPollMillis;
+
+    /**
+     * Constructor, notes the latest change so that only changes made from now on are applied. Should be made before
+     * the club is loaded, so no change made while loading is missed
+     */
+    public BookingChangeLog()
+    {
+        this.source = UUID.randomUUID().toString();
+        this.gaps = new LinkedHashMap<Long, Long>();
+        this.gapMillis = DBUtility.getIntProperty("changes.gapSeconds", 120) * 1000L;
+        this.enabled = Boolean.parseBoolean(DBUtility.getProperty("changes.enabled", "true"));
+        if (!enabled)
+            return;
+
+        Connection conn = DBUtility.connect();
+        if (conn == null)
+        {
+            // without knowing where the log ends every change ever made would be applied
+            enabled = false;
+            return;
+        }
+        try (Connection lastConn = conn)
+        {
+            ResultSet rs = lastConn.createStatement().executeQuery(LAST_SQL);
+            if (rs.next())
+                lastSeq = rs.getLong(1);
+        }
+        catch (SQLException ex)
+        {
+            System.out.println("Booking changes from other instances will not be seen: " + ex);
+            enabled = false;
+        }
+    }
+
+    /**
+     * Checks whether changes are being recorded
+     *
+     * @return boolean true if the booking writer should record its changes
+     */
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * Starts applying changes made by other copies of the program, once the club has loaded
+     *
+     * @param club the club to apply changes to
+     */
+    public synchronized void start(Club club)
+    {
+        if (!enabled || poller != null)
+            return;
+        this.club = club;
+        long pollMillis = DBUtility.getIntProperty("changes.pollMillis", 200);
+        poller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "booking-changes");
+            thread.setDaemon(true);
+            return thread;
+        });
+        poller.scheduleWithFixedDelay(this::poll, pollMillis, pollMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops applying changes
+     */
+    public synchronized void stop()
+    {
+        if (poller != null)
+            poller.shutdownNow();
+    }
+
+    /**
+     * Records saved and deleted bookings, on the connection and in the transaction that saves them
+     *
+     * @param conn the connection the changes are being written on
+     * @param inserts the bookings inserted, with their ids set
+     * @param deletes the bookings deleted by id
+     */
+    public void record(Connection conn, List<Booking> inserts, List<Booking> deletes) throws SQLException
+    {
+        PreparedStatement statement = conn.prepareStatement(INSERT_SQL);
+        for (Booking booking : deletes)
+            addChange(statement, booking, true);
+        for (Booking booking : inserts)
+            addChange(statement, booking, false);
+        statement.executeBatch();
+    }
+
+    private void addChange(PreparedStatement statement, Booking booking, boolean deleted) throws SQLException
+    {
+        statement.setString(1, source);
+        statement.setBoolean(2, deleted);
+        statement.setInt(3, booking.getBookingId());
+        statement.setInt(4, booking.getMemberId());
+        statement.setInt(5, booking.getCourtId());
+        statement.setDate(6, java.sql.Date.valueOf(booking.getDate()));
+        statement.setTime(7, java.sql.Time.valueOf(booking.getStartTime()));
+        statement.setTime(8, java.sql.Time.valueOf(booking.getEndTime()));
+        statement.addBatch();
+    }
+
+    /**
+     * Reads the changes made since the last poll and applies those made by other copies of the program
+     */
+    public void poll()
+    {
+        long start = System.currentTimeMillis();
+        Connection conn = DBUtility.connect();
+        if (conn == null)
+            return;
+        try (Connection pollConn = conn)
+        {
+            PreparedStatement statement = pollConn.prepareStatement(SELECT_SQL);
+            statement.setLong(1, readFrom(start));
+            ResultSet rs = statement.executeQuery();
+            while (rs.next())
+            {
+                long seq = rs.getLong(1);
+                if (!isNew(seq, start))
+                    continue;
+                if (source.equals(rs.getString(2)))
+                    continue;
+
+                LocalDate date = rs.getDate(7).toLocalDate();
+                LocalTime startTime = rs.getTime(8).toLocalTime();
+                LocalTime endTime = rs.getTime(9).toLocalTime();
+                Booking booking = new Booking(rs.getInt(4), date, startTime, endTime, rs.getInt(5), rs.getInt(6));
+                if (rs.getBoolean(3))
+                    club.applyDeletedBooking(booking);
+                else
+                    club.applySavedBooking(booking);
+                synchronized (this)
+                {
+                    appliedCount++;
+                }
+            }
+            synchronized (this)
+            {
+                pollCount++;
+                lastPollMillis = System.currentTimeMillis() - start;
+            }
+        }
+        catch (SQLException | RuntimeException ex)
+        {
+            System.out.println("Booking changes could not be read: " + ex);
+        }
+    }
+
+    /**
+     * Gets the change number to read from, just before the oldest gap still being looked for
+     */
+    private synchronized long readFrom(long now)
+    {
+        Iterator<Map.Entry<Long, Long>> itr = gaps.entrySet().iterator();
+        while (itr.hasNext())
+        {
+            Map.Entry<Long, Long> gap = itr.next();
+            if (now - gap.getValue() > gapMillis)
+            {
+                System.out.println("Warning: booking change " + gap.getKey() + " was not committed within " + gapMillis / 1000
+                        + " seconds and will not be applied if it turns up later");
+                itr.remove();
+            }
+        }
+        long from = lastSeq;
+        for (long gap : gaps.keySet())
+            from = Math.min(from, gap - 1);
+        return from;
+    }
+
+    /**
+     * Checks whether a change has not been seen before, noting any numbers it skips over
+     */
+    private synchronized boolean isNew(long seq, long now)
+    {
+        if (seq <= lastSeq)
+            return gaps.remove(seq) != null;
+        for (long missed = lastSeq + 1; missed < seq && gaps.size() < MAX_GAPS; missed++)
+            gaps.put(missed, now);
+        lastSeq = seq;
+        return true;
+    }
+
+    /**
+     * Returns the change log's counters in a String format
+     *
+     * @return String the last change number read, the changes applied and the polls made
+     */
+    public synchronized String getStatistics()
+    {
+        return String.format("lastSeq=%d gaps=%d applied=%d polls=%d lastPoll=%dms", lastSeq, gaps.size(), appliedCount, pollCount, lastPollMillis);
+    }
+}
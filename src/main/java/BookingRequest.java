@@ -0,0 +1,100 @@
+import java.time.LocalDate;
+import java.time.LocalTime;
+
+/**
+ * A request for a member to book a sport's court on a date and time, as passed to Club.addBookings. The court is
+ * chosen when the request is booked
+ *
+ * @author Alex McWhae
+ */
+public class BookingRequest
+{
+    // the member id of the member booking
+    private int memberId;
+    // the name of the sport to book a court for
+    private String sportName;
+    // the date of the booking
+    private LocalDate date;
+    // the start time of the booking
+    private LocalTime startTime;
+    // the end time of the booking
+    private LocalTime endTime;
+
+    /**
+     * Constructor
+     *
+     * @param memberId the id of the member making the booking
+     * @param sportName the name of the sport
+     * @param date the date of the booking
+     * @param startTime the time the booking starts
+     * @param endTime the time the booking ends
+     */
+    public BookingRequest(int memberId, String sportName, LocalDate date, LocalTime startTime, LocalTime endTime)
+    {
+        this.memberId = memberId;
+        this.sportName = sportName;
+        this.date = date;
+        this.startTime = startTime;
+        this.endTime = endTime;
+    }
+
+    /**
+     * An accessor method to get the member id
+     *
+     * @return int the id of the member making the booking
+     */
+    public int getMemberId()
+    {
+        return memberId;
+    }
+
+    /**
+     * An accessor method to get the sport name
+     *
+     * @return String the name of the sport
+     */
+    public String getSportName()
+    {
+        return sportName;
+    }
+
+    /**
+     * An accessor method to get the date
+     *
+     * @return LocalDate the date of the booking
+     */
+    public LocalDate getDate()
+    {
+        return date;
+    }
+
+    /**
+     * An accessor method to get the start time
+     *
+     * @return LocalTime the time the booking starts
+     */
+    public LocalTime getStartTime()
+    {
+        return startTime;
+    }
+
+    /**
+     * An accessor method to get the end time
+     *
+     * @return LocalTime the time the booking ends
+     */
+    public LocalTime getEndTime()
+    {
+        return endTime;
+    }
+
+    /**
+     * Returns the request in a String format
+     *
+     * @return String the request
+     */
+    public String toString()
+    {
+        return memberId + " " + sportName + " " + date + " " + startTime + " - " + endTime;
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * The outcome of one BookingRequest passed to Club.addBookings, either the booking that was made or the reason it
+ * could not be
+ *
+ * @author Alex McWhae
+ */
+public class BookingResult
+{
+    // the request this is the outcome of
+    private BookingRequest request;
+    // the booking made, null if the request failed
+    private Booking booking;
+    // why the request failed, null if it has not
+    private String error;
+
+    /**
+     * Constructor, for a request that has not been booked or failed yet
+     *
+     * @param request the request
+     */
+    public BookingResult(BookingRequest request)
+    {
+        this.request = request;
+    }
+
+    /**
+     * Records the booking made for the request
+     *
+     * @param booking the booking
+     */
+    void succeeded(Booking booking)
+    {
+        this.booking = booking;
+        this.error = null;
+    }
+
+    /**
+     * Records that the request failed, dropping any booking made for it
+     *
+     * @param error the reason the request failed
+     */
+    void failed(String error)
+    {
+        this.booking = null;
+        this.error = error;
+    }
+
+    /**
+     * An accessor method to get the request
+     *
+     * @return BookingRequest the request
+     */
+    public BookingRequest getRequest()
+    {
+        return request;
+    }
+
+    /**
+     * An accessor method to get the booking made for the request
+     *
+     * @return Booking the booking, null if the request failed
+     */
+    public Booking getBooking()
+    {
+        return booking;
+    }
+
+    /**
+     * An accessor method to get why the request failed
+     *
+     * @return String the reason, null if the request succeeded
+     */
+    public String getError()
+    {
+        return error;
+    }
+
+    /**
+     * Checks if the request was booked
+     *
+     * @return boolean true if a booking was made
+     */
+    public boolean isSuccessful()
+    {
+        return booking != null;
+    }
+
+    /**
+     * Returns the result in a String format
+     *
+     * @return String the request and its booking or error
+     */
+    public String toString()
+    {
+        return request + ": " + (booking != null ? "booked court " + booking.getCourtId() : error);
+    }
+}
@@ -0,0 +1,185 @@
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+
+/**
+ * A recurring booking, the same member, sport and times repeated every week or every second week for a number of
+ * occurrences, as passed to Club.addBookingSeries
+ *
+ * @author Alex McWhae
+ */
+public class BookingSeries
+{
+    /**
+     * How often a series repeats
+     */
+    public enum Frequency
+    {
+        WEEKLY(1), FORTNIGHTLY(2);
+
+        // the number of weeks between occurrences
+        private int weeks;
+
+        Frequency(int weeks)
+        {
+            this.weeks = weeks;
+        }
+
+        /**
+         * An accessor method to get the number of weeks between occurrences
+         *
+         * @return int the number of weeks
+         */
+        public int getWeeks()
+        {
+            return weeks;
+        }
+    }
+
+    // the most occurrences a single series can have, a year of weekly bookings
+    public static final int MAX_OCCURRENCES = 52;
+
+    // the member id of the member booking
+    private int memberId;
+    // the name of the sport to book a court for
+    private String sportName;
+    // the date of the first occurrence
+    private LocalDate firstDate;
+    // the start time of every occurrence
+    private LocalTime startTime;
+    // the end time of every occurrence
+    private LocalTime endTime;
+    // how often the series repeats
+    private Frequency frequency;
+    // the number of occurrences
+    private int occurrences;
+
+    /**
+     * Constructor
+     *
+     * @param memberId the id of the member making the bookings
+     * @param sportName the name of the sport
+     * @param firstDate the date of the first occurrence
+     * @param startTime the time each occurrence starts
+     * @param endTime the time each occurrence ends
+     * @param frequency how often the series repeats
+     * @param occurrences the number of occurrences
+     */
+    public BookingSeries(int memberId, String sportName, LocalDate firstDate, LocalTime startTime, LocalTime endTime, Frequency frequency, int occurrences)
+    {
+        this.memberId = memberId;
+        this.sportName = sportName;
+        this.firstDate = firstDate;
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.frequency = frequency;
+        this.occurrences = occurrences;
+    }
+
+    /**
+     * An accessor method to get the member id
+     *
+     * @return int the id of the member making the bookings
+     */
+    public int getMemberId()
+    {
+        return memberId;
+    }
+
+    /**
+     * An accessor method to get the sport name
+     *
+     * @return String the name of the sport
+     */
+    public String getSportName()
+    {
+        return sportName;
+    }
+
+    /**
+     * An accessor method to get the date of the first occurrence
+     *
+     * @return LocalDate the first date
+     */
+    public LocalDate getFirstDate()
+    {
+        return firstDate;
+    }
+
+    /**
+     * An accessor method to get the start time
+     *
+     * @return LocalTime the time each occurrence starts
+     */
+    public LocalTime getStartTime()
+    {
+        return startTime;
+    }
+
+    /**
+     * An accessor method to get the end time
+     *
+     * @return LocalTime the time each occurrence ends
+     */
+    public LocalTime getEndTime()
+    {
+        return endTime;
+    }
+
+    /**
+     * An accessor method to get the frequency
+     *
+     * @return Frequency how often the series repeats
+     */
+    public Frequency getFrequency()
+    {
+        return frequency;
+    }
+
+    /**
+     * An accessor method to get the number of occurrences
+     *
+     * @return int the number of occurrences
+     */
+    public int getOccurrences()
+    {
+        return occurrences;
+    }
+
+    /**
+     * Gets the date of every occurrence, in order
+     *
+     * @return ArrayList<LocalDate> the dates
+     */
+    public ArrayList<LocalDate> getDates()
+    {
+        ArrayList<LocalDate> dates = new ArrayList<LocalDate>(occurrences);
+        for (int i = 0; i < occurrences; i++)
+            dates.add(firstDate.plusWeeks((long) i * frequency.getWeeks()));
+        return dates;
+    }
+
+    /**
+     * Gets a request for each occurrence, in order
+     *
+     * @return ArrayList<BookingRequest> the requests
+     */
+    public ArrayList<BookingRequest> getRequests()
+    {
+        ArrayList<BookingRequest> requests = new ArrayList<BookingRequest>(occurrences);
+        for (LocalDate date : getDates())
+            requests.add(new BookingRequest(memberId, sportName, date, startTime, endTime));
+        return requests;
+    }
+
+    /**
+     * Returns the series in a String format
+     *
+     * @return String the series
+     */
+    public String toString()
+    {
+        return memberId + " " + sportName + " " + frequency.toString().toLowerCase() + " from " + firstDate + " "
+                + startTime + " - " + endTime + " x" + occurrences;
+    }
+}
@@ -0,0 +1,478 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import utility.DBUtility;
+import utility.Json;
+import utility.PoolStatistics;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A headless HTTP front end for a club, answering with JSON. Every request runs on its own virtual thread and works
+ * directly on the in-memory club, which saves booking changes to the database through its booking writer.
+ *
+ * GET    /availability?sport=&date=[&startTime=&endTime=]   the free hours of each of the sport's courts on the date
+ * GET    /slots?minutes=[&sport=&from=&to=&count=]           the earliest free courts in the next 7 days
+ * POST   /bookings                                          books a court, body {memberId, sport, date, startTime, endTime},
+ *                                                           with waitlist: true joins the waitlist if every court is taken
+ * DELETE /bookings?memberId=&courtId=&date=&startTime=&endTime=  removes a booking
+ * DELETE /bookings?id=                                      removes a saved booking from today on by its id
+ * POST   /bookings/series                                   books a recurring series, body as above plus
+ *                                                           {frequency: weekly or fortnightly, occurrences}
+ * POST   /holds                                             holds a court for hold.seconds, body as for /bookings
+ * POST   /holds/{id}/confirm                                turns the hold into a booking
+ * DELETE /holds/{id}                                        releases the hold
+ * GET    /waitlist?sport=&date=                             the requests waiting for the sport's courts on the date
+ * GET    /members/{id}/bookings                             a member's bookings
+ * GET    /courts/{id}/bookings                              a court's bookings
+ * GET    /status                                            the booking writer, change log and connection pool counters
+ *
+ * Dates are written as 2024-01-31 and times as 09:00. Errors are answered with {"error": message}
+ *
+ * @author Alex McWhae
+ */
+public class BookingServer
+{
+    // the club being served
+    private Club club;
+    private HttpServer server;
+    // runs each request on a new virtual thread
+    private ExecutorService executor;
+
+    /**
+     * The status and JSON body of a response
+     */
+    private static class Response
+    {
+        private int status;
+        private String body;
+
+        private Response(int status, String body)
+        {
+            this.status = status;
+            this.body = body;
+        }
+    }
+
+    /**
+     * Answers a request
+     */
+    private interface Handler
+    {
+        Response handle(HttpExchange exchange) throws MyException, IOException;
+    }
+
+    /**
+     * Constructor, binds the server to the port but does not start it
+     *
+     * @param club the club to serve, should already be loaded
+     * @param port the port to listen on
+     * @throws IOException if the port could not be bound
+     */
+    public BookingServer(Club club, int port) throws IOException
+    {
+        this.club = club;
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+        server.setExecutor(executor);
+
+        final Handler bookings = exchange -> exchange.getRequestMethod().equals("DELETE") ? removeBooking(exchange) : addBooking(exchange);
+        server.createContext("/availability", exchange -> respond(exchange, this::availability, "GET"));
+        server.createContext("/slots", exchange -> respond(exchange, this::earliestSlots, "GET"));
+        server.createContext("/bookings", exchange -> respond(exchange, bookings, "POST", "DELETE"));
+        server.createContext("/bookings/series", exchange -> respond(exchange, this::addBookingSeries, "POST"));
+        server.createContext("/holds", exchange -> respond(exchange, this::holds, "POST", "DELETE"));
+        server.createContext("/waitlist", exchange -> respond(exchange, this::waitlist, "GET"));
+        server.createContext("/members/", exchange -> respond(exchange, this::memberBookings, "GET"));
+        server.createContext("/courts/", exchange -> respond(exchange, this::courtBookings, "GET"));
+        server.createContext("/status", exchange -> respond(exchange, this::status, "GET"));
+    }
+
+    /**
+     * Starts answering requests
+     */
+    public void start()
+    {
+        server.start();
+        System.out.println("Booking server listening on port " + getPort());
+    }
+
+    /**
+     * Stops the server, giving requests in progress up to the given time to finish
+     *
+     * @param delaySeconds the most time to wait for requests in progress
+     */
+    public void stop(int delaySeconds)
+    {
+        server.stop(delaySeconds);
+        executor.shutdown();
+    }
+
+    /**
+     * An accessor method to get the port the server is listening on
+     *
+     * @return int the port
+     */
+    public int getPort()
+    {
+        return server.getAddress().getPort();
+    }
+
+    private Response availability(HttpExchange exchange) throws MyException
+    {
+        LinkedHashMap<String, String> query = parseQuery(exchange);
+        String sportName = required(query, "sport");
+        Sport sport = club.getSport(sportName);
+        if (sport == null)
+            throw new MyException("The club does not offer " + sportName);
+        LocalDate date = LocalDate.parse(required(query, "date"));
+
+        Json json = new Json().beginObject().field("sport", sport.getName()).field("date", date.toString());
+        if (query.containsKey("startTime") || query.containsKey("endTime"))
+        {
+            LocalTime startTime = LocalTime.parse(required(query, "startTime"));
+            LocalTime endTime = LocalTime.parse(required(query, "endTime"));
+            json.field("startTime", startTime.toString()).field("endTime", endTime.toString())
+                    .field("available", sport.hasCourtAvailable(date, startTime, endTime));
+        }
+
+        json.name("courts").beginArray();
+        AvailabilityMatrix matrix = club.getAvailabilityMatrix();
+        for (Court court : sport.getCourts())
+        {
+            long occupied = matrix.getOccupancy(court, date);
+            json.beginObject().field("courtId", court.getCourtId()).name("freeHours").beginArray();
+            // the hours a booking can start at, as in the GUI's availability graph
+            for (int hour = 9; hour < 22; hour++)
+                if ((occupied & CourtDay.slotMask(LocalTime.of(hour, 0), LocalTime.of(hour + 1, 0))) == 0)
+                    json.value(hour);
+            json.endArray().endObject();
+        }
+        json.endArray().endObject();
+        return new Response(200, json.toString());
+    }
+
+    private Response earliestSlots(HttpExchange exchange) throws MyException
+    {
+        LinkedHashMap<String, String> query = parseQuery(exchange);
+        int minutes = Integer.parseInt(required(query, "minutes"));
+        LocalTime from = LocalTime.parse(query.getOrDefault("from", "09:00"));
+        LocalTime to = LocalTime.parse(query.getOrDefault("to", "22:00"));
+        int count = Integer.parseInt(query.getOrDefault("count", "10"));
+
+        Json json = new Json().beginArray();
+        for (AvailableSlot slot : club.findEarliestSlots(query.get("sport"), minutes, from, to, count))
+            json.beginObject()
+                    .field("sport", slot.getSportName())
+                    .field("courtId", slot.getCourtId())
+                    .field("date", slot.getDate().toString())
+                    .field("startTime", slot.getStartTime().toString())
+                    .field("endTime", slot.getEndTime().toString())
+                    .endObject();
+        return new Response(200, json.endArray().toString());
+    }
+
+    private Response addBooking(HttpExchange exchange) throws MyException, IOException
+    {
+        LinkedHashMap<String, String> body = Json.parseObject(readBody(exchange));
+        int memberId = Integer.parseInt(required(body, "memberId"));
+        String sportName = required(body, "sport");
+        LocalDate date = LocalDate.parse(required(body, "date"));
+        LocalTime startTime = LocalTime.parse(required(body, "startTime"));
+        LocalTime endTime = LocalTime.parse(required(body, "endTime"));
+
+        club.validateBooking(memberId, sportName, date, startTime, endTime);
+        Booking booking;
+        try
+        {
+            booking = club.addBooking(memberId, sportName, date, startTime, endTime);
+        }
+        catch (MyException ex)
+        {
+            if (!"true".equals(body.get("waitlist")) || club.getSport(sportName).hasCourtAvailable(date, startTime, endTime))
+                throw ex;
+            Waitlist.Entry entry = club.addToWaitlist(memberId, sportName, date, startTime, endTime);
+            Json json = new Json().beginObject().field("waitlisted", true).field("sequence", entry.getSequence()).field("message", ex.getMessage()).endObject();
+            return new Response(202, json.toString());
+        }
+        return new Response(201, writeBooking(new Json(), booking).toString());
+    }
+
+    private Response holds(HttpExchange exchange) throws MyException, IOException
+    {
+        String[] parts = exchange.getRequestURI().getPath().split("/");
+        String method = exchange.getRequestMethod();
+        if (parts.length == 2 && method.equals("POST"))
+        {
+            LinkedHashMap<String, String> body = Json.parseObject(readBody(exchange));
+            Hold hold = club.placeHold(Integer.parseInt(required(body, "memberId")), required(body, "sport"),
+                    LocalDate.parse(required(body, "date")), LocalTime.parse(required(body, "startTime")),
+                    LocalTime.parse(required(body, "endTime")));
+            Json json = new Json().beginObject()
+                    .field("holdId", hold.getHoldId())
+                    .field("courtId", hold.getCourtId())
+                    .field("expiresAt", Instant.ofEpochMilli(hold.getExpiresAt()).toString())
+                    .endObject();
+            return new Response(201, json.toString());
+        }
+        if (parts.length == 4 && parts[3].equals("confirm") && method.equals("POST"))
+        {
+            Booking booking = club.confirmHold(Long.parseLong(parts[2]));
+            return new Response(201, writeBooking(new Json(), booking).toString());
+        }
+        if (parts.length == 3 && method.equals("DELETE"))
+        {
+            if (!club.releaseHold(Long.parseLong(parts[2])))
+                throw new NotFoundException("Hold " + parts[2] + " does not exist or has expired");
+            return new Response(200, new Json().beginObject().field("message", "Hold released").endObject().toString());
+        }
+        throw new NotFoundException("The path " + exchange.getRequestURI().getPath() + " does not exist");
+    }
+
+    private Response waitlist(HttpExchange exchange) throws MyException
+    {
+        LinkedHashMap<String, String> query = parseQuery(exchange);
+        String sportName = required(query, "sport");
+        Sport sport = club.getSport(sportName);
+        if (sport == null)
+            throw new MyException("The club does not offer " + sportName);
+        LocalDate date = LocalDate.parse(required(query, "date"));
+
+        Json json = new Json().beginArray();
+        for (Waitlist.Entry entry : sport.getWaitlist().getEntries(date))
+        {
+            BookingRequest request = entry.getRequest();
+            json.beginObject()
+                    .field("sequence", entry.getSequence())
+                    .field("memberId", request.getMemberId())
+                    .field("startTime", request.getStartTime().toString())
+                    .field("endTime", request.getEndTime().toString())
+                    .endObject();
+        }
+        return new Response(200, json.endArray().toString());
+    }
+
+    private Response addBookingSeries(HttpExchange exchange) throws MyException, IOException
+    {
+        LinkedHashMap<String, String> body = Json.parseObject(readBody(exchange));
+        BookingSeries series = new BookingSeries(Integer.parseInt(required(body, "memberId")), required(body, "sport"),
+                LocalDate.parse(required(body, "date")), LocalTime.parse(required(body, "startTime")),
+                LocalTime.parse(required(body, "endTime")),
+                BookingSeries.Frequency.valueOf(required(body, "frequency").toUpperCase()),
+                Integer.parseInt(required(body, "occurrences")));
+
+        Json json = new Json().beginArray();
+        boolean anyBooked = false;
+        for (BookingResult result : club.addBookingSeries(series))
+        {
+            json.beginObject().field("date", result.getRequest().getDate().toString());
+            if (result.isSuccessful())
+            {
+                json.field("courtId", result.getBooking().getCourtId());
+                anyBooked = true;
+            }
+            else
+                json.field("error", result.getError());
+            json.endObject();
+        }
+        // nothing was created if every date failed, the body still says why each one did
+        return new Response(anyBooked ? 201 : 409, json.endArray().toString());
+    }
+
+    private Response removeBooking(HttpExchange exchange) throws MyException
+    {
+        // a booking that does not exist is answered with 404 by its NotFoundException
+        LinkedHashMap<String, String> query = parseQuery(exchange);
+        String result;
+        if (query.containsKey("id"))
+        {
+            result = club.removeBooking(Integer.parseInt(query.get("id")));
+        }
+        else
+        {
+            int memberId = Integer.parseInt(required(query, "memberId"));
+            int courtId = Integer.parseInt(required(query, "courtId"));
+            LocalDate date = LocalDate.parse(required(query, "date"));
+            LocalTime startTime = LocalTime.parse(required(query, "startTime"));
+            LocalTime endTime = LocalTime.parse(required(query, "endTime"));
+
+            String sportName = club.sportHasCourt(courtId);
+            result = club.removeBooking(memberId, courtId, sportName, date, startTime, endTime);
+        }
+        return new Response(200, new Json().beginObject().field("message", result).endObject().toString());
+    }
+
+    private Response memberBookings(HttpExchange exchange) throws MyException
+    {
+        int memberId = pathId(exchange, "members");
+        // archived history first, then the bookings still held in memory
+        ArrayList<Booking> bookings = club.getMemberHistory(memberId, 0, club.getMemberHistorySize(memberId));
+        bookings.addAll(club.getMember(memberId).getAllBookings());
+        return new Response(200, writeBookings(bookings));
+    }
+
+    private Response courtBookings(HttpExchange exchange) throws MyException
+    {
+        int courtId = pathId(exchange, "courts");
+        Court court = club.getCourt(courtId);
+        ArrayList<Booking> bookings = club.getCourtHistory(courtId, 0, club.getCourtHistorySize(courtId));
+        bookings.addAll(court.getAllBookings());
+        return new Response(200, writeBookings(bookings));
+    }
+
+    private Response status(HttpExchange exchange)
+    {
+        BookingWriter writer = club.getBookingWriter();
+        PoolStatistics pool = DBUtility.getPoolStatistics();
+        Json json = new Json().beginObject()
+                .field("reservationEngine", Court.getReservationEngine())
+                .field("liveHolds", club.getHoldCount())
+                .field("queuedWrites", writer.getQueueDepth())
+                .field("writeLagMillis", writer.getLagMillis())
+                .field("writer", writer.getStatistics())
+                .field("changes", club.getChangeLog().getStatistics())
+                .field("pool", pool == null ? null : pool.toString())
+                .endObject();
+        return new Response(200, json.toString());
+    }
+
+    /**
+     * Runs the handler if the request uses one of the methods it answers, and sends its response. Errors in the
+     * request are answered with 400, a NotFoundException with 404, any other MyException from the club with 400 and
+     * anything else with 500
+     *
+     * @param exchange the request
+     * @param handler the handler
+     * @param methods the methods the handler answers
+     */
+    private void respond(HttpExchange exchange, Handler handler, String... methods) throws IOException
+    {
+        Response response;
+        try
+        {
+            if (!Arrays.asList(methods).contains(exchange.getRequestMethod()))
+                response = error(405, "Use " + String.join(" or ", methods) + " for " + exchange.getRequestURI().getPath());
+            else
+                response = handler.handle(exchange);
+        }
+        catch (NotFoundException ex)
+        {
+            response = error(404, ex.getMessage());
+        }
+        catch (MyException ex)
+        {
+            response = error(400, ex.getMessage());
+        }
+        catch (DateTimeParseException ex)
+        {
+            response = error(400, "Dates must look like 2024-01-31 and times like 09:00");
+        }
+        catch (IllegalArgumentException ex)
+        {
+            // includes NumberFormatException and malformed JSON
+            response = error(400, "Bad request: " + ex.getMessage());
+        }
+        catch (RuntimeException ex)
+        {
+            // the details stay in the log, they mean nothing to the client
+            System.out.println("Request " + exchange.getRequestMethod() + " " + exchange.getRequestURI() + " failed: " + ex);
+            response = error(500, "Internal error");
+        }
+
+        byte[] bytes = response.body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(response.status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody())
+        {
+            out.write(bytes);
+        }
+    }
+
+    private static Response error(int status, String message)
+    {
+        return new Response(status, new Json().beginObject().field("error", message).endObject().toString());
+    }
+
+    private static String writeBookings(ArrayList<Booking> bookings)
+    {
+        Json json = new Json().beginArray();
+        for (Booking booking : bookings)
+            writeBooking(json, booking);
+        return json.endArray().toString();
+    }
+
+    private static Json writeBooking(Json json, Booking booking)
+    {
+        json.beginObject();
+        // a new booking has no id until the booking writer has saved it
+        if (booking.getBookingId() > 0)
+            json.field("id", booking.getBookingId());
+        return json.field("memberId", booking.getMemberId())
+                .field("courtId", booking.getCourtId())
+                .field("date", booking.getDate().toString())
+                .field("startTime", booking.getStartTime().toString())
+                .field("endTime", booking.getEndTime().toString())
+                .endObject();
+    }
+
+    /**
+     * Reads the id from a path such as /members/101/bookings
+     *
+     * @param exchange the request
+     * @param collection the first part of the path
+     * @return int the id
+     * @throws MyException if the path is not /{collection}/{id}/bookings
+     */
+    private static int pathId(HttpExchange exchange, String collection) throws MyException
+    {
+        String[] parts = exchange.getRequestURI().getPath().split("/");
+        if (parts.length != 4 || !parts[1].equals(collection) || !parts[3].equals("bookings"))
+            throw new NotFoundException("The path " + exchange.getRequestURI().getPath() + " does not exist");
+        return Integer.parseInt(parts[2]);
+    }
+
+    private static LinkedHashMap<String, String> parseQuery(HttpExchange exchange)
+    {
+        LinkedHashMap<String, String> result = new LinkedHashMap<String, String>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null)
+            return result;
+        for (String pair : query.split("&"))
+        {
+            int equals = pair.indexOf('=');
+            if (equals > 0)
+                result.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+        }
+        return result;
+    }
+
+    private static String required(LinkedHashMap<String, String> values, String name)
+    {
+        String value = values.get(name);
+        if (value == null || value.isEmpty())
+            throw new IllegalArgumentException(name + " is required");
+        return value;
+    }
+
+    private static String readBody(HttpExchange exchange) throws IOException
+    {
+        try (InputStream in = exchange.getRequestBody())
+        {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,317 @@
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The bookings of a court or a member, partitioned by date. Today's and later bookings are live, kept in a list per
+ * date so they can be added and removed cheaply and so looking at what is coming up never touches the past. Once a
+ * date has passed its partition is sealed, packed into primitive columns with the other past bookings (see
+ * PackedBookings), which takes far less room than a Booking object per booking and is only ever read. Sealed bookings
+ * are handed out as Booking objects made on demand
+ *
+ * Partitions are sealed the first time the store is used after midnight, or after bookings for past dates have been
+ * added, as when the club is loaded. The store is not thread safe, its owner guards it
+ *
+ * @author Alex McWhae
+ */
+public class BookingStore
+{
+    // today as an epoch day, moved forward at midnight so stores do not need to ask the clock every time
+    private static volatile long today = LocalDate.now().toEpochDay();
+    private static final ScheduledExecutorService ROLLOVER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "booking-rollover");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static
+    {
+        scheduleRollover();
+    }
+
+    // the live partitions, from the first unsealed date on
+    private TreeMap<LocalDate, ArrayList<Booking>> live;
+    // the sealed bookings
+    private PackedBookings sealed;
+    // dates before this epoch day are sealed
+    private long sealedBefore;
+    // the number of live bookings for dates that are already sealed, waiting to be packed
+    private int late;
+    private int liveSize;
+
+    /**
+     * Constructor, for an empty store
+     */
+    public BookingStore()
+    {
+        this.live = new TreeMap<LocalDate, ArrayList<Booking>>();
+        this.sealed = PackedBookings.EMPTY;
+        this.sealedBefore = today;
+    }
+
+    /**
+     * Checks whether a date has passed, by the date the stores roll over on
+     *
+     * @param date the date
+     * @return boolean true if the date is before today
+     */
+    public static boolean isPast(LocalDate date)
+    {
+        return date.toEpochDay() < today;
+    }
+
+    /**
+     * Gets today's date, as the stores roll over on
+     *
+     * @return LocalDate today
+     */
+    public static LocalDate getToday()
+    {
+        return LocalDate.ofEpochDay(today);
+    }
+
+    /**
+     * Adds a booking
+     *
+     * @param booking the booking to add
+     */
+    public void add(Booking booking)
+    {
+        ArrayList<Booking> partition = live.get(booking.getDate());
+        if (partition == null)
+        {
+            partition = new ArrayList<Booking>(2);
+            live.put(booking.getDate(), partition);
+        }
+        partition.add(booking);
+        if (booking.getDate().toEpochDay() < sealedBefore)
+            late++;
+        liveSize++;
+    }
+
+    /**
+     * Removes a booking. A live booking must be the same object, a sealed one only needs the same fields
+     *
+     * @param booking the booking to remove
+     * @return boolean true if the booking was in the store
+     */
+    public boolean remove(Booking booking)
+    {
+        return remove(booking.getDate(), booking.getStartTime(), booking) != null;
+    }
+
+    /**
+     * Removes the booking on a date that starts at the given time
+     *
+     * @param date the date of the booking
+     * @param startTime the start time of the booking
+     * @return Booking the booking removed, null if there was none
+     */
+    public Booking remove(LocalDate date, LocalTime startTime)
+    {
+        return remove(date, startTime, null);
+    }
+
+    /**
+     * Gets the first booking on a date
+     *
+     * @param date the date
+     * @return Booking the booking, null if there is none
+     */
+    public Booking get(LocalDate date)
+    {
+        ArrayList<Booking> partition = live.get(date);
+        if (partition != null)
+            return partition.get(0);
+        int index = sealed.first(date);
+        return index < sealed.end(date) ? sealed.get(index) : null;
+    }
+
+    /**
+     * Gets a member's booking on a date that starts at the given time
+     *
+     * @param memberId the id of the member
+     * @param date the date
+     * @param startTime the start time
+     * @return Booking the booking, null if there is none
+     */
+    public Booking find(int memberId, LocalDate date, LocalTime startTime)
+    {
+        ArrayList<Booking> partition = live.get(date);
+        if (partition != null)
+            for (Booking booking : partition)
+                if (booking.getMemberId() == memberId && booking.getStartTime().equals(startTime))
+                    return booking;
+        for (int i = sealed.first(date); i < sealed.end(date); i++)
+            if (sealed.getMemberId(i) == memberId && sealed.startsAt(i, startTime))
+                return sealed.get(i);
+        return null;
+    }
+
+    /**
+     * Gets the occupancy bitmap of the bookings on a date, as described in CourtDay
+     *
+     * @param date the date
+     * @return long the bitmap
+     */
+    public long getOccupancy(LocalDate date)
+    {
+        long occupied = sealed.getOccupancy(date);
+        ArrayList<Booking> partition = live.get(date);
+        if (partition != null)
+            for (Booking booking : partition)
+                occupied |= CourtDay.slotMask(booking.getStartTime(), booking.getEndTime());
+        return occupied;
+    }
+
+    /**
+     * Gets the bookings from today on, found without looking at any earlier booking
+     *
+     * @return ArrayList<Booking> the bookings, in date order
+     */
+    public ArrayList<Booking> getLive()
+    {
+        seal();
+        ArrayList<Booking> result = new ArrayList<Booking>();
+        for (ArrayList<Booking> partition : live.values())
+            result.addAll(partition);
+        return result;
+    }
+
+    /**
+     * Gets every booking
+     *
+     * @return ArrayList<Booking> the bookings, in date order
+     */
+    public ArrayList<Booking> getAll()
+    {
+        seal();
+        ArrayList<Booking> result = new ArrayList<Booking>(size());
+        for (int i = 0; i < sealed.size(); i++)
+            result.add(sealed.get(i));
+        for (ArrayList<Booking> partition : live.values())
+            result.addAll(partition);
+        return result;
+    }
+
+    /**
+     * Gets the number of bookings
+     *
+     * @return int the number of bookings
+     */
+    public int size()
+    {
+        return sealed.size() + liveSize;
+    }
+
+    /**
+     * Gets the sealed bookings
+     *
+     * @return PackedBookings the bookings before getSealedBefore
+     */
+    public PackedBookings getSealed()
+    {
+        seal();
+        return sealed;
+    }
+
+    /**
+     * Drops the sealed bookings before a date, once they have been written to the booking archive
+     *
+     * @param date the date the archive covers up to
+     */
+    public void dropSealedBefore(LocalDate date)
+    {
+        seal();
+        sealed = sealed.slice(sealed.first(date), sealed.size());
+    }
+
+    /**
+     * Gets the first date that is not sealed
+     *
+     * @return LocalDate the date
+     */
+    public LocalDate getSealedBefore()
+    {
+        return LocalDate.ofEpochDay(sealedBefore);
+    }
+
+    /**
+     * Seals the partitions for dates that have passed if today has moved on, or if bookings have been added for dates
+     * already sealed
+     *
+     * @return boolean true if any partition was sealed
+     */
+    public boolean seal()
+    {
+        long current = today;
+        if (current == sealedBefore && late == 0)
+            return false;
+
+        Map<LocalDate, ArrayList<Booking>> passed = live.headMap(LocalDate.ofEpochDay(current));
+        ArrayList<Booking> packing = new ArrayList<Booking>();
+        for (ArrayList<Booking> partition : passed.values())
+            packing.addAll(partition);
+        if (!packing.isEmpty())
+            sealed = sealed.merge(packing);
+        passed.clear();
+        liveSize -= packing.size();
+        sealedBefore = Math.max(sealedBefore, current);
+        late = 0;
+        return true;
+    }
+
+    /**
+     * Removes a booking by date and start time, and if given only that booking. A sealed booking is removed by
+     * packing the sealed bookings again without it, which is slow but only happens when the past is corrected
+     */
+    private Booking remove(LocalDate date, LocalTime startTime, Booking match)
+    {
+        ArrayList<Booking> partition = live.get(date);
+        if (partition != null)
+        {
+            for (int i = 0; i < partition.size(); i++)
+            {
+                Booking booking = partition.get(i);
+                if (booking.getStartTime().equals(startTime) && (match == null || booking == match))
+                {
+                    partition.remove(i);
+                    if (partition.isEmpty())
+                        live.remove(date);
+                    if (date.toEpochDay() < sealedBefore)
+                        late--;
+                    liveSize--;
+                    return booking;
+                }
+            }
+        }
+
+        for (int i = sealed.first(date); i < sealed.end(date); i++)
+        {
+            if (sealed.startsAt(i, startTime) && (match == null || sealed.matches(i, match)))
+            {
+                Booking booking = sealed.get(i);
+                sealed = sealed.without(i);
+                return booking;
+            }
+        }
+        return null;
+    }
+
+    private static void scheduleRollover()
+    {
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime midnight = now.toLocalDate().plusDays(1).atStartOfDay();
+        ROLLOVER.schedule(() -> {
+            today = LocalDate.now().toEpochDay();
+            scheduleRollover();
+        }, now.until(midnight, ChronoUnit.MILLIS) + 1, TimeUnit.MILLISECONDS);
+    }
+}
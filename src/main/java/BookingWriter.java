@@ -0,0 +1,661 @@
+import utility.DBUtility;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saves booking changes to the database behind the caller's back. Adding or removing a booking only queues the
+ * change, and a background thread writes the queue to the database in one transaction using JDBC batches, either
+ * once writeBehind.batchSize changes are waiting or every writeBehind.flushMillis, whichever comes first.
+ *
+ * Changes are queued per booking, so a booking that is added and then removed before it is written cancels out
+ * and never reaches the database. Saved bookings are given the id the database generated for them and deleted by it
+ *
+ * Each new booking also claims its court's half hour slots in the booking_slot table, in the same transaction as the
+ * booking. The table's primary key allows a court slot to be claimed once, so when several copies of the program
+ * share a database a court can only be booked twice at the same time if one of the inserts fails. Deleting a
+ * booking frees its slots by cascade. Turned off with booking.slotTable = false, or when the database has no such table
+ *
+ * Saved and deleted bookings are recorded in the club's BookingChangeLog in the same transaction, for other copies of
+ * the program to pick up
+ *
+ * Nothing is written until start is called, which the club's loader does before reading any bookings
+ *
+ * @author Alex McWhae
+ */
+public class BookingWriter
+{
+    private static final String INSERT_SQL = "INSERT INTO booking(`memberId`, `courtId`, `date`, `startTime`, `endTime`) VALUES (?, ?, ?, ?, ?)";
+    private static final String DELETE_SQL = "DELETE FROM booking WHERE id = ?";
+    // for a booking whose id is not known, when its insert failed
+    private static final String DELETE_BY_FIELDS_SQL = "DELETE FROM booking WHERE memberId = ? AND courtId = ? AND date = ? AND startTime = ? AND endTime = ?";
+    private static final String PROBE_SQL = "SELECT 1 FROM booking_slot WHERE 1 = 0";
+    private static final String SLOT_SQL = "INSERT INTO booking_slot(`courtId`, `date`, `slot`, `bookingId`) VALUES (?, ?, ?, ?)";
+
+    // the club the bookings belong to, told about saved and deleted bookings, set once the writer is started
+    private volatile Club club;
+    // the changes waiting to be written, in the order they were made, keyed by the booking they change
+    private LinkedHashMap<Booking, PendingWrite> pending;
+    // the number of changes that triggers a write
+    private int batchSize;
+    // whether new bookings claim their slots in the booking_slot table
+    private volatile boolean slotTable;
+    private ScheduledExecutorService flusher;
+    // held while flushing so that only one flush runs at a time
+    private final Object flushLock = new Object();
+    private boolean flushScheduled;
+
+    private long writtenCount;
+    private long cancelledCount;
+    private long failedCount;
+    private long flushCount;
+    private long lastFlushMillis;
+
+    /**
+     * A queued change to a booking, a delete of a saved booking or an insert of a new one. An insert being saved by
+     * insertNow is kept here too, so that it is not flushed and a delete of the booking waits for it
+     */
+    private static class PendingWrite
+    {
+        private Booking booking;
+        private boolean insert;
+        // true while insertNow is saving the insert, the flush leaves it alone
+        private boolean saving;
+        // true if the booking was removed while it was being saved, it is deleted once the insert is committed
+        private boolean deleteAfter;
+        // when the change was queued, for measuring lag
+        private long queuedAt;
+
+        private PendingWrite(Booking booking, boolean insert)
+        {
+            this.booking = booking;
+            this.insert = insert;
+            this.queuedAt = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Constructor, changes are queued but nothing is written until the writer is started
+     */
+    public BookingWriter()
+    {
+        this.pending = new LinkedHashMap<Booking, PendingWrite>();
+        this.batchSize = DBUtility.getIntProperty("writeBehind.batchSize", 50);
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "booking-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Checks for the booking_slot table and starts the background writer, before the club loads its bookings
+     *
+     * @param club the club the bookings belong to
+     */
+    public synchronized void start(Club club)
+    {
+        if (this.club != null)
+            return;
+        this.slotTable = Boolean.parseBoolean(DBUtility.getProperty("booking.slotTable", "true")) && hasSlotTable();
+        this.club = club;
+        long flushMillis = DBUtility.getIntProperty("writeBehind.flushMillis", 200);
+        flusher.scheduleWithFixedDelay(this::scheduledFlush, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Checks that the database has the booking_slot table, which a database made before it was added lacks until
+     * upgrade-script.sql is run
+     *
+     * @return boolean false if the table is missing
+     */
+    private static boolean hasSlotTable()
+    {
+        Connection conn = DBUtility.connect();
+        if (conn == null)
+            return true;
+        try (Connection probeConn = conn)
+        {
+            probeConn.createStatement().executeQuery(PROBE_SQL).close();
+            return true;
+        }
+        catch (SQLException ex)
+        {
+            System.out.println("Court slots will not be checked by the database, run upgrade-script.sql to add the booking_slot table: " + ex);
+            return false;
+        }
+    }
+
+    /**
+     * Checks whether new bookings claim their slots in the booking_slot table
+     *
+     * @return boolean true if the database stops a court slot being booked twice
+     */
+    public boolean isSlotTableEnabled()
+    {
+        return slotTable;
+    }
+
+    /**
+     * Checks whether a failed write broke a database constraint, which for an insert means another copy of the
+     * program booked one of the same court slots first
+     *
+     * @param ex the exception the write failed with
+     * @return boolean true if a constraint was broken
+     */
+    public static boolean isConstraintViolation(SQLException ex)
+    {
+        // SQL state class 23 is an integrity constraint violation
+        return ex instanceof SQLIntegrityConstraintViolationException || (ex.getSQLState() != null && ex.getSQLState().startsWith("23"));
+    }
+
+    /**
+     * Queues a new booking to be inserted
+     *
+     * @param booking the booking that was added
+     */
+    public void insert(Booking booking)
+    {
+        enqueue(new PendingWrite(booking, true));
+    }
+
+    /**
+     * Queues a booking to be deleted, if its insert has not been written yet the two cancel out
+     *
+     * @param booking the booking that was removed
+     */
+    public void delete(Booking booking)
+    {
+        synchronized (this)
+        {
+            PendingWrite queued = pending.get(booking);
+            if (queued != null && queued.saving)
+            {
+                queued.deleteAfter = true;
+                return;
+            }
+            if (queued != null && queued.insert)
+            {
+                pending.remove(booking);
+                cancelledCount++;
+                return;
+            }
+        }
+        enqueue(new PendingWrite(booking, false));
+    }
+
+    /**
+     * Marks a new booking as being saved by insertNow, so that removing it before the insert is committed deletes it
+     * afterwards. Should be called while holding the lock the booking was made under, before anything else can
+     * remove it
+     *
+     * @param booking the booking that was added
+     */
+    public synchronized void beginInsert(Booking booking)
+    {
+        PendingWrite write = new PendingWrite(booking, true);
+        write.saving = true;
+        pending.put(booking, write);
+    }
+
+    /**
+     * Ends the saving of bookings marked by beginInsert, queueing the delete of any removed while being saved
+     *
+     * @param bookings the bookings that were being saved
+     * @param saved true if the insert was committed
+     */
+    private synchronized void endInsert(ArrayList<Booking> bookings, boolean saved)
+    {
+        for (Booking booking : bookings)
+        {
+            PendingWrite write = pending.get(booking);
+            if (write == null || !write.saving)
+                continue;
+            if (saved && write.deleteAfter)
+                pending.put(booking, new PendingWrite(booking, false));
+            else
+                pending.remove(booking);
+        }
+    }
+
+    private void enqueue(PendingWrite write)
+    {
+        boolean full;
+        synchronized (this)
+        {
+            pending.put(write.booking, write);
+            full = pending.size() >= batchSize && !flushScheduled;
+            if (full)
+                flushScheduled = true;
+        }
+        // writes straight away rather than waiting for the timer
+        if (full)
+            flusher.execute(this::scheduledFlush);
+    }
+
+    /**
+     * Flushes on the background thread. Anything thrown is caught, as an exception escaping a scheduled task would
+     * stop it from ever running again
+     */
+    private void scheduledFlush()
+    {
+        try
+        {
+            flush();
+        }
+        catch (RuntimeException ex)
+        {
+            System.out.println("Booking changes could not be written: " + ex);
+        }
+    }
+
+    /**
+     * Writes every queued change to the database in one transaction. If the batch fails the changes are tried one at
+     * a time on a new connection, and any that break a constraint are dropped and reported. Changes that fail for any
+     * other reason, such as the connection being lost or no connection being made, stay queued for the next attempt
+     */
+    public void flush()
+    {
+        // nothing can be written until the writer is started
+        if (club == null)
+            return;
+        synchronized (flushLock)
+        {
+            ArrayList<PendingWrite> writes = new ArrayList<PendingWrite>();
+            synchronized (this)
+            {
+                flushScheduled = false;
+                // inserts being saved by insertNow stay where they are
+                Iterator<PendingWrite> itr = pending.values().iterator();
+                while (itr.hasNext())
+                {
+                    PendingWrite write = itr.next();
+                    if (!write.saving)
+                    {
+                        writes.add(write);
+                        itr.remove();
+                    }
+                }
+                if (writes.isEmpty())
+                    return;
+            }
+
+            long start = System.currentTimeMillis();
+            Connection conn = DBUtility.connect();
+            if (conn == null)
+            {
+                requeue(writes);
+                return;
+            }
+            try
+            {
+                writeBatch(conn, writes);
+                synchronized (this)
+                {
+                    writtenCount += writes.size();
+                    flushCount++;
+                    lastFlushMillis = System.currentTimeMillis() - start;
+                }
+            }
+            catch (SQLException ex)
+            {
+                System.out.println("Batch of " + writes.size() + " booking changes failed, retrying one at a time: " + ex);
+                close(conn);
+                conn = null;
+                writeIndividually(writes);
+            }
+            finally
+            {
+                if (conn != null)
+                    close(conn);
+            }
+        }
+    }
+
+    private static void close(Connection conn)
+    {
+        try
+        {
+            conn.close();
+        }
+        catch (SQLException ex)
+        {
+            System.out.println(ex);
+        }
+    }
+
+    /**
+     * Makes new bookings in memory, as part of insertNow
+     */
+    public interface Allocation
+    {
+        /**
+         * Makes the bookings
+         *
+         * @return ArrayList<Booking> the bookings that were made and need saving
+         */
+        ArrayList<Booking> allocate();
+    }
+
+    /**
+     * Saves new bookings straight away in one transaction with a single commit on the caller's own connection, rather
+     * than queueing them. The allocation should mark each booking with beginInsert as it makes it, so that a booking
+     * removed in the meantime is only deleted from the database after it has been inserted. Nothing else waits while
+     * the bookings are saved. If a slot turns out to be taken while deletes are queued, the queue is flushed and the
+     * save tried once more, as the slot may belong to a booking that has already been removed here
+     *
+     * @param allocation makes the bookings to save
+     * @return ArrayList<Booking> the bookings that were made and saved
+     * @throws SQLException if the bookings could not be saved, in which case none of them were
+     */
+    public ArrayList<Booking> insertNow(Allocation allocation) throws SQLException
+    {
+        ArrayList<Booking> bookings = allocation.allocate();
+        if (bookings.isEmpty())
+            return bookings;
+
+        ArrayList<PendingWrite> writes = new ArrayList<PendingWrite>(bookings.size());
+        synchronized (this)
+        {
+            for (Booking booking : bookings)
+            {
+                writes.add(new PendingWrite(booking, true));
+                // in case the allocation did not mark it
+                if (!pending.containsKey(booking))
+                    beginInsert(booking);
+            }
+        }
+
+        long start = System.currentTimeMillis();
+        boolean saved = false;
+        Connection conn = DBUtility.connect();
+        if (conn == null)
+        {
+            endInsert(bookings, false);
+            throw new SQLException("Could not connect to the database");
+        }
+        try (Connection batchConn = conn)
+        {
+            try
+            {
+                writeBatch(batchConn, writes);
+            }
+            catch (SQLException ex)
+            {
+                if (!isConstraintViolation(ex) || !hasQueuedDeletes())
+                    throw ex;
+                // the slots may still be claimed by a booking removed here whose delete is waiting in the queue
+                flush();
+                writeBatch(batchConn, writes);
+            }
+            saved = true;
+        }
+        finally
+        {
+            endInsert(bookings, saved);
+        }
+        synchronized (this)
+        {
+            writtenCount += writes.size();
+            flushCount++;
+            lastFlushMillis = System.currentTimeMillis() - start;
+        }
+        return bookings;
+    }
+
+    private synchronized boolean hasQueuedDeletes()
+    {
+        for (PendingWrite write : pending.values())
+            if (!write.insert)
+                return true;
+        return false;
+    }
+
+    /**
+     * Writes the changes, deletes first, then inserts, in a single transaction
+     *
+     * @param conn the connection to write on
+     * @param writes the changes to write
+     */
+    private void writeBatch(Connection conn, ArrayList<PendingWrite> writes) throws SQLException
+    {
+        conn.setAutoCommit(false);
+        ArrayList<Booking> inserts = new ArrayList<Booking>();
+        try
+        {
+            ArrayList<Booking> deletes = new ArrayList<Booking>();
+            PreparedStatement delete = conn.prepareStatement(DELETE_SQL);
+            PreparedStatement deleteByFields = conn.prepareStatement(DELETE_BY_FIELDS_SQL);
+            for (PendingWrite write : writes)
+            {
+                if (write.insert)
+                    inserts.add(write.booking);
+                else if (write.booking.getBookingId() > 0)
+                {
+                    delete.setInt(1, write.booking.getBookingId());
+                    delete.addBatch();
+                    deletes.add(write.booking);
+                }
+                else
+                {
+                    setParameters(deleteByFields, write.booking);
+                    deleteByFields.addBatch();
+                }
+            }
+            delete.executeBatch();
+            deleteByFields.executeBatch();
+
+            if (!inserts.isEmpty())
+            {
+                PreparedStatement insert = conn.prepareStatement(INSERT_SQL, Statement.RETURN_GENERATED_KEYS);
+                for (Booking booking : inserts)
+                {
+                    setParameters(insert, booking);
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+                // the keys come back in the order the rows were inserted
+                ResultSet keys = insert.getGeneratedKeys();
+                for (int i = 0; i < inserts.size() && keys.next(); i++)
+                    inserts.get(i).setBookingId(keys.getInt(1));
+                if (slotTable)
+                    writeSlots(conn, inserts);
+            }
+            if (club.getChangeLog().isEnabled())
+                club.getChangeLog().record(conn, inserts, deletes);
+            conn.commit();
+            // only once committed, so a rolled back insert is never looked up by its id
+            for (Booking booking : inserts)
+                club.noteBooking(booking);
+            for (Booking booking : deletes)
+                club.forgetBooking(booking);
+        }
+        catch (SQLException ex)
+        {
+            // reset first, the rollback itself fails if the connection has been lost
+            for (Booking booking : inserts)
+                booking.setBookingId(0);
+            try
+            {
+                conn.rollback();
+            }
+            catch (SQLException rollbackEx)
+            {
+                ex.addSuppressed(rollbackEx);
+            }
+            throw ex;
+        }
+        finally
+        {
+            conn.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Writes the changes one at a time, each in its own transaction on a new connection. A change that breaks a
+     * constraint is dropped, and a new booking whose slots turn out to be taken is taken back out of the club, as the
+     * database already has another booking for that court and time. If a change fails for any other reason it and
+     * the changes after it are put back in the queue
+     *
+     * @param writes the changes to write
+     */
+    private void writeIndividually(ArrayList<PendingWrite> writes)
+    {
+        Connection conn = DBUtility.connect();
+        if (conn == null)
+        {
+            requeue(writes);
+            return;
+        }
+        try (Connection singleConn = conn)
+        {
+            for (int i = 0; i < writes.size(); i++)
+            {
+                PendingWrite write = writes.get(i);
+                ArrayList<PendingWrite> single = new ArrayList<PendingWrite>(1);
+                single.add(write);
+                try
+                {
+                    writeBatch(singleConn, single);
+                    synchronized (this)
+                    {
+                        writtenCount++;
+                    }
+                }
+                catch (SQLException ex)
+                {
+                    System.out.println("Could not " + (write.insert ? "save " : "delete ") + write.booking + ": " + ex);
+                    if (!isConstraintViolation(ex))
+                    {
+                        requeue(new ArrayList<PendingWrite>(writes.subList(i, writes.size())));
+                        return;
+                    }
+                    if (write.insert)
+                        club.releaseTakenBooking(write.booking);
+                    synchronized (this)
+                    {
+                        failedCount++;
+                    }
+                }
+            }
+        }
+        catch (SQLException ex)
+        {
+            System.out.println(ex);
+        }
+    }
+
+    /**
+     * Claims the slots of newly inserted bookings in the booking_slot table
+     *
+     * @param conn the connection the bookings were inserted on
+     * @param bookings the bookings, with their ids set
+     */
+    private static void writeSlots(Connection conn, ArrayList<Booking> bookings) throws SQLException
+    {
+        PreparedStatement statement = conn.prepareStatement(SLOT_SQL);
+        for (Booking booking : bookings)
+        {
+            int first = booking.getStartTime().toSecondOfDay() / (CourtDay.SLOT_MINUTES * 60);
+            int last = (booking.getEndTime().toSecondOfDay() + CourtDay.SLOT_MINUTES * 60 - 1) / (CourtDay.SLOT_MINUTES * 60);
+            for (int slot = first; slot < last; slot++)
+            {
+                statement.setInt(1, booking.getCourtId());
+                statement.setDate(2, java.sql.Date.valueOf(booking.getDate()));
+                statement.setInt(3, slot);
+                statement.setInt(4, booking.getBookingId());
+                statement.addBatch();
+            }
+        }
+        statement.executeBatch();
+    }
+
+    /**
+     * Puts changes that could not be written back in front of anything queued since
+     *
+     * @param writes the changes to put back
+     */
+    private synchronized void requeue(ArrayList<PendingWrite> writes)
+    {
+        LinkedHashMap<Booking, PendingWrite> merged = new LinkedHashMap<Booking, PendingWrite>();
+        for (PendingWrite write : writes)
+            merged.put(write.booking, write);
+        for (PendingWrite write : pending.values())
+        {
+            PendingWrite earlier = merged.get(write.booking);
+            // a delete queued after an unwritten insert cancels it
+            if (earlier != null && earlier.insert && !write.insert)
+            {
+                merged.remove(write.booking);
+                cancelledCount++;
+            }
+            else
+                merged.put(write.booking, write);
+        }
+        pending = merged;
+    }
+
+    private static void setParameters(PreparedStatement statement, Booking booking) throws SQLException
+    {
+        statement.setInt(1, booking.getMemberId());
+        statement.setInt(2, booking.getCourtId());
+        statement.setDate(3, java.sql.Date.valueOf(booking.getDate()));
+        statement.setTime(4, java.sql.Time.valueOf(booking.getStartTime()));
+        statement.setTime(5, java.sql.Time.valueOf(booking.getEndTime()));
+    }
+
+    /**
+     * Writes everything still queued and stops the background writer
+     */
+    public void shutdown()
+    {
+        flusher.shutdown();
+        try
+        {
+            flusher.awaitTermination(10, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    /**
+     * Gets the number of changes waiting to be written
+     *
+     * @return int the queue depth
+     */
+    public synchronized int getQueueDepth()
+    {
+        return pending.size();
+    }
+
+    /**
+     * Gets how long the oldest queued change has been waiting
+     *
+     * @return long the lag in milliseconds, 0 if nothing is queued
+     */
+    public synchronized long getLagMillis()
+    {
+        if (pending.isEmpty())
+            return 0;
+        return System.currentTimeMillis() - pending.values().iterator().next().queuedAt;
+    }
+
+    /**
+     * Returns the writer's counters in a String format
+     *
+     * @return String the queue depth, lag and counts of written, cancelled and failed changes
+     */
+    public synchronized String getStatistics()
+    {
+        return String.format("queued=%d lag=%dms written=%d cancelled=%d failed=%d flushes=%d lastFlush=%dms",
+                pending.size(), getLagMillis(), writtenCount, cancelledCount, failedCount, flushCount, lastFlushMillis);
+    }
+}
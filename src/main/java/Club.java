@@ -1,16 +1,31 @@
 import utility.DBUtility;
 import utility.FileUtility;
+import utility.IntHashMap;
+import utility.StripedLock;
+import utility.TimingWheel;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.io.IOException;
 import java.io.FileNotFoundException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * This class represents a sports club that contains a list of members and offers a list of sports
  *
+ * Bookings can be added and removed from several threads once the club has loaded. Each member's bookings are
+ * changed while holding a lock striped by member id, taken before any court day lock, so the one booking per day
+ * rule holds and bookings for different members and courts go ahead in parallel
+ *
  * @author Alex McWhae
  */
 public class Club
@@ -19,258 +34,1388 @@ public class Club
     private String name;
     // the club members
     private ArrayList<Member> members;
+    // the club members keyed by member id
+    private IntHashMap<Member> memberIndex;
     // the list of sports offered by the club
     private ArrayList<Sport> sports;
+    // every court in the club by court id, with the sport played on it
+    private CourtIndex courtIndex;
+    // the highest booking id the club knows of, used when writing snapshots
+    private int bookingHighWaterMark;
+    // the saved bookings from today on by booking id, past bookings are dropped when the day moves on
+    private ConcurrentHashMap<Integer, Booking> bookingIndex;
+    // the day bookingIndex was last cleared of past bookings, as an epoch day
+    private volatile long indexedDay;
+    // saves booking changes to the database in the background
+    private BookingWriter bookingWriter;
+    // applies the booking changes other copies of the program make
+    private BookingChangeLog changeLog;
+    // the locks guarding each member's bookings
+    private StripedLock memberLocks;
+    // the live holds by hold id
+    private ConcurrentHashMap<Long, Hold> holds;
+    // the live holds by member and date, a member can hold one court a day
+    private ConcurrentHashMap<Long, Hold> memberHolds;
+    private AtomicLong nextHoldId;
+    // expires holds that are not confirmed or released in time, null until the first hold is placed
+    private TimingWheel<Hold> holdExpiry;
+    // how long a hold lasts, in milliseconds
+    private long holdMillis;
+    // the occupancy of every court for the next 7 days, null until built
+    private volatile AvailabilityMatrix availability;
+    // the booking history kept off the heap, null if the archive is turned off
+    private volatile BookingArchive archive;
 
     /**
-     * Constructor for club. Loads member, sports and bookings from file on creation
+     * Constructor for club. Loads member, sports and bookings from the database on creation
      *
      * @param name the name of the club
      */
-    public Club(String name)
+    public Club(String name)
+    {
+        this(name, true);
+    }
+
+    /**
+     * Constructor for club
+     *
+     * @param name the name of the club
+     * @param load whether to load the club from the database now, if false the club starts empty and can be
+     *             loaded later with a ClubLoader
+     */
+    public Club(String name, boolean load)
+    {
+        this.name = name;
+        members = new ArrayList<Member>();
+        memberIndex = new IntHashMap<Member>();
+        sports = new ArrayList<Sport>();
+        courtIndex = new CourtIndex();
+        bookingIndex = new ConcurrentHashMap<Integer, Booking>();
+        indexedDay = BookingStore.getToday().toEpochDay();
+        changeLog = new BookingChangeLog();
+        bookingWriter = new BookingWriter();
+        memberLocks = new StripedLock(64);
+        holds = new ConcurrentHashMap<Long, Hold>();
+        memberHolds = new ConcurrentHashMap<Long, Hold>();
+        nextHoldId = new AtomicLong(1);
+        holdMillis = DBUtility.getIntProperty("hold.seconds", 300) * 1000L;
+        archive = BookingArchive.isEnabled() ? BookingArchive.open(BookingArchive.getFile()) : null;
+        // gets the club information from the database
+        if (load)
+            new ClubLoader(this).load();
+    }
+
+    /**
+     * A mutator method to set the club name
+     *
+     * @param name the name of the club
+     */
+    public void setName(String name)
+    {
+        this.name = name;
+    }
+
+    /**
+     * An accessor method to get the name of the club
+     *
+     * @return String the name of the club
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * An accessor method to ge tthe list of members. Members should be added with addMember rather than through
+     * this list, so that they can be found by getMember
+     *
+     * @return ArrayList<Member> the list of members
+     */
+    public ArrayList<Member> getMembers()
+    {
+        return members;
+    }
+
+    /**
+     * A mutator method to set the list of members 
+     *
+     * @param members the list of members
+     */
+    public void setMembers(ArrayList<Member> members)
+    {
+        this.members = members;
+        memberIndex = new IntHashMap<Member>(members.size());
+        for (Member member : members)
+            memberIndex.put(member.getMemberId(), member);
+    }
+
+    /**
+     * An accessor method to ge the list of sports
+     *
+     * @return ArrayList<Sport> the list of sports
+     */
+    public ArrayList<Sport> getSports()
+    {
+        return sports;
+    }
+
+    /**
+     * A mutator method to set the list of sports
+     *
+     * @param sports the list of sports
+     */
+    public void setSports(ArrayList<Sport> sports)
+    {
+        this.sports = sports;
+        courtIndex.clear();
+        for (Sport sport : sports)
+            sport.setCourtIndex(courtIndex);
+        if (availability != null)
+            buildAvailabilityMatrix();
+    }
+
+    /**
+     * Adds the given member to the club
+     *
+     * @param member the member to add to the club 
+     */
+    public void addMember(Member member)
+    {
+        members.add(member);
+        memberIndex.put(member.getMemberId(), member);
+    }
+
+    /**
+     * Gets the member with the matching member id 
+     *
+     * @param memberId the member id to find
+     * @return Member the member, null if not found
+     */
+    public Member getMember(int memberId) throws MyException
+    {
+        Member result = memberIndex.get(memberId);
+
+        if (result == null)
+            throw new NotFoundException("Member does not exist");
+
+        return result;
+    }
+
+    /**
+     * Gets the member with the matching member id without throwing an exception if there is none
+     *
+     * @param memberId the member id to find
+     * @return Member the member, null if not found
+     */
+    public Member findMember(int memberId)
+    {
+        return memberIndex.get(memberId);
+    }
+
+    /**
+     * Checks if the club has a member with the given member id
+     *
+     * @param memberId the member id to look for
+     * @return boolean true if the member exists
+     */
+    public boolean hasMember(int memberId)
+    {
+        return memberIndex.containsKey(memberId);
+    }
+
+    /**
+     * Adds the given sport to the club
+     *
+     * @param sport the sport to add
+     */
+    public void addSport(Sport sport)
+    {
+        sports.add(sport);
+        sport.setCourtIndex(courtIndex);
+        if (availability != null)
+            buildAvailabilityMatrix();
+    }
+
+    /**
+     * Gets the sport with the matching string name
+     *
+     * @param name the string to match
+     * @return Sport the sport that matches
+     */
+    public Sport getSport(String name)
+    {
+        Sport result = null;
+        for (Sport sport : sports)
+        {
+            if (name.equals(sport.getName()))
+            {
+                result = sport;
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Gets the sport at the given index
+     *
+     * @param index the index to get
+     * @return Sport the sport at the index
+     */
+    public Sport getSport(int index)
+    {
+        return sports.get(index);
+    }
+
+    /**
+     * Returns the name of the sport that has the given court id 
+     *
+     * @param courtId the court id to look for
+     * @return String the name of the sport
+     */
+    public String sportHasCourt(int courtId) throws MyException
+    {
+        Sport sport = courtIndex.getSport(courtId);
+
+        if (sport == null)
+            throw new NotFoundException("That court does not exist");
+
+        return sport.getName();
+    }
+
+    /**
+     * An accessor method to get the index of every court in the club
+     *
+     * @return CourtIndex the court index
+     */
+    public CourtIndex getCourtIndex()
+    {
+        return courtIndex;
+    }
+
+    /**
+     * An accessor method to get the highest booking id the club knows of
+     *
+     * @return int the booking high water mark
+     */
+    public synchronized int getBookingHighWaterMark()
+    {
+        return bookingHighWaterMark;
+    }
+
+    /**
+     * Records that a booking with the given id has been loaded or saved
+     *
+     * @param bookingId the id of the booking
+     */
+    public synchronized void noteBookingId(int bookingId)
+    {
+        bookingHighWaterMark = Math.max(bookingHighWaterMark, bookingId);
+    }
+
+    /**
+     * Records that a booking has been loaded or saved, so it can be found by its id
+     *
+     * @param booking the booking, with its id set
+     */
+    public void noteBooking(Booking booking)
+    {
+        noteBookingId(booking.getBookingId());
+        if (!BookingStore.isPast(booking.getDate()))
+            bookingIndex.put(booking.getBookingId(), booking);
+    }
+
+    /**
+     * Records that a booking has been deleted from the database, so it is no longer found by its id
+     *
+     * @param booking the booking
+     */
+    public void forgetBooking(Booking booking)
+    {
+        bookingIndex.remove(booking.getBookingId(), booking);
+    }
+
+    /**
+     * Gets a saved booking from today on by its id
+     *
+     * @param bookingId the id of the booking
+     * @return Booking the booking, null if there is no such booking or it is in the past
+     */
+    public Booking getBooking(int bookingId)
+    {
+        long today = BookingStore.getToday().toEpochDay();
+        if (indexedDay != today)
+        {
+            // the index only holds bookings from today on, so it does not keep the past on the heap
+            bookingIndex.values().removeIf(booking -> BookingStore.isPast(booking.getDate()));
+            indexedDay = today;
+        }
+        return bookingIndex.get(bookingId);
+    }
+
+    /**
+     * An accessor method to get the writer that saves booking changes to the database
+     *
+     * @return BookingWriter the booking writer
+     */
+    public BookingWriter getBookingWriter()
+    {
+        return bookingWriter;
+    }
+
+    /**
+     * An accessor method to get the log of booking changes shared with other copies of the program
+     *
+     * @return BookingChangeLog the change log
+     */
+    public BookingChangeLog getChangeLog()
+    {
+        return changeLog;
+    }
+
+    /**
+     * Saves any booking changes still waiting to be written to the database, should be called before exiting
+     */
+    public void shutdown()
+    {
+        changeLog.stop();
+        synchronized (this)
+        {
+            if (holdExpiry != null)
+                holdExpiry.stop();
+        }
+        if (availability != null)
+            availability.stop();
+        bookingWriter.shutdown();
+    }
+
+    /**
+     * Seals the bookings of every court and member for dates that have passed, packing them so the loaded history
+     * takes as little of the heap as it can. Called once the club has loaded, after that each court and member seals
+     * its own bookings as the days pass
+     */
+    public void sealHistory()
+    {
+        for (Sport sport : sports)
+            for (Court court : sport.getCourts())
+                court.sealHistory();
+        for (Member member : members)
+            member.sealHistory();
+    }
+
+    /**
+     * Gets the date the booking archive covers up to. Bookings before it are read from the archive rather than loaded
+     *
+     * @return LocalDate the date, the epoch if nothing has been archived or the archive is turned off
+     */
+    public LocalDate getHistoryBefore()
+    {
+        BookingArchive history = archive;
+        return history == null ? LocalDate.EPOCH : history.getArchivedBefore();
+    }
+
+    /**
+     * Writes the sealed bookings of every court to the booking archive and drops them from the courts and members, so
+     * the history before today is only kept in the archive file. Called once the club has loaded and its history
+     * has been sealed
+     */
+    public synchronized void archiveHistory()
+    {
+        BookingArchive history = archive;
+        if (history == null)
+            return;
+
+        LocalDate today = BookingStore.getToday();
+        ArrayList<PackedBookings> sealed = new ArrayList<PackedBookings>();
+        for (Sport sport : sports)
+            for (Court court : sport.getCourts())
+            {
+                PackedBookings bookings = court.getSealedBookings(today);
+                if (bookings.size() > 0)
+                    sealed.add(bookings);
+            }
+
+        if (!sealed.isEmpty() || history.getArchivedBefore().isBefore(today))
+        {
+            try
+            {
+                history = history.append(BookingArchive.getFile(), sealed, today);
+            }
+            catch (IOException ex)
+            {
+                // the history stays on the heap until the archive can be written
+                System.out.println("Booking archive could not be written: " + ex);
+                return;
+            }
+            archive = history;
+        }
+
+        for (Sport sport : sports)
+            for (Court court : sport.getCourts())
+            {
+                court.setBookingArchive(history);
+                court.dropArchived(history.getArchivedBefore());
+            }
+        for (Member member : members)
+            member.dropArchived(history.getArchivedBefore());
+    }
+
+    /**
+     * Gets a page of a member's archived bookings
+     *
+     * @param memberId the id of the member
+     * @param from the place in the member's history to start at, 0 for their oldest booking
+     * @param count the number of bookings to read
+     * @return ArrayList<Booking> the bookings, oldest first
+     */
+    public ArrayList<Booking> getMemberHistory(int memberId, int from, int count)
+    {
+        BookingArchive history = archive;
+        return history == null ? new ArrayList<Booking>() : history.getMemberPage(memberId, from, count);
+    }
+
+    /**
+     * Gets the number of archived bookings a member has
+     *
+     * @param memberId the id of the member
+     * @return int the number of bookings, counting any deleted since the archive was written
+     */
+    public int getMemberHistorySize(int memberId)
+    {
+        BookingArchive history = archive;
+        return history == null ? 0 : history.getMemberCount(memberId);
+    }
+
+    /**
+     * Gets a page of a court's archived bookings
+     *
+     * @param courtId the id of the court
+     * @param from the place in the court's history to start at, 0 for its oldest booking
+     * @param count the number of bookings to read
+     * @return ArrayList<Booking> the bookings, oldest first
+     */
+    public ArrayList<Booking> getCourtHistory(int courtId, int from, int count)
+    {
+        BookingArchive history = archive;
+        return history == null ? new ArrayList<Booking>() : history.getCourtPage(courtId, from, count);
+    }
+
+    /**
+     * Gets the number of archived bookings a court has
+     *
+     * @param courtId the id of the court
+     * @return int the number of bookings, counting any deleted since the archive was written
+     */
+    public int getCourtHistorySize(int courtId)
+    {
+        BookingArchive history = archive;
+        return history == null ? 0 : history.getCourtCount(courtId);
+    }
+
+    /**
+     * Builds the availability matrix from the club's sports, replacing any matrix built before. Called once the club
+     * has loaded, and again if the sports change
+     */
+    public synchronized void buildAvailabilityMatrix()
+    {
+        if (availability != null)
+            availability.stop();
+        AvailabilityMatrix matrix = new AvailabilityMatrix(sports);
+        matrix.start();
+        availability = matrix;
+    }
+
+    /**
+     * Gets the availability matrix, building it if it has not been built yet
+     *
+     * @return AvailabilityMatrix the occupancy of every court for the next 7 days
+     */
+    public AvailabilityMatrix getAvailabilityMatrix()
+    {
+        AvailabilityMatrix matrix = availability;
+        if (matrix == null)
+        {
+            synchronized (this)
+            {
+                if (availability == null)
+                    buildAvailabilityMatrix();
+                matrix = availability;
+            }
+        }
+        return matrix;
+    }
+
+    /**
+     * Gets the court with the given court id
+     *
+     * @param courtId the court id to look for
+     * @return Court the court
+     * @throws MyException if no sport is played on a court with that id
+     */
+    public Court getCourt(int courtId) throws MyException
+    {
+        Court court = courtIndex.getCourt(courtId);
+
+        if (court == null)
+            throw new NotFoundException("That court does not exist");
+
+        return court;
+    }
+
+    /**
+     * Adds a booking to the court and member. The booking is saved straight away when the database checks court slots,
+     * otherwise it is queued for the booking writer
+     *
+     * @param memberId the id of the member making the booking
+     * @param sportName the name of the sport
+     * @param date the date of the booking
+     * @param startTime the starting time of the booking
+     * @param endTime the end time of the booking
+     * @return Booking the booking that was made
+     * @throws MyException if the member or sport does not exist or no court is free at that time
+     */
+    public Booking addBooking(int memberId, String sportName, LocalDate date, LocalTime startTime, LocalTime endTime) throws MyException
+    {
+        if (bookingWriter.isSlotTableEnabled())
+            return addBookingNow(new BookingRequest(memberId, sportName, date, startTime, endTime));
+
+        // queued, the booking writer saves it to the database shortly
+        return allocateBooking(memberId, sportName, date, startTime, endTime, Collections.<Integer>emptySet(), false);
+    }
+
+    /**
+     * Adds a booking and saves it straight away, so the database can check that no other copy of the program has
+     * booked the court at the same time. If one has, the court is left out and the next free court is tried
+     *
+     * @param request the booking to make
+     * @return Booking the booking that was made
+     * @throws MyException if the booking breaks a rule, no court is free at that time or it could not be saved
+     */
+    private Booking addBookingNow(final BookingRequest request) throws MyException
+    {
+        validSlotTimes(request.getStartTime(), request.getEndTime());
+        // the courts the database has already seen booked at that time
+        final HashSet<Integer> taken = new HashSet<Integer>();
+        while (true)
+        {
+            final BookingResult result = new BookingResult(request);
+            try
+            {
+                bookingWriter.insertNow(() -> {
+                    ArrayList<Booking> made = new ArrayList<Booking>(1);
+                    try
+                    {
+                        made.add(allocateBooking(request.getMemberId(), request.getSportName(), request.getDate(),
+                                request.getStartTime(), request.getEndTime(), taken, true));
+                        result.succeeded(made.get(0));
+                    }
+                    catch (MyException ex)
+                    {
+                        result.failed(ex.getMessage());
+                    }
+                    return made;
+                });
+            }
+            catch (SQLException ex)
+            {
+                Booking booking = result.getBooking();
+                releaseBooking(booking);
+                if (!BookingWriter.isConstraintViolation(ex))
+                    throw new MyException("The booking could not be saved: " + ex.getMessage());
+                System.out.println("Court " + booking.getCourtId() + " was booked by another instance, trying the next court");
+                taken.add(booking.getCourtId());
+                continue;
+            }
+
+            if (!result.isSuccessful())
+                throw new MyException(result.getError());
+            return result.getBooking();
+        }
+    }
+
+    /**
+     * Adds a batch of bookings. Every request is validated first, including against the other requests in the batch,
+     * then courts are allocated for the valid requests and the bookings are saved together in one transaction. If
+     * saving fails every booking in the batch is taken back out of the club
+     *
+     * @param requests the bookings to make
+     * @return ArrayList<BookingResult> the outcome of each request, in the same order
+     */
+    public ArrayList<BookingResult> addBookings(List<BookingRequest> requests)
+    {
+        final ArrayList<BookingResult> results = new ArrayList<BookingResult>(requests.size());
+        // each member and date booked earlier in the batch
+        HashSet<Long> memberDays = new HashSet<Long>();
+
+        for (BookingRequest request : requests)
+        {
+            BookingResult result = new BookingResult(request);
+            results.add(result);
+            try
+            {
+                validateBooking(request.getMemberId(), request.getSportName(), request.getDate(), request.getStartTime(), request.getEndTime());
+                if (!memberDays.add(memberDay(request.getMemberId(), request.getDate())))
+                    throw new MyException("Only one booking can be made per day per member");
+            }
+            catch (MyException ex)
+            {
+                result.failed(ex.getMessage());
+            }
+        }
+
+        saveNow(results, () -> {
+            ArrayList<Booking> made = new ArrayList<Booking>();
+            for (BookingResult result : results)
+            {
+                if (result.getError() != null)
+                    continue;
+                BookingRequest request = result.getRequest();
+                try
+                {
+                    Booking booking = allocateBooking(request.getMemberId(), request.getSportName(), request.getDate(), request.getStartTime(),
+                            request.getEndTime(), Collections.<Integer>emptySet(), true);
+                    result.succeeded(booking);
+                    made.add(booking);
+                }
+                catch (MyException ex)
+                {
+                    result.failed(ex.getMessage());
+                }
+            }
+            return made;
+        });
+        return results;
+    }
+
+    /**
+     * Adds a recurring booking. The series is checked once against the rules that apply to every occurrence, and
+     * occurrences may be booked beyond the usual 7 days ahead. Every occurrence is then booked in one sweep of the
+     * sport's courts, keeping to the same court where possible, and the bookings are saved together in one
+     * transaction. An occurrence on a day the member already has a booking, or when no court is free, fails on its
+     * own without stopping the rest of the series
+     *
+     * @param series the series to book
+     * @return ArrayList<BookingResult> the outcome of each occurrence, in date order
+     * @throws MyException if the series as a whole breaks a booking rule
+     */
+    public ArrayList<BookingResult> addBookingSeries(final BookingSeries series) throws MyException
+    {
+        final int memberId = series.getMemberId();
+        final Member member = getMember(memberId);
+        final Sport sport = getSport(series.getSportName());
+        if (sport == null)
+            throw new MyException("The club does not offer " + series.getSportName());
+        validMemberFinancial(memberId);
+        if (!member.playsSport(sport.getName()))
+            throw new MyException("Member Id: " + memberId + " does not play " + sport.getName());
+        if (series.getOccurrences() < 1 || series.getOccurrences() > BookingSeries.MAX_OCCURRENCES)
+            throw new MyException("A series must have between 1 and " + BookingSeries.MAX_OCCURRENCES + " occurrences");
+        if (BookingStore.isPast(series.getFirstDate()))
+            throw new MyException("Bookings can only be made for future dates");
+        validBookingStartTime(series.getStartTime());
+        validBookingEndTime(series.getStartTime(), series.getEndTime(), sport.getName());
+
+        final ArrayList<BookingResult> results = new ArrayList<BookingResult>(series.getOccurrences());
+        for (BookingRequest request : series.getRequests())
+            results.add(new BookingResult(request));
+
+        saveNow(results, () -> {
+            ArrayList<Booking> made = new ArrayList<Booking>();
+            ReentrantLock lock = memberLocks.get(memberId);
+            lock.lock();
+            try
+            {
+                // the days the member already has a booking are left out of the sweep
+                ArrayList<LocalDate> dates = series.getDates();
+                for (int i = 0; i < dates.size(); i++)
+                    if (member.hasBooking(dates.get(i)))
+                    {
+                        results.get(i).failed("Only one booking can be made per day per member");
+                        dates.set(i, null);
+                    }
+
+                Booking[] bookings = sport.bookSeries(memberId, dates, series.getStartTime(), series.getEndTime());
+                for (int i = 0; i < bookings.length; i++)
+                {
+                    if (bookings[i] != null)
+                    {
+                        member.addBooking(bookings[i]);
+                        bookingWriter.beginInsert(bookings[i]);
+                        results.get(i).succeeded(bookings[i]);
+                        made.add(bookings[i]);
+                    }
+                    else if (dates.get(i) != null)
+                        results.get(i).failed("No " + sport.getName() + " courts are available at that time");
+                }
+            }
+            finally
+            {
+                lock.unlock();
+            }
+            return made;
+        });
+        return results;
+    }
+
+    /**
+     * Allocates bookings and saves them straight away in one transaction. If they could not be saved every booking
+     * made is taken back out of the club and its result marked as failed
+     *
+     * @param results the results the allocation records its bookings in
+     * @param allocation makes the bookings
+     */
+    private void saveNow(ArrayList<BookingResult> results, BookingWriter.Allocation allocation)
+    {
+        try
+        {
+            bookingWriter.insertNow(allocation);
+        }
+        catch (SQLException ex)
+        {
+            System.out.println("Batch of bookings could not be saved: " + ex);
+            for (BookingResult result : results)
+                if (result.isSuccessful())
+                {
+                    releaseBooking(result.getBooking());
+                    result.failed("The bookings could not be saved: " + ex.getMessage());
+                }
+        }
+    }
+
+    /**
+     * Saves a booking marked with BookingWriter.beginInsert straight away. If it could not be saved it is taken back
+     * out of the club
+     *
+     * @param booking the booking to save
+     * @throws MyException if another copy of the program booked the court at that time first, or the booking could
+     *                     not be saved
+     */
+    private void saveMarkedBooking(final Booking booking) throws MyException
+    {
+        try
+        {
+            bookingWriter.insertNow(() -> new ArrayList<Booking>(Collections.singletonList(booking)));
+        }
+        catch (SQLException ex)
+        {
+            releaseBooking(booking);
+            if (BookingWriter.isConstraintViolation(ex))
+                throw new MyException("Court " + booking.getCourtId() + " has already been booked at that time by another instance");
+            throw new MyException("The booking could not be saved: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Books a court for a member and adds the booking to the member. The booking is either queued for the booking
+     * writer or marked as being saved by insertNow, while the member's lock is still held so that it cannot be
+     * removed first
+     *
+     * @param memberId the id of the member making the booking
+     * @param sportName the name of the sport
+     * @param date the date of the booking
+     * @param startTime the starting time of the booking
+     * @param endTime the end time of the booking
+     * @param skipped the ids of courts not to book
+     * @param saveNow true if the caller saves the booking with insertNow, false to queue it
+     * @return Booking the booking that was made
+     * @throws MyException if the member or sport does not exist, the member already has a booking that day or no
+     *                     court is free at that time
+     */
+    private Booking allocateBooking(int memberId, String sportName, LocalDate date, LocalTime startTime, LocalTime endTime,
+                                    Set<Integer> skipped, boolean saveNow) throws MyException
     {
-        this.name = name;
-        members = new ArrayList<Member>();
-        sports = new ArrayList<Sport>();
-        // gets the club information from file
+        Member member = getMember(memberId);
+        Sport sport = getSport(sportName);
+        if (sport == null)
+            throw new MyException("The club does not offer " + sportName);
+        ReentrantLock lock = memberLocks.get(memberId);
+        lock.lock();
         try
         {
-            getMembersFromDB();
-            getSportsFromDB();
-            getBookingsFromDB();
+            // checked again now that no other booking for the member can be made at the same time
+            if (member.hasBooking(date))
+                throw new MyException("Only one booking can be made per day per member");
+            // books the first free court in the sport
+            Booking booking = sport.bookCourt(memberId, date, startTime, endTime, skipped);
+            if (booking == null)
+                throw new MyException("No " + sportName + " courts are available at that time");
+
+            member.addBooking(booking);
+            if (saveNow)
+                bookingWriter.beginInsert(booking);
+            else
+                bookingWriter.insert(booking);
+            return booking;
         }
-        catch(Exception ex)
+        finally
         {
-            System.out.println(ex);
+            lock.unlock();
         }
     }
 
     /**
-     * A mutator method to set the club name
+     * Takes a queued booking back out of the club when it could not be saved because another copy of the program
+     * booked the same court at the same time first
      *
-     * @param name the name of the club
+     * @param booking the booking that was not saved
      */
-    public void setName(String name)
+    public void releaseTakenBooking(Booking booking)
     {
-        this.name = name;
+        System.out.println("Court " + booking.getCourtId() + " was booked by another instance, " + booking + " has been removed");
+        releaseBooking(booking);
     }
 
     /**
-     * An accessor method to get the name of the club
+     * Takes a booking that was never saved back out of its court and member
      *
-     * @return String the name of the club
+     * @param booking the booking to release
      */
-    public String getName()
+    private void releaseBooking(Booking booking)
     {
-        return name;
+        ReentrantLock lock = memberLocks.get(booking.getMemberId());
+        lock.lock();
+        try
+        {
+            Court court = courtIndex.getCourt(booking.getCourtId());
+            if (court != null)
+                court.removeBooking(booking.getMemberId(), booking.getDate(), booking.getStartTime());
+            Member member = findMember(booking.getMemberId());
+            if (member != null)
+                member.removeBooking(booking.getDate(), booking.getStartTime());
+        }
+        finally
+        {
+            lock.unlock();
+        }
     }
 
     /**
-     * An accessor method to ge tthe list of members 
+     * Adds a booking another copy of the program has saved, read from the booking change log. Nothing is done if the
+     * booking is already in the club or is in the past
      *
-     * @return ArrayList<Member> the list of members
+     * @param booking the booking, with its id set
      */
-    public ArrayList<Member> getMembers()
+    public void applySavedBooking(Booking booking)
     {
-        return members;
+        Court court = courtIndex.getCourt(booking.getCourtId());
+        Member member = findMember(booking.getMemberId());
+        if (court == null || member == null || BookingStore.isPast(booking.getDate()))
+            return;
+        ReentrantLock lock = memberLocks.get(booking.getMemberId());
+        lock.lock();
+        try
+        {
+            if (getBooking(booking.getBookingId()) != null)
+                return;
+            court.addBooking(booking);
+            member.addBooking(booking);
+            noteBooking(booking);
+        }
+        finally
+        {
+            lock.unlock();
+        }
     }
 
     /**
-     * A mutator method to set the list of members 
+     * Removes a booking another copy of the program has deleted, read from the booking change log. Nothing is done if
+     * the booking is not in the club, and nothing is written to the database
      *
-     * @param members the list of members
+     * @param deleted the booking as it was deleted, with its id set
      */
-    public void setMembers(ArrayList<Member> members)
+    public void applyDeletedBooking(Booking deleted)
     {
-        this.members = members;
+        Court court = courtIndex.getCourt(deleted.getCourtId());
+        Member member = findMember(deleted.getMemberId());
+        if (court == null || member == null)
+            return;
+        Booking booking;
+        ReentrantLock lock = memberLocks.get(deleted.getMemberId());
+        lock.lock();
+        try
+        {
+            // a booking in the past is not indexed by id, it is found by its details instead
+            booking = court.getBooking(deleted.getMemberId(), deleted.getDate(), deleted.getStartTime());
+            if (booking == null || booking.getBookingId() != deleted.getBookingId())
+                return;
+            court.removeBooking(booking.getMemberId(), booking.getDate(), booking.getStartTime());
+            member.removeBooking(booking.getDate(), booking.getStartTime());
+            forgetBooking(booking);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        // the freed times may let in a request from this copy's waitlist
+        promoteWaitlisted(courtIndex.getSport(booking.getCourtId()), court, booking.getDate(), booking.getStartTime(), booking.getEndTime());
     }
 
     /**
-     * An accessor method to ge the list of sports
+     * Removes a saved booking from today on by its id
      *
-     * @return ArrayList<Sport> the list of sports
+     * @param bookingId the id of the booking
+     * @return String a message saying the booking was deleted
+     * @throws MyException if there is no such booking
      */
-    public ArrayList<Sport> getSports()
+    public String removeBooking(int bookingId) throws MyException
     {
-        return sports;
+        Booking booking = getBooking(bookingId);
+        if (booking == null)
+            throw new NotFoundException("Booking " + bookingId + " does not exist");
+        return removeBooking(booking.getMemberId(), booking.getCourtId(), sportHasCourt(booking.getCourtId()),
+                booking.getDate(), booking.getStartTime(), booking.getEndTime());
     }
 
     /**
-     * A mutator method to set the list of sports
+     * Removes a booking from the court and member
      *
-     * @param sports the list of sports
+     * @param memberId the id of the member making the booking
+     * @param courtId the id of the court to remove
+     * @param date the date of the booking
+     * @param startTime the starting time of the booking
+     * @param endTime the end time of the booking
+     * @return String a message saying the booking was deleted
+     * @throws MyException if the member does not exist or has no such booking
      */
-    public void setSports(ArrayList<Sport> sports)
+    public String removeBooking(int memberId, int courtId, String sportName, LocalDate date, LocalTime startTime, LocalTime endTime) throws MyException
     {
-        this.sports = sports;
+        Member member = getMember(memberId);
+        Sport sport = getSport(sportName);
+        Court court = sport.getCourt(courtId);
+        Booking booking;
+        ReentrantLock lock = memberLocks.get(memberId);
+        lock.lock();
+        try
+        {
+            booking = court == null ? null : court.getBooking(memberId, date, startTime);
+            sport.removeBooking(memberId,  courtId,  date, startTime, endTime);
+
+            // an archived booking is only kept by the archive, not by the member
+            boolean archived = booking != null && getHistoryBefore().isAfter(date);
+            if (!member.removeBooking(date, startTime) && !archived)
+                throw new NotFoundException("Booking could not be found");
+            // queued, cancels out the insert instead if the booking has not been saved yet
+            if (booking != null)
+            {
+                bookingWriter.delete(booking);
+                forgetBooking(booking);
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        // the freed times may let in a request from the waitlist
+        if (booking != null)
+            promoteWaitlisted(sport, court, date, booking.getStartTime(), booking.getEndTime());
+        return "Booking deleted successfully";
     }
 
     /**
-     * Adds the given member to the club
+     * Puts a booking request on the sport's waitlist, to be booked automatically when a booking that overlaps it is
+     * cancelled and its times become free
      *
-     * @param member the member to add to the club 
+     * @param memberId the id of the member making the booking
+     * @param sportName the name of the sport
+     * @param date the date of the booking
+     * @param startTime the starting time of the booking
+     * @param endTime the end time of the booking
+     * @return Waitlist.Entry the entry made on the waitlist
+     * @throws MyException if the request breaks a booking rule, a court is free at that time or the member is already
+     *                     waiting on that date
      */
-    public void addMember(Member member)
+    public Waitlist.Entry addToWaitlist(int memberId, String sportName, LocalDate date, LocalTime startTime, LocalTime endTime) throws MyException
     {
-        members.add(member);
+        validateBooking(memberId, sportName, date, startTime, endTime);
+        Sport sport = getSport(sportName);
+        if (sport.hasCourtAvailable(date, startTime, endTime))
+            throw new MyException("A " + sportName + " court is available at that time, it can be booked now");
+        return sport.getWaitlist().add(new BookingRequest(memberId, sport.getName(), date, startTime, endTime));
     }
 
     /**
-     * Gets the member with the matching member id 
+     * Finds the earliest times over the next 7 days, starting today, that a court is free for the given length
+     * between two times of day. Each court's day is answered from its occupancy bitmap in a few word operations, see
+     * CourtDay.runStarts, rather than by checking the court hour by hour. Times are on half hour boundaries and
+     * follow the booking rules, starting from 09:00 up to 21:00 and ending by 22:00
      *
-     * @param memberId the member id to find
-     * @return Member the member, null if not found
+     * @param sportName the name of the sport, null for every sport the booking length is allowed for
+     * @param minutes the length of the booking in minutes, a multiple of 30
+     * @param from the earliest a booking may start
+     * @param to the latest a booking may end
+     * @param count the most times to find
+     * @return ArrayList<AvailableSlot> the times found, earliest first, then in sport and court order
+     * @throws MyException if the sport does not exist or the length or times are not valid
      */
-    public Member getMember(int memberId) throws MyException
+    public ArrayList<AvailableSlot> findEarliestSlots(String sportName, int minutes, LocalTime from, LocalTime to, int count) throws MyException
     {
-        Member result = null;
-        for (Member member : members)
+        if (minutes <= 0 || minutes % CourtDay.SLOT_MINUTES != 0)
+            throw new MyException("The length must be a multiple of " + CourtDay.SLOT_MINUTES + " minutes");
+        if (!from.isBefore(to))
+            throw new MyException("The end time has to be after the start time.");
+
+        ArrayList<Sport> searched = new ArrayList<Sport>();
+        if (sportName != null)
         {
-            if (memberId == member.getMemberId())
+            Sport sport = getSport(sportName);
+            if (sport == null)
+                throw new MyException("The club does not offer " + sportName);
+            validBookingEndTime(LocalTime.of(9, 0), LocalTime.of(9, 0).plusMinutes(minutes), sport.getName());
+            searched.add(sport);
+        }
+        else
+            for (Sport sport : getSports())
             {
-                result = member;
-                break;
+                try
+                {
+                    validBookingEndTime(LocalTime.of(9, 0), LocalTime.of(9, 0).plusMinutes(minutes), sport.getName());
+                    searched.add(sport);
+                }
+                catch (MyException ex)
+                {
+                    // the length is too long for this sport
+                }
+            }
+        // every court searched, in sport then court order
+        ArrayList<Court> courts = new ArrayList<Court>();
+        ArrayList<String> courtSports = new ArrayList<String>();
+        for (Sport sport : searched)
+            for (Court court : sport.getCourts())
+            {
+                courts.add(court);
+                courtSports.add(sport.getName());
             }
-        }
 
-        if (result == null)
-            throw new MyException("Member does not exist");
+        int length = minutes / CourtDay.SLOT_MINUTES;
+        LocalTime opens = from.isBefore(LocalTime.of(9, 0)) ? LocalTime.of(9, 0) : from;
+        LocalTime closes = to.isAfter(LocalTime.of(22, 0)) ? LocalTime.of(22, 0) : to;
+        // the whole run must lie within the window, and may start no later than 21:00
+        long window = CourtDay.slotMask(opens, closes) & ~CourtDay.slotMask(closes, LocalTime.MAX);
+        if (!CourtDay.onSlotBoundary(opens))
+            window &= ~CourtDay.slotMask(opens, opens);
+        long latestStarts = CourtDay.rangeMask(0, LocalTime.of(21, 0).toSecondOfDay() / (CourtDay.SLOT_MINUTES * 60) + 1);
+
+        ArrayList<AvailableSlot> result = new ArrayList<AvailableSlot>();
+        LocalDate today = BookingStore.getToday();
+        LocalDateTime now = LocalDateTime.now();
+        for (int d = 0; d < 7 && result.size() < count; d++)
+        {
+            LocalDate date = today.plusDays(d);
+            long allowed = latestStarts;
+            // today only from the next slot that has not started, and none of it if the clock is already past midnight
+            if (d == 0 && now.toLocalDate().isAfter(today))
+                allowed = 0L;
+            else if (d == 0)
+                allowed &= ~CourtDay.rangeMask(0, (now.toLocalTime().toSecondOfDay() + CourtDay.SLOT_MINUTES * 60 - 1) / (CourtDay.SLOT_MINUTES * 60));
+
+            // the slots a free run starts at on each court, and on any court
+            long[] starts = new long[courts.size()];
+            long any = 0L;
+            for (int c = 0; c < courts.size(); c++)
+            {
+                starts[c] = courts.get(c).getFreeStarts(date, length, window) & allowed;
+                any |= starts[c];
+            }
 
+            // each set bit is a start time, lowest first
+            while (any != 0 && result.size() < count)
+            {
+                int slot = Long.numberOfTrailingZeros(any);
+                any &= any - 1;
+                LocalTime startTime = LocalTime.ofSecondOfDay((long) slot * CourtDay.SLOT_MINUTES * 60);
+                for (int c = 0; c < courts.size() && result.size() < count; c++)
+                    if ((starts[c] >>> slot & 1L) != 0)
+                        result.add(new AvailableSlot(courtSports.get(c), courts.get(c).getCourtId(), date, startTime, startTime.plusMinutes(minutes)));
+            }
+        }
         return result;
     }
 
     /**
-     * Adds the given sport to the club
+     * Holds a court for a member for hold.seconds while they confirm the booking. The hold follows the same rules as
+     * a booking and takes up the court's time until it is confirmed, released or expires
      *
-     * @param sport the sport to add
+     * @param memberId the id of the member to hold the court for
+     * @param sportName the name of the sport
+     * @param date the date of the booking
+     * @param startTime the starting time of the booking
+     * @param endTime the end time of the booking
+     * @return Hold the hold that was made
+     * @throws MyException if the booking breaks a rule, the member already holds a court that day or no court is free
      */
-    public void addSport(Sport sport)
+    public Hold placeHold(int memberId, String sportName, LocalDate date, LocalTime startTime, LocalTime endTime) throws MyException
     {
-        sports.add(sport);
+        validateBooking(memberId, sportName, date, startTime, endTime);
+        Member member = getMember(memberId);
+        Sport sport = getSport(sportName);
+        ReentrantLock lock = memberLocks.get(memberId);
+        lock.lock();
+        try
+        {
+            if (member.hasBooking(date))
+                throw new MyException("Only one booking can be made per day per member");
+            if (memberHolds.containsKey(memberDay(memberId, date)))
+                throw new MyException("Member Id: " + memberId + " already has a court held on " + date);
+
+            Hold hold = sport.holdCourt(nextHoldId.getAndIncrement(), memberId, date, startTime, endTime, System.currentTimeMillis() + holdMillis);
+            if (hold == null)
+                throw new MyException("No " + sportName + " courts are available at that time");
+            // scheduled before it is published so anyone who finds the hold can cancel its timeout
+            hold.setTimeout(getHoldExpiry().schedule(hold, holdMillis));
+            holds.put(hold.getHoldId(), hold);
+            memberHolds.put(memberDay(memberId, date), hold);
+            return hold;
+        }
+        finally
+        {
+            lock.unlock();
+        }
     }
 
     /**
-     * Gets the sport with the matching string name
+     * Turns a hold into a booking and saves it, straight away when the database checks court slots so that a clash
+     * with another copy of the program is reported here
      *
-     * @param name the string to match
-     * @return Sport the sport that matches
+     * @param holdId the id of the hold
+     * @return Booking the booking that was made
+     * @throws MyException if the hold does not exist, has expired or is for a day that has passed, the member has
+     * booked something else that day, or the booking could not be saved
      */
-    public Sport getSport(String name)
+    public Booking confirmHold(long holdId) throws MyException
     {
-        Sport result = null;
-        for (Sport sport : sports)
+        Hold hold = holds.get(holdId);
+        if (hold == null)
+            throw new NotFoundException("Hold " + holdId + " does not exist or has expired");
+        Member member = getMember(hold.getMemberId());
+        Court court = courtIndex.getCourt(hold.getCourtId());
+        Booking booking = null;
+
+        ReentrantLock lock = memberLocks.get(hold.getMemberId());
+        lock.lock();
+        try
         {
-            if (name.equals(sport.getName()))
+            // the hold is ours once its timeout is cancelled, expiry and release can no longer take it
+            if (!hold.getTimeout().cancel())
+                throw new NotFoundException("Hold " + holdId + " does not exist or has expired");
+            forgetHold(hold);
+            // a hold for today confirmed after midnight, its day may already have been sealed
+            if (BookingStore.isPast(hold.getDate()))
             {
-                result = sport;
-                break;
+                court.releaseHold(hold);
+                throw new MyException("Hold " + holdId + " is for a day that has passed");
             }
+            if (!member.hasBooking(hold.getDate()))
+            {
+                booking = court.confirmHold(hold);
+                if (booking == null)
+                    throw new NotFoundException("Hold " + holdId + " does not exist or has expired");
+                member.addBooking(booking);
+                if (bookingWriter.isSlotTableEnabled())
+                    bookingWriter.beginInsert(booking);
+                else
+                    // queued, the booking writer saves it to the database shortly
+                    bookingWriter.insert(booking);
+            }
+            else
+                court.releaseHold(hold);
         }
-        return result;
+        finally
+        {
+            lock.unlock();
+        }
+
+        if (booking != null)
+        {
+            if (bookingWriter.isSlotTableEnabled())
+                saveMarkedBooking(booking);
+            return booking;
+        }
+        promoteWaitlisted(getSport(hold.getSportName()), court, hold.getDate(), hold.getStartTime(), hold.getEndTime());
+        throw new MyException("Only one booking can be made per day per member");
     }
 
     /**
-     * Gets the sport at the given index
+     * Releases a hold before it expires, freeing the court's time
      *
-     * @param index the index to get
-     * @return Sport the sport at the index
+     * @param holdId the id of the hold
+     * @return boolean true if the hold was released, false if it does not exist or has already expired
      */
-    public Sport getSport(int index)
+    public boolean releaseHold(long holdId)
     {
-        return sports.get(index);
+        Hold hold = holds.get(holdId);
+        if (hold == null || !hold.getTimeout().cancel())
+            return false;
+        freeHold(hold);
+        return true;
     }
 
     /**
-     * Returns the name of the sport that has the given court id 
+     * Gets a live hold
      *
-     * @param courtId the court id to look for
-     * @return String the name of the sport
+     * @param holdId the id of the hold
+     * @return Hold the hold, null if it does not exist or has expired
      */
-    public String sportHasCourt(int courtId) throws MyException
+    public Hold getHold(long holdId)
     {
-        String result = null;
+        return holds.get(holdId);
+    }
 
-        for (Sport sport : sports)
-            if(sport.hasCourt(courtId))
-                result = sport.getName();
+    /**
+     * Gets the number of live holds
+     *
+     * @return int the number of holds
+     */
+    public int getHoldCount()
+    {
+        return holds.size();
+    }
 
-        if (result == null)
-            throw new MyException("That court does not exist");
+    /**
+     * Gets the timing wheel that expires holds, starting it when the first hold is placed so the club's constructor
+     * does not hand it a club that is still being built
+     *
+     * @return TimingWheel the wheel holds are scheduled on
+     */
+    private synchronized TimingWheel<Hold> getHoldExpiry()
+    {
+        if (holdExpiry == null)
+            holdExpiry = new TimingWheel<Hold>("hold-expiry", 1000, 512, this::expireHold);
+        return holdExpiry;
+    }
 
-        return result;
+    /**
+     * Frees an expired hold, called by the timing wheel
+     *
+     * @param hold the hold that expired
+     */
+    private void expireHold(Hold hold)
+    {
+        freeHold(hold);
+    }
+
+    private void freeHold(Hold hold)
+    {
+        forgetHold(hold);
+        Court court = courtIndex.getCourt(hold.getCourtId());
+        if (court != null && court.releaseHold(hold))
+            promoteWaitlisted(getSport(hold.getSportName()), court, hold.getDate(), hold.getStartTime(), hold.getEndTime());
+    }
+
+    private void forgetHold(Hold hold)
+    {
+        holds.remove(hold.getHoldId(), hold);
+        memberHolds.remove(memberDay(hold.getMemberId(), hold.getDate()), hold);
+    }
+
+    private static long memberDay(int memberId, LocalDate date)
+    {
+        return ((long) memberId << 32) | (date.toEpochDay() & 0xFFFFFFFFL);
     }
 
     /**
-     * Adds a booking to the court and member
+     * Books waiting requests into times that have just been freed on a court. Only the requests overlapping the
+     * freed times are looked at, earliest first, and each one that now fits the court is booked and saved. Requests
+     * from members who have since made another booking that day are dropped
      *
-     * @param memberId the id of the member making the booking
-     * @param sportName the name of the sport
-     * @param date the date of the booking
-     * @param startTime the starting time of the booking
-     * @param endTime the end time of the booking
+     * @param sport the sport the court belongs to
+     * @param court the court with freed times
+     * @param date the date of the freed times
+     * @param startTime the start of the freed times
+     * @param endTime the end of the freed times
+     * @return ArrayList<Booking> the bookings made from the waitlist
      */
-    public void addBooking(int memberId, String sportName, LocalDate date, LocalTime startTime, LocalTime endTime) throws MyException
+    private ArrayList<Booking> promoteWaitlisted(Sport sport, Court court, LocalDate date, LocalTime startTime, LocalTime endTime)
     {
-        Member member = getMember(memberId);
-        Sport sport = getSport(sportName);
-        // adds the booking in the sport, returning the court id booked
-        int courtId = sport.addBooking(memberId, date, startTime, endTime);
-        // if court was booked (indicated by non zero) adds booking to member
-        if (courtId != 0)
-            member.addBooking(sport.getCourt(courtId).getBooking(memberId, date, startTime));
-
-        try{
-            Connection conn = DBUtility.connect();
-            PreparedStatement statement = conn.prepareStatement("INSERT INTO booking(`memberId`, `courtId`, `date`, `startTime`, `endTime`) VALUES (?, ?, ?, ?, ?)");
-            statement.setInt(1, memberId);
-            statement.setInt(2, courtId);
-            statement.setDate(3, java.sql.Date.valueOf(date));
-            statement.setTime(4, java.sql.Time.valueOf(startTime));
-            statement.setTime(5, java.sql.Time.valueOf(endTime));
-            statement.executeUpdate();
-            conn.close();
-        }
-        catch (Exception e) {
-            System.out.println(e);
+        ArrayList<Booking> promoted = new ArrayList<Booking>();
+        if (court == null || BookingStore.isPast(date))
+            return promoted;
+
+        Waitlist waitlist = sport.getWaitlist();
+        for (Waitlist.Entry entry : waitlist.getCandidates(date, startTime, endTime))
+        {
+            BookingRequest request = entry.getRequest();
+            // checked against the availability index before taking the member's lock
+            if (!court.checkCourtAvailable(date, request.getStartTime(), request.getEndTime()))
+                continue;
+            Member member = findMember(request.getMemberId());
+            if (member == null)
+            {
+                waitlist.remove(entry);
+                continue;
+            }
+
+            Booking booking;
+            ReentrantLock lock = memberLocks.get(request.getMemberId());
+            lock.lock();
+            try
+            {
+                if (member.hasBooking(date))
+                {
+                    waitlist.remove(entry);
+                    continue;
+                }
+                booking = court.tryAddBooking(request.getMemberId(), date, request.getStartTime(), request.getEndTime());
+                // another booking may have taken the times since they were checked, the entry keeps waiting
+                if (booking == null || !waitlist.remove(entry))
+                {
+                    if (booking != null)
+                        court.removeBooking(booking.getMemberId(), date, booking.getStartTime());
+                    continue;
+                }
+                member.addBooking(booking);
+                if (bookingWriter.isSlotTableEnabled())
+                    bookingWriter.beginInsert(booking);
+                else
+                    bookingWriter.insert(booking);
+            }
+            finally
+            {
+                lock.unlock();
+            }
+
+            if (bookingWriter.isSlotTableEnabled())
+            {
+                try
+                {
+                    saveMarkedBooking(booking);
+                }
+                catch (MyException ex)
+                {
+                    // the request keeps its place for the next time the times are freed
+                    System.out.println("Could not book " + entry + " from the waitlist: " + ex.getMessage());
+                    waitlist.putBack(entry);
+                    continue;
+                }
+            }
+            promoted.add(booking);
+            System.out.println("Booked from the waitlist: " + booking);
         }
+        return promoted;
     }
 
     /**
-     * Removes a booking from the court and member
+     * Checks a booking request against every business rule, as the GUI and the booking server both need to
      *
      * @param memberId the id of the member making the booking
-     * @param courtId the id of the court to remove
+     * @param sportName the name of the sport
      * @param date the date of the booking
      * @param startTime the starting time of the booking
      * @param endTime the end time of the booking
+     * @throws MyException describing the first rule the booking breaks
      */
-    public String removeBooking(int memberId, int courtId, String sportName, LocalDate date, LocalTime startTime, LocalTime endTime) throws MyException
+    public void validateBooking(int memberId, String sportName, LocalDate date, LocalTime startTime, LocalTime endTime) throws MyException
     {
         Member member = getMember(memberId);
-        Sport sport = getSport(sportName);
-        sport.removeBooking(memberId,  courtId,  date, startTime, endTime);
-
-        if (member.removeBooking(date, startTime))
-        {
-            try{
-                Connection conn = DBUtility.connect();
-                PreparedStatement statement = conn.prepareStatement("DELETE FROM booking WHERE memberId = ? AND courtId = ? AND date = ? AND startTime = ? AND endTime = ?");
-                statement.setInt(1, memberId);
-                statement.setInt(2, courtId);
-                statement.setDate(3, java.sql.Date.valueOf(date));
-                statement.setTime(4, java.sql.Time.valueOf(startTime));
-                statement.setTime(5, java.sql.Time.valueOf(endTime));
-                statement.executeUpdate();
-                conn.close();
-            }
-            catch (Exception e) {
-                System.out.println(e);
-            }
-            return "Booking deleted successfully";
-
-        }
-        else
-            return "Booking could not be found";
+        if (sportName == null || getSport(sportName) == null)
+            throw new MyException("The club does not offer " + sportName);
+        validMemberFinancial(memberId);
+        if (!member.playsSport(sportName))
+            throw new MyException("Member Id: " + memberId + " does not play " + sportName);
+        validBookingDate(date, memberId);
+        validBookingStartTime(startTime);
+        validBookingEndTime(startTime, endTime, sportName);
     }
 
     /**
@@ -334,6 +1479,24 @@ public class Club
             throw new MyException("Bookings for Basketball can't be longer than 3 hours.");
         else if (sportName.equals("Badminton") && startTime.plusHours(2).isBefore(endTime))
             throw new MyException("Bookings for Badminton can't be longer than 2 hours.");
+        validSlotTimes(startTime, endTime);
+        return true;
+    }
+
+    /**
+     * Checks that a booking starts and ends on the hour or half hour when the database checks court slots, as a
+     * booking between slot boundaries would claim a whole slot and clash with a neighbouring booking it does not
+     * overlap
+     *
+     * @param startTime the start time of the booking
+     * @param endTime the end time of the booking
+     * @return boolean true if the times can be booked
+     * @throws MyException if a time is off the half hour while the slot table is in use
+     */
+    public boolean validSlotTimes(LocalTime startTime, LocalTime endTime) throws MyException
+    {
+        if (bookingWriter.isSlotTableEnabled() && !(CourtDay.onSlotBoundary(startTime) && CourtDay.onSlotBoundary(endTime)))
+            throw new MyException("Bookings have to start and end on the hour or half hour.");
         return true;
     }
 
@@ -354,121 +1517,112 @@ public class Club
     }
 
     /**
-     * Gets the member information from database, and adds to list of members
+     * Gets the member information from database, and adds to list of members. Members and the sports they play are
+     * read in a single query ordered by member, so each member is built as soon as their last row has been read
      */
     public void getMembersFromDB()
     {
-        try
+        try (Connection conn = DBUtility.connect())
         {
-            Connection conn = DBUtility.connect();
-            Statement stmt=conn.createStatement();
-            ResultSet rs=stmt.executeQuery("SELECT * FROM member");
+            Statement stmt = DBUtility.streamingStatement(conn);
+            ResultSet rs = stmt.executeQuery("SELECT mem.id, mem.name, mem.financial, sp.name FROM member AS mem "
+                    + "LEFT JOIN participant AS part ON part.memberId = mem.id "
+                    + "LEFT JOIN sport AS sp ON sp.id = part.sportId ORDER BY mem.id");
+            Member current = null;
             while(rs.next()) {
                 int id = rs.getInt(1);
-                String name = rs.getString(2);
-                boolean financial = rs.getBoolean(3);
-                ArrayList<String> sportsPlayed = new ArrayList<String>();
-
-                PreparedStatement sportsStmt = conn.prepareStatement("SELECT sp.name FROM sport AS sp INNER JOIN participant AS part ON part.sportId = sp.id INNER JOIN member AS mem ON part.memberId = mem.id WHERE mem.id = ?");
-                sportsStmt.setInt(1, id);
-                ResultSet sportsRs = sportsStmt.executeQuery();
-                while(sportsRs.next()) {
-                    String sportName = sportsRs.getString(1);
-                    sportsPlayed.add(sportName);
+                // the first row for each member creates the member
+                if (current == null || current.getMemberId() != id)
+                {
+                    current = new Member(id, rs.getString(2), rs.getBoolean(3), new ArrayList<String>());
+                    addMember(current);
                 }
-
-                addMember(new Member(id, name, financial, sportsPlayed));
+                // members that play no sports have a single row with no sport name
+                String sportName = rs.getString(4);
+                if (sportName != null)
+                    current.getSportsPlayed().add(sportName);
             }
-            conn.close();
         }
         catch(Exception e) {
+            System.out.println(e);
         }
     }
 
     /**
-     * Gets the sports information from database and adds it to list of sports
+     * Gets the sports information from database and adds it to list of sports. Sports and their courts are read in a
+     * single query ordered by sport
      */
     public void getSportsFromDB()
     {
-        try
+        try (Connection conn = DBUtility.connect())
         {
-            Connection conn = DBUtility.connect();
-            Statement stmt=conn.createStatement();
-            ResultSet rs=stmt.executeQuery("SELECT * FROM sport");
+            Statement stmt = DBUtility.streamingStatement(conn);
+            ResultSet rs = stmt.executeQuery("SELECT sp.id, sp.name, sp.usageFee, sp.insuranceFee, c.courtNumber FROM sport AS sp "
+                    + "LEFT JOIN court AS c ON c.sportId = sp.id ORDER BY sp.id, c.id");
+            int currentId = 0;
+            String name = null;
+            double usage = 0;
+            double insurance = 0;
+            ArrayList<Integer> courtsList = new ArrayList<Integer>();
             while(rs.next()) {
                 int id = rs.getInt(1);
-                String name = rs.getString(2);
-                double usage = rs.getDouble(3);
-                double insurance = rs.getDouble(4);
-
-                ArrayList<Integer> courtsList = new ArrayList<Integer>();
-                PreparedStatement courtsStmt = conn.prepareStatement("SELECT courtNumber FROM court WHERE sportId = ?");
-                courtsStmt.setInt(1, id);
-                ResultSet courtsRs = courtsStmt.executeQuery();
-                while(courtsRs.next()) {
-                    int courtNumber = courtsRs.getInt(1);
-                    courtsList.add(courtNumber);
-                }
-
-                int[] courtsArray = new int[courtsList.size()];
-                for(int i = 0; i < courtsList.size(); i++) {
-                    courtsArray[i] = courtsList.get(i).intValue();
+                // the first row for each sport finishes off the previous sport
+                if (name == null || id != currentId)
+                {
+                    if (name != null)
+                        addSport(createSport(name, usage, insurance, courtsList));
+                    currentId = id;
+                    name = rs.getString(2);
+                    usage = rs.getDouble(3);
+                    insurance = rs.getDouble(4);
+                    courtsList.clear();
                 }
-
-                Sport temp = null;
-                if (name.toLowerCase().equals("basketball"))
-                    temp = new Basketball(name, usage, insurance,courtsArray, 3.05);
-                else if (name.toLowerCase().equals("badminton"))
-                    temp = new Badminton(name, usage, insurance, courtsArray, true);
-                else
-                    temp = new Sport(name, usage, insurance, courtsArray);
-
-                addSport(temp);
+                // sports with no courts have a single row with no court number
+                int courtNumber = rs.getInt(5);
+                if (!rs.wasNull())
+                    courtsList.add(courtNumber);
             }
-            conn.close();
+            if (name != null)
+                addSport(createSport(name, usage, insurance, courtsList));
         }
         catch(Exception e) {
+            System.out.println(e);
         }
     }
 
     /**
-     * Gets the booking information from database and adds it to list of bookings
+     * Creates the sport object for the sport with the given name, using the subclass for sports that have one
+     *
+     * @param name the name of the sport
+     * @param usage the usage fee
+     * @param insurance the insurance fee
+     * @param courtsList the court numbers the sport is played on
+     * @return Sport the sport
      */
-    public void getBookingsFromDB() throws MyException
+    static Sport createSport(String name, double usage, double insurance, ArrayList<Integer> courtsList)
     {
-        try
-        {
-            Connection conn = DBUtility.connect();
-            Statement stmt=conn.createStatement();
-            ResultSet rs=stmt.executeQuery("SELECT * FROM booking");
-            while(rs.next()) {
-                int id = rs.getInt(1);
-                int memberId = rs.getInt(2);
-                int courtId = rs.getInt(3);
-                LocalDate date = rs.getDate(4).toLocalDate();
-                LocalTime startTime = rs.getTime(5).toLocalTime();
-                LocalTime endTime = rs.getTime(6).toLocalTime();
-
-                Sport tempSport = null;
-                Member tempMember = null;
-                // gets the sport with the enter court id
-                for (Sport sport : sports)
-                {
-                    if (sport.getCourt(courtId) != null)
-                        tempSport = sport;
-                }
-                // gets the member with the member id
-                tempMember = getMember(memberId);
-                // adds bookings to sport and member
-                tempSport.addBooking(memberId, courtId, date, startTime, endTime);
-                tempMember.addBooking(tempSport.getCourt(courtId).getBooking(memberId, date, startTime));
-            }
-
-            conn.close();
-        }
-        catch(Exception e) {
+        int[] courtsArray = new int[courtsList.size()];
+        for(int i = 0; i < courtsList.size(); i++) {
+            courtsArray[i] = courtsList.get(i).intValue();
         }
 
+        Sport temp = null;
+        if (name.toLowerCase().equals("basketball"))
+            temp = new Basketball(name, usage, insurance,courtsArray, 3.05);
+        else if (name.toLowerCase().equals("badminton"))
+            temp = new Badminton(name, usage, insurance, courtsArray, true);
+        else
+            temp = new Sport(name, usage, insurance, courtsArray);
+        return temp;
+    }
+
+    /**
+     * Gets the booking information from database and adds it to the courts and members, the members and sports
+     * must already be loaded
+     */
+    public void getBookingsFromDB()
+    {
+        new ClubLoader(this).loadBookings();
     }
 
     /**
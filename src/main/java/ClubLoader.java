@@ -0,0 +1,371 @@
+import utility.DBUtility;
+import utility.IntHashMap;
+
+import java.sql.*;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads a club's members, sports and bookings from the database in phases:
+ *
+ * 1. members and sports are loaded at the same time, each on its own connection
+ * 2. bookings are streamed from the database and split into partitions by court
+ * 3. the partitions are attached to their courts in parallel, then the same bookings are attached to their members
+ *    in parallel partitions by member, so no two threads ever add to the same list
+ *
+ * If there is a current snapshot file the bookings are read from it instead, and only the bookings added since it was
+ * written are read from the database. Members and sports are always read from the database. Bookings before the
+ * date the booking archive covers up to are never loaded, and once everything is loaded the history that has passed
+ * since is sealed and archived. After a full load a new snapshot is written.
+ *
+ * If the bookings cannot all be read or attached the load fails, rather than leaving a club that could book the
+ * missing bookings' times a second time, and nothing is sealed, archived or written to the snapshot
+ *
+ * The time taken by each phase is recorded and printed when loading finishes
+ *
+ * @author Alex McWhae
+ */
+public class ClubLoader
+{
+    // the club being loaded
+    private Club club;
+    // the number of threads used to load
+    private int threads;
+    // the time taken by each phase in milliseconds, in the order they ran
+    private LinkedHashMap<String, Long> phaseTimings;
+
+    /**
+     * Constructor
+     *
+     * @param club the club to load into, should have no members or sports yet
+     */
+    public ClubLoader(Club club)
+    {
+        this.club = club;
+        this.threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        this.phaseTimings = new LinkedHashMap<String, Long>();
+    }
+
+    /**
+     * An accessor method to get the time taken by each phase of the last load
+     *
+     * @return LinkedHashMap<String, Long> the phase names and their times in milliseconds
+     */
+    public synchronized LinkedHashMap<String, Long> getPhaseTimings()
+    {
+        return new LinkedHashMap<String, Long>(phaseTimings);
+    }
+
+    /**
+     * Loads the club on a background thread, so that the caller (such as the GUI) can carry on while it loads
+     *
+     * @return CompletableFuture<Club> completes with the club once everything is loaded
+     */
+    public CompletableFuture<Club> loadAsync()
+    {
+        final ExecutorService executor = createExecutor();
+        return CompletableFuture.supplyAsync(() -> {
+            runPhases(executor);
+            return club;
+        }, executor).whenComplete((loaded, ex) -> executor.shutdown());
+    }
+
+    /**
+     * Loads the club, returning once everything is loaded
+     */
+    public void load()
+    {
+        ExecutorService executor = createExecutor();
+        try
+        {
+            runPhases(executor);
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Loads only the bookings, for a club whose members and sports have already been loaded
+     */
+    public void loadBookings()
+    {
+        ExecutorService executor = createExecutor();
+        try
+        {
+            club.getBookingWriter().start(club);
+            attachBookings(readBookings(0, new IntHashMap<ArrayList<Booking>>()), executor);
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    private void runPhases(ExecutorService executor)
+    {
+        long start = System.nanoTime();
+        // the booking writer has to know whether the database checks court slots before anything is booked
+        club.getBookingWriter().start(club);
+
+        // members and sports do not depend on each other
+        CompletableFuture<Void> members = CompletableFuture.runAsync(timed("members", club::getMembersFromDB), executor);
+        CompletableFuture<Void> sports = CompletableFuture.runAsync(timed("sports", club::getSportsFromDB), executor);
+        CompletableFuture.allOf(members, sports).join();
+
+        // bookings need both the member and court indexes
+        boolean fromSnapshot = loadFromSnapshot(executor);
+        if (!fromSnapshot)
+            attachBookings(readBookings(0, new IntHashMap<ArrayList<Booking>>()), executor);
+
+        timed("history sealed", club::sealHistory).run();
+        timed("history archived", club::archiveHistory).run();
+        // written after archiving, so the snapshot leaves out the history the archive holds
+        if (!fromSnapshot && ClubSnapshot.isEnabled())
+            timed("snapshot written", this::writeSnapshot).run();
+        timed("availability", club::buildAvailabilityMatrix).run();
+        // changes made by other instances while loading are caught up on the first poll
+        club.getChangeLog().start(club);
+        record("total", System.nanoTime() - start);
+        System.out.println("Club loaded: " + getPhaseTimings());
+    }
+
+    /**
+     * Loads the bookings from the snapshot file if there is one that is still current, then reads any bookings made
+     * since it was written
+     *
+     * @param executor the executor to attach bookings on
+     * @return boolean true if the bookings were loaded, false if they need to be read from the database
+     */
+    private boolean loadFromSnapshot(ExecutorService executor)
+    {
+        if (!ClubSnapshot.isEnabled())
+            return false;
+
+        long start = System.nanoTime();
+        ClubSnapshot snapshot = ClubSnapshot.open(ClubSnapshot.getFile());
+        if (snapshot == null || !isCurrent(snapshot))
+            return false;
+
+        IntHashMap<ArrayList<Booking>> byCourt = snapshot.readBookings();
+        club.noteBookingId(snapshot.getHighWaterMark());
+        record("snapshot read", System.nanoTime() - start);
+
+        // catches up on bookings added after the snapshot was written
+        attachBookings(readBookings(snapshot.getHighWaterMark(), byCourt), executor);
+        return true;
+    }
+
+    /**
+     * Checks that the snapshot is recent enough and that none of the bookings it holds have been deleted from the
+     * database. Bookings are never changed in place, so a count of those up to its high water mark is enough
+     *
+     * @param snapshot the snapshot to check
+     * @return boolean true if the snapshot can be used
+     */
+    private boolean isCurrent(ClubSnapshot snapshot)
+    {
+        long maxAge = DBUtility.getIntProperty("snapshot.maxAgeHours", 24) * 3600000L;
+        if (System.currentTimeMillis() - snapshot.getCreatedAt() > maxAge)
+        {
+            System.out.println("Snapshot is too old, loading from the database");
+            return false;
+        }
+
+        // bookings the snapshot left out must all be in the archive
+        if (snapshot.getHistoryBefore().isAfter(club.getHistoryBefore()))
+        {
+            System.out.println("Snapshot is newer than the booking archive, loading from the database");
+            return false;
+        }
+
+        try (Connection conn = DBUtility.connect())
+        {
+            PreparedStatement stmt = conn.prepareStatement("SELECT COUNT(*) FROM booking WHERE id <= ? AND date >= ?");
+            stmt.setInt(1, snapshot.getHighWaterMark());
+            stmt.setDate(2, Date.valueOf(snapshot.getHistoryBefore()));
+            ResultSet rs = stmt.executeQuery();
+            if (rs.next() && rs.getInt(1) == snapshot.getBookingCount())
+                return true;
+        }
+        catch (Exception e)
+        {
+            System.out.println(e);
+        }
+        System.out.println("Snapshot is out of date, loading from the database");
+        return false;
+    }
+
+    private void writeSnapshot()
+    {
+        try
+        {
+            ClubSnapshot.write(club, ClubSnapshot.getFile());
+        }
+        catch (Exception e)
+        {
+            System.out.println("Snapshot could not be written: " + e);
+        }
+    }
+
+    /**
+     * Streams the bookings with an id above the given id from the database, splitting them by court
+     *
+     * @param afterId only bookings with a higher id are read, 0 to read every booking
+     * @param byCourt the bookings for each court id, new bookings are added to it
+     * @return IntHashMap<ArrayList<Booking>> the bookings for each court id
+     */
+    private IntHashMap<ArrayList<Booking>> readBookings(int afterId, IntHashMap<ArrayList<Booking>> byCourt)
+    {
+        long start = System.nanoTime();
+        int highest = afterId;
+        Connection conn = DBUtility.connect();
+        if (conn == null)
+        {
+            // there are no members or sports either, so nothing can be booked
+            record(afterId == 0 ? "bookings read" : "bookings caught up", System.nanoTime() - start);
+            return byCourt;
+        }
+        try (Connection streamConn = conn)
+        {
+            // the history in the booking archive is not loaded
+            PreparedStatement stmt = DBUtility.streamingStatement(streamConn, "SELECT id, memberId, courtId, date, startTime, endTime FROM booking WHERE id > ? AND date >= ?");
+            stmt.setInt(1, afterId);
+            stmt.setDate(2, Date.valueOf(club.getHistoryBefore()));
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next())
+            {
+                int bookingId = rs.getInt(1);
+                highest = Math.max(highest, bookingId);
+                int memberId = rs.getInt(2);
+                int courtId = rs.getInt(3);
+                LocalDate date = rs.getDate(4).toLocalDate();
+                LocalTime startTime = rs.getTime(5).toLocalTime();
+                LocalTime endTime = rs.getTime(6).toLocalTime();
+
+                ArrayList<Booking> partition = byCourt.get(courtId);
+                if (partition == null)
+                {
+                    partition = new ArrayList<Booking>();
+                    byCourt.put(courtId, partition);
+                }
+                partition.add(new Booking(bookingId, date, startTime, endTime, memberId, courtId));
+            }
+        }
+        catch (SQLException e)
+        {
+            throw new IllegalStateException("Bookings could not be read: " + e.getMessage(), e);
+        }
+        club.noteBookingId(highest);
+        record(afterId == 0 ? "bookings read" : "bookings caught up", System.nanoTime() - start);
+        return byCourt;
+    }
+
+    /**
+     * Attaches the bookings to their courts in parallel by court, then to their members in parallel by member
+     *
+     * @param byCourt the bookings for each court id
+     * @param executor the executor to run the partitions on
+     */
+    private void attachBookings(IntHashMap<ArrayList<Booking>> byCourt, ExecutorService executor)
+    {
+        long start = System.nanoTime();
+        LocalDate historyBefore = club.getHistoryBefore();
+        final ArrayList<ArrayList<Booking>> memberPartitions = new ArrayList<ArrayList<Booking>>();
+        for (int i = 0; i < threads; i++)
+            memberPartitions.add(new ArrayList<Booking>());
+
+        ArrayList<CompletableFuture<Void>> courtTasks = new ArrayList<CompletableFuture<Void>>();
+        for (final ArrayList<Booking> partition : byCourt.values())
+        {
+            final int courtId = partition.get(0).getCourtId();
+            final Court court = club.getCourtIndex().getCourt(courtId);
+            if (court == null)
+            {
+                System.out.println(partition.size() + " bookings are for unknown court " + courtId);
+                continue;
+            }
+            // splits the court's bookings by member now, so the member phase needs no locking
+            Iterator<Booking> itr = partition.iterator();
+            while (itr.hasNext())
+            {
+                Booking booking = itr.next();
+                // a snapshot may hold bookings that have been archived since it was written
+                if (booking.getDate().isBefore(historyBefore))
+                    itr.remove();
+                else if (club.hasMember(booking.getMemberId()))
+                {
+                    memberPartitions.get(Math.floorMod(booking.getMemberId(), threads)).add(booking);
+                    club.noteBooking(booking);
+                }
+                else
+                {
+                    System.out.println("Booking on court " + courtId + " is for unknown member " + booking.getMemberId());
+                    itr.remove();
+                }
+            }
+            courtTasks.add(CompletableFuture.runAsync(() -> {
+                for (Booking booking : partition)
+                    court.addBooking(booking);
+            }, executor));
+        }
+        join(courtTasks);
+        long courtsDone = System.nanoTime();
+        record("bookings attached to courts", courtsDone - start);
+
+        ArrayList<CompletableFuture<Void>> memberTasks = new ArrayList<CompletableFuture<Void>>();
+        for (final ArrayList<Booking> partition : memberPartitions)
+            memberTasks.add(CompletableFuture.runAsync(() -> {
+                for (Booking booking : partition)
+                    club.findMember(booking.getMemberId()).addBooking(booking);
+            }, executor));
+        join(memberTasks);
+        record("bookings attached to members", System.nanoTime() - courtsDone);
+    }
+
+    /**
+     * Waits for every task, failing if any of them did. The rest are still waited for first, so none is left adding
+     * bookings once the load has failed
+     *
+     * @param tasks the tasks to wait for
+     * @throws CompletionException if a task failed
+     */
+    private static void join(ArrayList<CompletableFuture<Void>> tasks)
+    {
+        CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[0])).join();
+    }
+
+    private Runnable timed(final String phase, final Runnable task)
+    {
+        return () -> {
+            long start = System.nanoTime();
+            task.run();
+            record(phase, System.nanoTime() - start);
+        };
+    }
+
+    private synchronized void record(String phase, long nanos)
+    {
+        phaseTimings.put(phase, nanos / 1000000);
+    }
+
+    private ExecutorService createExecutor()
+    {
+        final AtomicInteger count = new AtomicInteger();
+        // one extra thread for the load itself, which waits on the others
+        return Executors.newFixedThreadPool(threads + 1, runnable -> {
+            Thread thread = new Thread(runnable, "club-loader-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
@@ -0,0 +1,241 @@
+import utility.DBUtility;
+import utility.IntHashMap;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * A binary snapshot of a club's bookings, used to start up without reading every booking from the database. The
+ * file is laid out as:
+ *
+ * header:   magic, version, time written, booking high water mark, the number of bookings and the epoch day bookings
+ *           start from
+ * bookings: booking id, member id, court id, epoch day, start and end time in seconds of the day
+ * trailer:  CRC32 of everything before it
+ *
+ * Members and sports are not kept, they can be changed in place in the database without the snapshot being able to
+ * tell, so they are always read from the database. Bookings are only ever added or deleted, never changed.
+ *
+ * Bookings before the date the booking archive covered when the snapshot was written are left out, they are read
+ * from the archive instead. The high water mark is the highest booking id included, so only bookings with a higher id need to be read from
+ * the database after loading the snapshot. The count lets the loader tell when a booking the snapshot holds has been
+ * deleted from the database
+ *
+ * @author Alex McWhae
+ */
+public class ClubSnapshot
+{
+    private static final int MAGIC = 0x4342534E;
+    private static final int VERSION = 4;
+    private static final int HEADER_BYTES = 28;
+
+    // the mapped snapshot file
+    private ByteBuffer buffer;
+    private long createdAt;
+    private int highWaterMark;
+    private int bookingCount;
+    // the first date bookings were included from
+    private LocalDate historyBefore;
+
+    /**
+     * Checks if snapshots are turned on in config.properties
+     *
+     * @return boolean true if snapshots should be read and written
+     */
+    public static boolean isEnabled()
+    {
+        return Boolean.parseBoolean(DBUtility.getProperty("snapshot.enabled", "true"));
+    }
+
+    /**
+     * Gets the snapshot file named in config.properties
+     *
+     * @return Path the snapshot file
+     */
+    public static Path getFile()
+    {
+        return Paths.get(DBUtility.getProperty("snapshot.file", "club.snapshot"));
+    }
+
+    private ClubSnapshot(ByteBuffer buffer)
+    {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Opens the snapshot file, checking that it is a snapshot of the current version and is not corrupt
+     *
+     * @param file the snapshot file
+     * @return ClubSnapshot the snapshot, null if there is no usable snapshot
+     */
+    public static ClubSnapshot open(Path file)
+    {
+        if (!Files.isRegularFile(file))
+            return null;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+        {
+            if (channel.size() < HEADER_BYTES + 8 || channel.size() > Integer.MAX_VALUE)
+                return null;
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            // checks the trailer before trusting anything in the file
+            int contentLength = mapped.limit() - 8;
+            CRC32 crc = new CRC32();
+            ByteBuffer content = mapped.duplicate();
+            content.limit(contentLength);
+            crc.update(content);
+            if (crc.getValue() != mapped.getLong(contentLength))
+            {
+                System.out.println("Snapshot " + file + " is corrupt");
+                return null;
+            }
+
+            ClubSnapshot snapshot = new ClubSnapshot(mapped);
+            if (mapped.getInt() != MAGIC || mapped.getInt() != VERSION)
+            {
+                System.out.println("Snapshot " + file + " is not a version " + VERSION + " snapshot");
+                return null;
+            }
+            snapshot.createdAt = mapped.getLong();
+            snapshot.highWaterMark = mapped.getInt();
+            snapshot.bookingCount = mapped.getInt();
+            snapshot.historyBefore = LocalDate.ofEpochDay(mapped.getInt());
+            mapped.limit(contentLength);
+            return snapshot;
+        }
+        catch (IOException | RuntimeException ex)
+        {
+            System.out.println("Snapshot " + file + " could not be read: " + ex);
+            return null;
+        }
+    }
+
+    /**
+     * Writes a snapshot of the club. The snapshot is written to a temporary file first and then moved into place,
+     * so a crash while writing never leaves a half written snapshot behind
+     *
+     * @param club the club to write
+     * @param file the file to write to
+     */
+    public static void write(Club club, Path file) throws IOException
+    {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        CRC32 crc = new CRC32();
+        ArrayList<Booking> bookings = new ArrayList<Booking>();
+        for (Sport sport : club.getSports())
+            for (Court court : sport.getCourts())
+                bookings.addAll(court.getAllBookings());
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(Files.newOutputStream(temp), crc))))
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(System.currentTimeMillis());
+            out.writeInt(club.getBookingHighWaterMark());
+            out.writeInt(bookings.size());
+            out.writeInt((int) club.getHistoryBefore().toEpochDay());
+
+            for (Booking booking : bookings)
+            {
+                out.writeInt(booking.getBookingId());
+                out.writeInt(booking.getMemberId());
+                out.writeInt(booking.getCourtId());
+                out.writeInt((int) booking.getDate().toEpochDay());
+                out.writeInt(booking.getStartTime().toSecondOfDay());
+                out.writeInt(booking.getEndTime().toSecondOfDay());
+            }
+
+            out.flush();
+            // the checksum itself is not part of what it covers
+            long checksum = crc.getValue();
+            out.writeLong(checksum);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads the snapshot's bookings
+     *
+     * @return IntHashMap<ArrayList<Booking>> the snapshot's bookings for each court id, not yet attached
+     */
+    public IntHashMap<ArrayList<Booking>> readBookings()
+    {
+        ByteBuffer in = buffer.duplicate();
+        in.position(HEADER_BYTES);
+
+        IntHashMap<ArrayList<Booking>> byCourt = new IntHashMap<ArrayList<Booking>>();
+        for (int i = 0; i < bookingCount; i++)
+        {
+            int bookingId = in.getInt();
+            int memberId = in.getInt();
+            int courtId = in.getInt();
+            LocalDate date = LocalDate.ofEpochDay(in.getInt());
+            LocalTime startTime = LocalTime.ofSecondOfDay(in.getInt());
+            LocalTime endTime = LocalTime.ofSecondOfDay(in.getInt());
+
+            ArrayList<Booking> partition = byCourt.get(courtId);
+            if (partition == null)
+            {
+                partition = new ArrayList<Booking>();
+                byCourt.put(courtId, partition);
+            }
+            partition.add(new Booking(bookingId, date, startTime, endTime, memberId, courtId));
+        }
+        return byCourt;
+    }
+
+    /**
+     * An accessor method to get when the snapshot was written
+     *
+     * @return long the time written in milliseconds since the epoch
+     */
+    public long getCreatedAt()
+    {
+        return createdAt;
+    }
+
+    /**
+     * An accessor method to get the highest booking id included in the snapshot
+     *
+     * @return int the booking high water mark
+     */
+    public int getHighWaterMark()
+    {
+        return highWaterMark;
+    }
+
+    /**
+     * An accessor method to get the number of bookings in the snapshot
+     *
+     * @return int the number of bookings
+     */
+    public int getBookingCount()
+    {
+        return bookingCount;
+    }
+
+    /**
+     * An accessor method to get the first date bookings were included from
+     *
+     * @return LocalDate the date the booking archive covered up to when the snapshot was written
+     */
+    public LocalDate getHistoryBefore()
+    {
+        return historyBefore;
+    }
+}
@@ -1,17 +1,45 @@
+import utility.DBUtility;
+import utility.StripedLock;
+
 import java.util.*;
 import java.time.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantLock;
 /**
  * This class represents a court, it contains a court id, and list of bookings made for the court
  * and a list of bookings they've made
  *
+ * A court can be booked from several threads at once. Each day of each court is guarded by a lock shared out from a
+ * fixed set of stripes by court id and date, so bookings on different courts or days do not wait for each other.
+ *
+ * With the cas reservation engine (booking.engine in config.properties) a time that lines up with slot boundaries is
+ * booked by claiming its slots in the day's bitmap with a compare and set, and only takes the day's lock afterwards to
+ * add the booking to the day's tree. Availability checks on slot boundaries never take the lock with either engine
+ *
  * @author Alex McWhae
  */
 public class Court
 {
-    // list of bookings
-    private ArrayList<Booking> courtBookings;
+    // the number of archived bookings read at a time
+    private static final int HISTORY_PAGE = 1000;
+    // the locks guarding each court day, shared by every court
+    private static final StripedLock DAY_LOCKS = new StripedLock(256);
+    // true if times on slot boundaries are claimed with a compare and set rather than under the day's lock
+    private static volatile boolean lockFree = "cas".equalsIgnoreCase(DBUtility.getProperty("booking.engine", "locking"));
+
+    // the bookings partitioned by date, guarded by the court's monitor
+    private BookingStore courtBookings;
+    // the bookings for each day with their occupancy bitmap, for quick availability checks. Each day is guarded by
+    // its lock from DAY_LOCKS
+    private ConcurrentSkipListMap<LocalDate, CourtDay> bookingIndex;
+    // the days before this have been sealed and dropped from the index, and are never added to it again
+    private volatile LocalDate droppedBefore = LocalDate.MIN;
     // the court id
     private int courtId;
+    // told whenever the occupancy of a day changes, null if the court is not in a matrix
+    private volatile AvailabilityMatrix availability;
+    // the club's booking history, which holds the court's bookings before the date it covers up to
+    private volatile BookingArchive archive;
 
     /**
      * Constructor
@@ -21,8 +49,31 @@ public class Court
     public Court(int courtId)
     {
         this.courtId = courtId;
-        //creats an empty booking list
-        this.courtBookings = new ArrayList<Booking>();
+        //creats an empty booking store
+        this.courtBookings = new BookingStore();
+        this.bookingIndex = new ConcurrentSkipListMap<LocalDate, CourtDay>();
+    }
+
+    /**
+     * Chooses how courts are booked, either "cas" or "locking"
+     *
+     * @param engine the name of the reservation engine
+     */
+    public static void setReservationEngine(String engine)
+    {
+        if (!"cas".equalsIgnoreCase(engine) && !"locking".equalsIgnoreCase(engine))
+            throw new IllegalArgumentException("Unknown reservation engine " + engine);
+        lockFree = "cas".equalsIgnoreCase(engine);
+    }
+
+    /**
+     * Gets the name of the reservation engine in use
+     *
+     * @return String "cas" or "locking"
+     */
+    public static String getReservationEngine()
+    {
+        return lockFree ? "cas" : "locking";
     }
 
     /**
@@ -52,22 +103,87 @@ public class Court
      */
     public void setCourtBookings(ArrayList<Booking> courtBookings)
     {
-        this.courtBookings = courtBookings;
+        BookingStore store = new BookingStore();
+        for (Booking booking : courtBookings)
+            store.add(booking);
+        synchronized (this)
+        {
+            this.courtBookings = store;
+        }
+        // rebuilds the index from the new list
+        bookingIndex.clear();
+        for (Booking booking : courtBookings)
+            indexBooking(booking);
     }
 
     /**
-     * An accessor method to get the court bookings
+     * An accessor method to get a copy of the court bookings
      *
      * @return ArrayList<Booking> the list of bookings for the court
      */
     public ArrayList<Booking> getCourtBookings() throws MyException
     {
-        if (courtBookings.size() == 0)
+        ArrayList<Booking> result = getAllBookings();
+        if (result.size() == 0)
         {
             throw new MyException("There are no bookings for that court");
         }
 
-        return courtBookings;
+        return result;
+    }
+
+    /**
+     * An accessor method to get a copy of the court bookings that does not treat a court with no bookings as an error
+     *
+     * @return ArrayList<Booking> the list of bookings for the court, may be empty
+     */
+    public synchronized ArrayList<Booking> getAllBookings()
+    {
+        return courtBookings.getAll();
+    }
+
+    /**
+     * A mutator method to set the booking archive, which the court looks in for bookings it no longer keeps
+     *
+     * @param archive the club's booking archive, null if there is none
+     */
+    public void setBookingArchive(BookingArchive archive)
+    {
+        this.archive = archive;
+    }
+
+    /**
+     * Gets the court's sealed bookings before a date, to be written to the booking archive
+     *
+     * @param date the date to stop at
+     * @return PackedBookings the bookings
+     */
+    public synchronized PackedBookings getSealedBookings(LocalDate date)
+    {
+        PackedBookings sealed = courtBookings.getSealed();
+        return sealed.slice(0, sealed.first(date));
+    }
+
+    /**
+     * Drops the court's sealed bookings before a date once they have been written to the booking archive
+     *
+     * @param date the date the archive covers up to
+     */
+    public synchronized void dropArchived(LocalDate date)
+    {
+        courtBookings.dropSealedBefore(date);
+    }
+
+    /**
+     * Gets the lock guarding the given day of this court. Holding it stops any other thread from booking or
+     * freeing the court on that day
+     *
+     * @param date the day
+     * @return ReentrantLock the lock for the day
+     */
+    public ReentrantLock getDayLock(LocalDate date)
+    {
+        return DAY_LOCKS.get(courtId, date.toEpochDay());
     }
 
     /**
@@ -77,10 +193,277 @@ public class Court
      * @param date the date of the booking
      * @param startTime the starting time of the booking
      * @param endTime the end time of the booking
+     * @return Booking the booking that was added
+     */
+    public Booking addBooking(int memberId, LocalDate date, LocalTime startTime, LocalTime endTime)
+    {
+        Booking booking = new Booking(date, startTime, endTime, memberId, this.courtId);
+        addBooking(booking);
+        return booking;
+    }
+
+    /**
+     * Adds an existing booking object to the court, the booking must be for this court
+     *
+     * @param booking the booking to add
+     */
+    public void addBooking(Booking booking)
+    {
+        indexBooking(booking);
+        synchronized (this)
+        {
+            courtBookings.add(booking);
+        }
+    }
+
+    /**
+     * Adds a booking to the court if it is free between the given times. The check and the add are made in one step,
+     * either by claiming the slots with a compare and set or while holding the day's lock, so two threads can never
+     * both book the same time
+     *
+     * @param memberId the id of the member making the booking
+     * @param date the date of the booking
+     * @param startTime the starting time of the booking
+     * @param endTime the end time of the booking
+     * @return Booking the booking that was added, null if the court is not free
+     */
+    public Booking tryAddBooking(int memberId, LocalDate date, LocalTime startTime, LocalTime endTime)
+    {
+        Booking booking = new Booking(date, startTime, endTime, memberId, this.courtId);
+        if (!reserve(booking))
+            return null;
+
+        boolean sealed;
+        synchronized (this)
+        {
+            courtBookings.add(booking);
+            // the first booking after midnight seals the days that have passed
+            sealed = courtBookings.seal();
+        }
+        if (sealed)
+            dropSealedDays();
+        return booking;
+    }
+
+    /**
+     * Seals the court's bookings for dates that have passed and drops those days from the index, after which the
+     * bookings are only kept packed in the court's booking store
+     */
+    public void sealHistory()
+    {
+        synchronized (this)
+        {
+            courtBookings.seal();
+        }
+        dropSealedDays();
+    }
+
+    /**
+     * Holds the court between the given times if it is free, checked and taken in one step the same way as
+     * tryAddBooking. The hold takes up the time in the day's index, so availability checks and other bookings treat
+     * it as booked, but it is not added to the court's bookings
+     *
+     * @param holdId the id of the hold
+     * @param sportName the name of the sport the court belongs to
+     * @param memberId the id of the member the court is held for
+     * @param date the date of the hold
+     * @param startTime the starting time of the hold
+     * @param endTime the end time of the hold
+     * @param expiresAt when the hold expires, in milliseconds
+     * @return Hold the hold that was made, null if the court is not free
+     */
+    public Hold tryHold(long holdId, String sportName, int memberId, LocalDate date, LocalTime startTime, LocalTime endTime, long expiresAt)
+    {
+        Hold hold = new Hold(holdId, sportName, date, startTime, endTime, memberId, this.courtId, expiresAt);
+        return reserve(hold) ? hold : null;
+    }
+
+    /**
+     * Turns a hold into a booking. The booking takes the hold's place in the day's index under the day's lock, so
+     * the time is never free in between
+     *
+     * @param hold the hold to confirm
+     * @return Booking the booking, null if the hold is no longer on the court
+     */
+    public Booking confirmHold(Hold hold)
+    {
+        Booking booking = new Booking(hold.getDate(), hold.getStartTime(), hold.getEndTime(), hold.getMemberId(), this.courtId);
+        ReentrantLock lock = getDayLock(hold.getDate());
+        lock.lock();
+        try
+        {
+            CourtDay day = bookingIndex.get(hold.getDate());
+            if (day == null || !day.replace(hold, booking))
+                return null;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        synchronized (this)
+        {
+            courtBookings.add(booking);
+        }
+        return booking;
+    }
+
+    /**
+     * Releases a hold, freeing its time
+     *
+     * @param hold the hold to release
+     * @return boolean true if the hold was still on the court
+     */
+    public boolean releaseHold(Hold hold)
+    {
+        ReentrantLock lock = getDayLock(hold.getDate());
+        lock.lock();
+        try
+        {
+            CourtDay day = bookingIndex.get(hold.getDate());
+            if (day == null || !day.remove(hold))
+                return false;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        occupancyChanged(hold.getDate());
+        return true;
+    }
+
+    /**
+     * Adds a booking or hold to the day's index if the court is free at that time, by claiming the slots with a
+     * compare and set or while holding the day's lock
+     *
+     * @param booking the booking or hold to add
+     * @return boolean true if it was added
+     */
+    private boolean reserve(Booking booking)
+    {
+        LocalTime startTime = booking.getStartTime();
+        LocalTime endTime = booking.getEndTime();
+        CourtDay day = getDay(booking.getDate());
+        if (day == null)
+            return false;
+        ReentrantLock lock = getDayLock(booking.getDate());
+
+        if (lockFree && CourtDay.onSlotBoundary(startTime) && CourtDay.onSlotBoundary(endTime))
+        {
+            if (!day.claim(CourtDay.slotMask(startTime, endTime)))
+                return false;
+            // the slots are ours, the lock is only needed to add the booking to the tree
+            lock.lock();
+            try
+            {
+                // the day may have been sealed and dropped at midnight after it was looked up
+                if (!isIndexed(booking.getDate(), day))
+                    return false;
+                day.addClaimed(booking);
+            }
+            finally
+            {
+                lock.unlock();
+            }
+            occupancyChanged(booking.getDate());
+            return true;
+        }
+
+        lock.lock();
+        try
+        {
+            if (!isIndexed(booking.getDate(), day) || !day.tryAdd(booking))
+                return false;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        occupancyChanged(booking.getDate());
+        return true;
+    }
+
+    /**
+     * A mutator method to set the availability matrix to tell about changes
+     *
+     * @param availability the matrix, null to stop telling it
+     */
+    public void setAvailabilityMatrix(AvailabilityMatrix availability)
+    {
+        this.availability = availability;
+    }
+
+    /**
+     * Tells the availability matrix that the occupancy of a day has changed
+     *
+     * @param date the date that changed
+     */
+    private void occupancyChanged(LocalDate date)
+    {
+        AvailabilityMatrix matrix = availability;
+        if (matrix != null)
+            matrix.courtChanged(this, date);
+    }
+
+    /**
+     * Gets the day for the given date, creating it if there are no bookings on the date yet. Days that have passed
+     * are dropped once sealed, and another thread may still hold a day it looked up just before midnight, so
+     * anything added to a day must check with isIndexed under the day's lock that the day is still in the index
+     *
+     * @param date the date
+     * @return CourtDay the day, null if the date has been sealed and dropped from the index
      */
-    public void addBooking(int memberId, LocalDate date, LocalTime startTime, LocalTime endTime)
+    private CourtDay getDay(LocalDate date)
     {
-        courtBookings.add(new Booking(date, startTime, endTime, memberId, this.courtId));
+        if (date.isBefore(droppedBefore))
+            return null;
+        CourtDay day = bookingIndex.get(date);
+        if (day == null)
+        {
+            CourtDay created = new CourtDay();
+            day = bookingIndex.putIfAbsent(date, created);
+            if (day == null)
+                day = created;
+        }
+        return day;
+    }
+
+    /**
+     * Checks that a day looked up with getDay is still the one in the index, should be called holding the day's lock
+     *
+     * @param date the date
+     * @param day the day that was looked up
+     * @return boolean true if the day has not been dropped
+     */
+    private boolean isIndexed(LocalDate date, CourtDay day)
+    {
+        return bookingIndex.get(date) == day;
+    }
+
+    /**
+     * Adds the booking to the index for its date, creating the day if it is the first booking that day
+     *
+     * @param booking the booking to index
+     */
+    private void indexBooking(Booking booking)
+    {
+        CourtDay day = getDay(booking.getDate());
+        // a sealed day's bookings are only kept in the booking store
+        if (day == null)
+            return;
+        ReentrantLock lock = getDayLock(booking.getDate());
+        lock.lock();
+        try
+        {
+            if (!isIndexed(booking.getDate(), day))
+                return;
+            day.add(booking);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        occupancyChanged(booking.getDate());
     }
 
     /**
@@ -94,11 +477,34 @@ public class Court
     public Booking getBooking(int memberId, LocalDate date, LocalTime startTime)
     {
         Booking result = null;
-        for (Booking booking : courtBookings)
-            if (booking.getMemberId() == memberId)
-                if (booking.getDate().equals(date))
-                    if (booking.getStartTime().equals(startTime))
+        ReentrantLock lock = getDayLock(date);
+        lock.lock();
+        try
+        {
+            CourtDay day = bookingIndex.get(date);
+            if (day != null)
+            {
+                for (Booking booking : day.getBookings().getStartingAt(startTime))
+                    // holds take up time in the index but are not bookings
+                    if (booking.getMemberId() == memberId && !(booking instanceof Hold))
                         result = booking;
+            }
+            else if (BookingStore.isPast(date))
+            {
+                // days that have passed are dropped from the index once sealed
+                synchronized (this)
+                {
+                    result = courtBookings.find(memberId, date, startTime);
+                }
+                BookingArchive history = archive;
+                if (result == null && history != null)
+                    result = history.find(courtId, memberId, date, startTime);
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
         return result;
     }
 
@@ -112,23 +518,35 @@ public class Court
      */
     public boolean removeBooking(int memberId, LocalDate date, LocalTime startTime)
     {
-        Booking booking = null;
         boolean result = false;
 
-        Booking bookingToRemove = getBooking(memberId, date, startTime);
+        Booking bookingToRemove;
+        ReentrantLock lock = getDayLock(date);
+        lock.lock();
+        try
+        {
+            bookingToRemove = getBooking(memberId, date, startTime);
+            if (bookingToRemove == null)
+                return false;
 
-        Iterator<Booking> itr = courtBookings.iterator();
-        // loops through, if booking is equal removes it
-        while (itr.hasNext())
+            // removes from the index, the day is kept even if it has no bookings left
+            CourtDay day = bookingIndex.get(date);
+            if (day != null)
+                day.remove(bookingToRemove);
+        }
+        finally
         {
-            booking = itr.next();
-            if (booking.equals(bookingToRemove))
-            {
-                itr.remove();
-                result = true;
-                break;
-            }
+            lock.unlock();
         }
+        occupancyChanged(date);
+
+        synchronized (this)
+        {
+            result = courtBookings.remove(bookingToRemove);
+        }
+        BookingArchive history = archive;
+        if (!result && history != null)
+            result = history.remove(bookingToRemove);
         return result;
     }
 
@@ -142,24 +560,65 @@ public class Court
      */
     public boolean checkCourtAvailable(LocalDate date, LocalTime startTime, LocalTime endTime)
     {
-        boolean available = true;
-        if (courtBookings.size() == 0)
+        // times on slot boundaries are answered from the bitmap alone, without waiting for the lock
+        if (CourtDay.onSlotBoundary(startTime) && CourtDay.onSlotBoundary(endTime))
         {
+            CourtDay day = bookingIndex.get(date);
+            return day == null || day.isAvailable(startTime, endTime);
         }
-        else
-            for (Booking booking : courtBookings)
-            {
-                if (booking.getDate().equals(date))
-                {
-                    LocalTime bookingStartTime = booking.getStartTime();
-                    LocalTime bookingEndTime = booking.getEndTime();
-                    // if the times fall between the given times then returns false
-                    if (!(startTime.isAfter(bookingEndTime) || startTime.isBefore(bookingStartTime)||  startTime.equals(bookingEndTime)))
-                        if (!(endTime.isAfter(bookingEndTime) || endTime.isBefore(bookingStartTime) || endTime.equals(bookingStartTime)))
-                            available = false;
-                }
-            }
-        return available;
+
+        ReentrantLock lock = getDayLock(date);
+        lock.lock();
+        try
+        {
+            // only the bookings on the given date are looked at
+            CourtDay day = bookingIndex.get(date);
+            if (day == null)
+                return true;
+            // if any booking overlaps the given times then the court is not available
+            return day.isAvailable(startTime, endTime);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the occupancy bitmap for the given date, one bit for each slot of the day as described in CourtDay
+     *
+     * @param date the date to get
+     * @return long the bitmap, 0 if there are no bookings on the date
+     */
+    public long getOccupancy(LocalDate date)
+    {
+        CourtDay day = bookingIndex.get(date);
+        if (day != null)
+            return day.getOccupied();
+        if (!BookingStore.isPast(date))
+            return 0L;
+        // days that have passed are dropped from the index once sealed
+        long occupied;
+        synchronized (this)
+        {
+            occupied = courtBookings.getOccupancy(date);
+        }
+        BookingArchive history = archive;
+        return history == null ? occupied : occupied | history.getOccupancy(courtId, date);
+    }
+
+    /**
+     * Gets the slots on a date where the court is free for a run of the given number of slots, read from the
+     * occupancy bitmap without the day's lock. Holds count as taken
+     *
+     * @param date the date
+     * @param length the number of slots needed
+     * @param window the slots the run must lie within, from CourtDay.slotMask or rangeMask
+     * @return long the mask of the slots a free run starts at
+     */
+    public long getFreeStarts(LocalDate date, int length, long window)
+    {
+        return CourtDay.runStarts(~getOccupancy(date) & window, length);
     }
 
     /**
@@ -169,13 +628,15 @@ public class Court
      */
     public ArrayList<String> getFutureBookings()
     {
-        ArrayList<String> result = new ArrayList<String>();
-        for (Booking booking : courtBookings)
+        ArrayList<Booking> bookings;
+        synchronized (this)
         {
-            // booking is in the future
-            if (booking.getDate().isAfter(LocalDate.now()) || booking.getDate().equals(LocalDate.now()))
-                result.add(booking.toString());
+            // only the live partitions, from today on, are looked at
+            bookings = courtBookings.getLive();
         }
+        ArrayList<String> result = new ArrayList<String>();
+        for (Booking booking : bookings)
+            result.add(booking.toString());
         return result;
     }
 
@@ -188,7 +649,14 @@ public class Court
     {
         ArrayList<String> result = new ArrayList<String>();
 
-        for (Booking booking : courtBookings)
+        // pages through the archived history first, a page at a time so it is never all on the heap as bookings
+        BookingArchive history = archive;
+        if (history != null)
+            for (int from = 0; from < history.getCourtCount(courtId); from += HISTORY_PAGE)
+                for (Booking booking : history.getCourtPage(courtId, from, HISTORY_PAGE))
+                    result.add(booking.toString());
+
+        for (Booking booking : getAllBookings())
         {
             result.add(booking.toString());
         }
@@ -203,27 +671,65 @@ public class Court
      */
     public String getBookingsGraph(LocalDate date)
     {
-        String result = String.format("| %3d | |",courtId); //sets the court column
-        int startTime = 9;
-        int endTime = 10;
-        boolean courtAvailable;
-        // cycles through start and end times in 1 hour increments
-        while (endTime < 23)
+        // the next 7 days are rendered once by the availability matrix and reused until they change
+        AvailabilityMatrix matrix = availability;
+        if (matrix != null)
+            return matrix.getRow(this, date);
+        return renderGraph(courtId, getOccupancy(date));
+    }
+
+    /**
+     * Renders a court's row of the availability graph from its occupancy bitmap
+     *
+     * @param courtId the id of the court
+     * @param occupied the occupancy bitmap for the date
+     * @return String the row
+     */
+    public static String renderGraph(int courtId, long occupied)
+    {
+        StringBuilder result = new StringBuilder(64);
+        result.append(String.format("| %3d | |", courtId)); //sets the court column
+        // cycles through the hours from 9 until 22, reading the hour's slots from the bitmap
+        for (int hour = 9; hour < 22; hour++)
         {
-            // checks to see if court available between given times
-            courtAvailable = checkCourtAvailable(date, LocalTime.of(startTime, 0), LocalTime.of(endTime, 0));
+            long hourMask = CourtDay.slotMask(LocalTime.of(hour, 0), LocalTime.of(hour + 1, 0));
             // if booked prints x's otherwise -'s
-            if (courtAvailable)
-                result += "---|";
+            if ((occupied & hourMask) == 0)
+                result.append("---|");
             else
-                result += "xxx|";
-            // increments times
-            startTime += 1;
-            endTime += 1;
+                result.append("xxx|");
         }
 
-        result += " |";
+        result.append(" |");
 
-        return result;
+        return result.toString();
+    }
+
+    /**
+     * Drops the days the court's booking store has sealed from the index, each under its day's lock. getDay stops
+     * creating those days first, so none is added back after it is dropped
+     */
+    private void dropSealedDays()
+    {
+        LocalDate sealedBefore;
+        synchronized (this)
+        {
+            sealedBefore = courtBookings.getSealedBefore();
+            if (sealedBefore.isAfter(droppedBefore))
+                droppedBefore = sealedBefore;
+        }
+        for (LocalDate date : bookingIndex.headMap(sealedBefore).keySet())
+        {
+            ReentrantLock lock = getDayLock(date);
+            lock.lock();
+            try
+            {
+                bookingIndex.remove(date);
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
     }
 }
@@ -0,0 +1,269 @@
+import java.time.LocalTime;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class represents the bookings made on a court for a single day. As well as the interval tree of bookings it
+ * keeps an occupancy bitmap where each bit is a half hour slot of the day, bit 0 being 00:00 - 00:30. A slot is
+ * marked if any booking covers part of it, so a slot that is clear is guaranteed to be free
+ *
+ * The interval tree is not thread safe, its court guards it with the day's lock. The bitmap is an AtomicLong that can
+ * be read without the lock, and a time that lines up with slot boundaries can be claimed in it with a compare and set
+ * without the lock too. A claimed time is added to the tree afterwards with addClaimed, until then its slots are set
+ * in the bitmap but not in bookedMask
+ *
+ * @author Alex McWhae
+ */
+public class CourtDay
+{
+    // the length of a slot in minutes
+    public static final int SLOT_MINUTES = 30;
+    // the number of slots in a day, these all fit in a single long
+    public static final int SLOTS_PER_DAY = 24 * 60 / SLOT_MINUTES;
+
+    private static final int SLOT_SECONDS = SLOT_MINUTES * 60;
+
+    // the bookings on the day
+    private IntervalTree bookings;
+    // one bit per slot, set if the slot is at least partly booked or has been claimed
+    private AtomicLong occupied;
+    // the slots covered by the bookings in the tree, guarded by the day's lock
+    private long bookedMask;
+
+    /**
+     * Constructor, creates a day with no bookings
+     */
+    public CourtDay()
+    {
+        this.bookings = new IntervalTree();
+        this.occupied = new AtomicLong();
+        this.bookedMask = 0L;
+    }
+
+    /**
+     * Adds a booking to the day without checking that it is free, the day's lock must be held
+     *
+     * @param booking the booking to add
+     */
+    public void add(Booking booking)
+    {
+        long mask = slotMask(booking.getStartTime(), booking.getEndTime());
+        bookings.add(booking);
+        bookedMask |= mask;
+        occupied.accumulateAndGet(mask, (current, bits) -> current | bits);
+    }
+
+    /**
+     * Adds a booking to the day if nothing overlaps it, the day's lock must be held. Slots that have been claimed but
+     * not yet added count as taken even if the booking only covers part of them
+     *
+     * @param booking the booking to add
+     * @return boolean true if the booking was added
+     */
+    public boolean tryAdd(Booking booking)
+    {
+        LocalTime startTime = booking.getStartTime();
+        LocalTime endTime = booking.getEndTime();
+        long mask = slotMask(startTime, endTime);
+        boolean aligned = onSlotBoundary(startTime) && onSlotBoundary(endTime);
+        // a time off the slot boundaries may share a slot with a booking without overlapping it
+        if (!aligned && bookings.overlaps(startTime, endTime))
+            return false;
+
+        while (true)
+        {
+            long current = occupied.get();
+            long taken = aligned ? current : current & ~bookedMask;
+            if ((taken & mask) != 0)
+                return false;
+            if (occupied.compareAndSet(current, current | mask))
+                break;
+        }
+        bookings.add(booking);
+        bookedMask |= mask;
+        return true;
+    }
+
+    /**
+     * Claims the slots of a time that lines up with slot boundaries, without needing the day's lock. The claim only
+     * succeeds if every slot is clear, and the booking must then be added with addClaimed
+     *
+     * @param mask the slots to claim, from slotMask
+     * @return boolean true if the slots were claimed
+     */
+    public boolean claim(long mask)
+    {
+        while (true)
+        {
+            long current = occupied.get();
+            if ((current & mask) != 0)
+                return false;
+            if (occupied.compareAndSet(current, current | mask))
+                return true;
+        }
+    }
+
+    /**
+     * Adds a booking whose slots have already been claimed, the day's lock must be held
+     *
+     * @param booking the booking to add
+     */
+    public void addClaimed(Booking booking)
+    {
+        bookings.add(booking);
+        bookedMask |= slotMask(booking.getStartTime(), booking.getEndTime());
+    }
+
+    /**
+     * Removes a booking from the day, the day's lock must be held
+     *
+     * @param booking the booking to remove
+     * @return boolean indicating whether the booking was removed
+     */
+    public boolean remove(Booking booking)
+    {
+        if (!bookings.remove(booking))
+            return false;
+        // another booking may share a partly covered slot, so only slots no remaining booking covers are cleared
+        long remaining = 0L;
+        for (Booking other : bookings.getBookings())
+            remaining |= slotMask(other.getStartTime(), other.getEndTime());
+        occupied.accumulateAndGet(bookedMask & ~remaining, (current, freed) -> current & ~freed);
+        bookedMask = remaining;
+        return true;
+    }
+
+    /**
+     * Swaps a booking in the day for another with the same times, such as a hold for the booking confirming it. The
+     * bitmap is left alone so the time is never free in between, the day's lock must be held
+     *
+     * @param booking the booking to take out
+     * @param replacement the booking to put in its place
+     * @return boolean true if the booking was found and replaced
+     */
+    public boolean replace(Booking booking, Booking replacement)
+    {
+        if (!booking.getStartTime().equals(replacement.getStartTime()) || !booking.getEndTime().equals(replacement.getEndTime()))
+            throw new IllegalArgumentException("A replacement booking must have the same times");
+        if (!bookings.remove(booking))
+            return false;
+        bookings.add(replacement);
+        return true;
+    }
+
+    /**
+     * Checks if the day has no bookings
+     *
+     * @return boolean true if there are no bookings
+     */
+    public boolean isEmpty()
+    {
+        return bookings.isEmpty();
+    }
+
+    /**
+     * An accessor method to get the interval tree of bookings for the day
+     *
+     * @return IntervalTree the bookings on the day
+     */
+    public IntervalTree getBookings()
+    {
+        return bookings;
+    }
+
+    /**
+     * An accessor method to get the occupancy bitmap for the day
+     *
+     * @return long the bitmap, one bit per slot
+     */
+    public long getOccupied()
+    {
+        return occupied.get();
+    }
+
+    /**
+     * Checks if the day is free between the given times. The bitmap answers the check unless the slots are
+     * marked and the times do not line up with slot boundaries, in which case the interval tree is used and the
+     * day's lock must be held
+     *
+     * @param startTime the start of the time to check
+     * @param endTime the end of the time to check
+     * @return boolean true if no booking overlaps the given times
+     */
+    public boolean isAvailable(LocalTime startTime, LocalTime endTime)
+    {
+        long mask = slotMask(startTime, endTime);
+        long current = occupied.get();
+        if ((current & mask) == 0)
+            return true;
+        if (onSlotBoundary(startTime) && onSlotBoundary(endTime))
+            return false;
+        // slots claimed but not yet in the tree are taken
+        if ((current & ~bookedMask & mask) != 0)
+            return false;
+        return !bookings.overlaps(startTime, endTime);
+    }
+
+    /**
+     * Gets the mask of every slot that is at least partly covered by the given times
+     *
+     * @param startTime the start time
+     * @param endTime the end time
+     * @return long the mask with a bit set for each slot covered
+     */
+    public static long slotMask(LocalTime startTime, LocalTime endTime)
+    {
+        int first = startTime.toSecondOfDay() / SLOT_SECONDS;
+        int last = (endTime.toSecondOfDay() + SLOT_SECONDS - 1) / SLOT_SECONDS;
+        return rangeMask(first, last);
+    }
+
+    /**
+     * Gets the mask with the bits from first (inclusive) to last (exclusive) set
+     *
+     * @param first the first slot
+     * @param last the slot after the last slot
+     * @return long the mask
+     */
+    public static long rangeMask(int first, int last)
+    {
+        if (last <= first)
+            return 0L;
+        long upTo = last >= Long.SIZE ? -1L : (1L << last) - 1;
+        return upTo & (-1L << first);
+    }
+
+    /**
+     * Gets the slots where a run of free slots of the given length starts. Bit i of the result is set when slots i to
+     * i + length - 1 are all set in free. The runs are found by repeatedly ANDing the mask with itself shifted,
+     * doubling the length covered each time, so a run of n slots takes about log n steps for the whole day at once
+     *
+     * @param free the free slots, only runs that lie entirely within these are found
+     * @param length the number of slots in a run, at least 1
+     * @return long the mask of the first slot of each run
+     */
+    public static long runStarts(long free, int length)
+    {
+        long starts = free;
+        int covered = 1;
+        // starts has bit i set when the covered slots from i are all free
+        while (covered * 2 <= length)
+        {
+            starts &= starts >>> covered;
+            covered *= 2;
+        }
+        if (covered < length)
+            starts &= starts >>> (length - covered);
+        return starts;
+    }
+
+    /**
+     * Checks if the time falls on the start of a slot
+     *
+     * @param time the time to check
+     * @return boolean true if the time is a slot boundary
+     */
+    public static boolean onSlotBoundary(LocalTime time)
+    {
+        return time.toSecondOfDay() % SLOT_SECONDS == 0;
+    }
+}
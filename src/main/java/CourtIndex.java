@@ -0,0 +1,78 @@
+import utility.IntHashMap;
+
+/**
+ * An index of every court in the club by court id, recording the court object and the sport that is played on it.
+ * Sports register their courts with the index when they are added to the club and whenever a court is added
+ *
+ * @author Alex McWhae
+ */
+public class CourtIndex
+{
+    // the sport that owns each court
+    private IntHashMap<Sport> sports;
+    // the court object for each court id
+    private IntHashMap<Court> courts;
+
+    /**
+     * Constructor, creates an empty index
+     */
+    public CourtIndex()
+    {
+        this.sports = new IntHashMap<Sport>();
+        this.courts = new IntHashMap<Court>();
+    }
+
+    /**
+     * Records the court as being played on by the given sport
+     *
+     * @param sport the sport played on the court
+     * @param court the court
+     */
+    public void register(Sport sport, Court court)
+    {
+        sports.put(court.getCourtId(), sport);
+        courts.put(court.getCourtId(), court);
+    }
+
+    /**
+     * Removes the court with the given id from the index
+     *
+     * @param courtId the id of the court
+     */
+    public void unregister(int courtId)
+    {
+        sports.remove(courtId);
+        courts.remove(courtId);
+    }
+
+    /**
+     * Removes every court from the index
+     */
+    public void clear()
+    {
+        sports.clear();
+        courts.clear();
+    }
+
+    /**
+     * Gets the sport played on the court with the given id
+     *
+     * @param courtId the id of the court
+     * @return Sport the sport, null if the court is not in the index
+     */
+    public Sport getSport(int courtId)
+    {
+        return sports.get(courtId);
+    }
+
+    /**
+     * Gets the court with the given id
+     *
+     * @param courtId the id of the court
+     * @return Court the court, null if the court is not in the index
+     */
+    public Court getCourt(int courtId)
+    {
+        return courts.get(courtId);
+    }
+}
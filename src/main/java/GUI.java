@@ -2,6 +2,9 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
 import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.time.*;
 /**
  * Makes a GUI using Java GUI components, with all the same functionality as the UI version
@@ -10,16 +13,29 @@ import java.time.*;
  */
 public class GUI
 {
+    // the most archived bookings shown in a member or court table, the newest ones
+    private static final int HISTORY_ROWS = 500;
+
     private Club sportsClub;
     private JFrame mainFrame;
     private JTable infoTable;
     private JScrollPane tablePane;
     private JButton showAvailButton;
+    private JButton weekViewButton;
     private JButton showCourtButton;
     private JButton showMemberButton;
+    private JButton findSlotsButton;
     private JButton addBookingButton;
     private JButton deleteBookingButton;
     private JButton saveExitButton;
+    // true while the club is still being loaded
+    private boolean loading;
+    // shows how many booking changes are waiting to be saved
+    private JLabel statusLabel;
+    // runs club and database work so the window does not freeze, one task at a time
+    private ExecutorService backgroundExecutor;
+    // what the background task is doing, null when nothing is running
+    private String busyDescription;
     /**
      * Constructor
      *
@@ -28,6 +44,81 @@ public class GUI
     public GUI(Club sportsClub)
     {
         this.sportsClub = sportsClub;
+        this.backgroundExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "gui-background");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Work for the background thread. The work is done off the event dispatch thread and the result is then shown
+     * back on it, with any MyException thrown by the work shown in an error dialog
+     */
+    private abstract class BackgroundTask<T> extends SwingWorker<T, Void>
+    {
+        // shown in the status bar while the task runs
+        private String description;
+
+        private BackgroundTask(String description)
+        {
+            this.description = description;
+        }
+
+        /**
+         * Does the work, runs on the background thread so must not touch any Swing components
+         *
+         * @return T the result to show
+         * @throws MyException if the work could not be done
+         */
+        protected abstract T work() throws MyException;
+
+        /**
+         * Shows the result of the work, runs on the event dispatch thread
+         *
+         * @param result the result of work
+         */
+        protected abstract void succeeded(T result);
+
+        protected T doInBackground() throws Exception
+        {
+            return work();
+        }
+
+        protected void done()
+        {
+            setBusy(null);
+            try
+            {
+                succeeded(get());
+            }
+            catch (ExecutionException ex)
+            {
+                Throwable cause = ex.getCause();
+                if (cause instanceof MyException)
+                    errorDialog(cause.getMessage());
+                else
+                {
+                    System.out.println(cause);
+                    errorDialog("Could not complete: " + cause);
+                }
+            }
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Runs the task on the background thread, showing the window as busy until it finishes
+     *
+     * @param task the task to run
+     */
+    private void runInBackground(BackgroundTask<?> task)
+    {
+        setBusy(task.description);
+        backgroundExecutor.execute(task);
     }
 
     /**
@@ -63,26 +154,107 @@ public class GUI
 
         // BUTTONS
         showAvailButton();
+        weekViewButton();
         showCourtButton();
         showMemberButton();
+        findSlotsButton();
         addBookingButton();
         deleteBookingButton();
         exitButton();
         // Add buttons to panel
         menuPanel.add(showAvailButton);
+        menuPanel.add(weekViewButton);
         menuPanel.add(showCourtButton);
         menuPanel.add(showMemberButton);
+        menuPanel.add(findSlotsButton);
         menuPanel.add(addBookingButton);
         menuPanel.add(deleteBookingButton);
         menuPanel.add(saveExitButton);
         // Add to layout
         mainFrame.add(menuPanel, BorderLayout.WEST);
         mainFrame.add(tablePane, BorderLayout.CENTER);
+        // Status bar, refreshed every second
+        statusLabel = new JLabel(" ");
+        mainFrame.add(statusLabel, BorderLayout.SOUTH);
+        new Timer(1000, new ActionListener() {
+            public void actionPerformed(ActionEvent e)
+            {
+                refreshStatus();
+            }
+        }).start();
         // Make visible
         mainFrame.pack();
         mainFrame.setVisible(true);
     }
 
+    /**
+     * Shows whether the club is still being loaded, the buttons that use the club's data are disabled until it has
+     * finished loading
+     *
+     * @param loading true while the club is loading
+     */
+    public void setLoading(boolean loading)
+    {
+        this.loading = loading;
+        mainFrame.setTitle(loading ? "BookingManager - Loading..." : "BookingManager");
+        updateButtons();
+    }
+
+    /**
+     * Shows that the club could not be loaded. The buttons that use the club's data stay disabled, as a club missing
+     * some of its bookings could book their times twice, and no snapshot is written on exit
+     *
+     * @param message the error message
+     */
+    public void loadFailed(String message)
+    {
+        mainFrame.setTitle("BookingManager - Not loaded");
+        errorDialog(message);
+    }
+
+    /**
+     * Shows whether a background task is running, with a busy cursor and its description in the status bar. The
+     * buttons that use the club's data are disabled until it finishes
+     *
+     * @param description what the task is doing, null once it has finished
+     */
+    public void setBusy(String description)
+    {
+        busyDescription = description;
+        mainFrame.setCursor(Cursor.getPredefinedCursor(description == null ? Cursor.DEFAULT_CURSOR : Cursor.WAIT_CURSOR));
+        updateButtons();
+        refreshStatus();
+    }
+
+    private void updateButtons()
+    {
+        boolean enabled = !loading && busyDescription == null;
+        showAvailButton.setEnabled(enabled);
+        weekViewButton.setEnabled(enabled);
+        showCourtButton.setEnabled(enabled);
+        showMemberButton.setEnabled(enabled);
+        findSlotsButton.setEnabled(enabled);
+        addBookingButton.setEnabled(enabled);
+        deleteBookingButton.setEnabled(enabled);
+        saveExitButton.setEnabled(busyDescription == null);
+    }
+
+    /**
+     * Shows what the background task is doing, or the booking writer's queue depth and lag, in the status bar
+     */
+    public void refreshStatus()
+    {
+        if (busyDescription != null)
+        {
+            statusLabel.setText(busyDescription + "...");
+            return;
+        }
+        BookingWriter writer = sportsClub.getBookingWriter();
+        int depth = writer.getQueueDepth();
+        statusLabel.setText(depth == 0 ? "All bookings saved" : depth + " booking changes waiting to be saved, oldest "
+                + writer.getLagMillis() + "ms ago");
+    }
+
     /**
      * Creates and adds the listener with required functionality for Show Available Courts button
      */
@@ -117,36 +289,76 @@ public class GUI
                 // if selected ok
                 if (result == JOptionPane.OK_OPTION)
                 {
-                    int sportIndex = sportBox.getSelectedIndex();
+                    final int sportIndex = sportBox.getSelectedIndex();
                     String dateString = dateBox.getSelectedItem().toString();
-                    LocalDate date = LocalDate.parse(dateString);
-
-                    ArrayList<String> availableCourts = sportsClub.getSport(sportIndex).getAvailableCourtsGraph(date);
-                    availableCourts.add(0, "|-------------------------------------------------------------|");
-                    availableCourts.add(1,String.format("|        Available Courts on %s for %-18s|", date, sportsClub.getSport(sportIndex).getName()));
-                    availableCourts.add(2, "|-------------------------------------------------------------|");
-                    availableCourts.add(3, "|time | 9   10  11  12  13  14  15  16  17  18  19  20  21  22|");
-                    availableCourts.add(4, "|  id | |   |   |   |   |   |   |   |   |   |   |   |   |   | |");
-                    availableCourts.add("|-------------------------------------------------------------|");
-                    availableCourts.add("|                                                             |");
-                    availableCourts.add("|                                      x's denote booked court|");
-                    availableCourts.add("|-------------------------------------------------------------|");
-                    // creates list from array
-                    JList list = new JList(availableCourts.toArray());
-                    // sets font to monospaced font
-                    list.setFont(new Font("Courier New",Font.BOLD, 20));
-
-                    // Display graph in table pane
-                    mainFrame.remove(tablePane);
-                    tablePane = new JScrollPane(list);
-                    mainFrame.add(tablePane, BorderLayout.CENTER);
-                    refreshGUI();
+                    final LocalDate date = LocalDate.parse(dateString);
+
+                    runInBackground(new BackgroundTask<ArrayList<String>>("Finding available courts") {
+                        protected ArrayList<String> work()
+                        {
+                            ArrayList<String> availableCourts = sportsClub.getSport(sportIndex).getAvailableCourtsGraph(date);
+                            availableCourts.add(0, "|-------------------------------------------------------------|");
+                            availableCourts.add(1,String.format("|        Available Courts on %s for %-18s|", date, sportsClub.getSport(sportIndex).getName()));
+                            availableCourts.add(2, "|-------------------------------------------------------------|");
+                            availableCourts.add(3, "|time | 9   10  11  12  13  14  15  16  17  18  19  20  21  22|");
+                            availableCourts.add(4, "|  id | |   |   |   |   |   |   |   |   |   |   |   |   |   | |");
+                            availableCourts.add("|-------------------------------------------------------------|");
+                            availableCourts.add("|                                                             |");
+                            availableCourts.add("|                                      x's denote booked court|");
+                            availableCourts.add("|-------------------------------------------------------------|");
+                            return availableCourts;
+                        }
+
+                        protected void succeeded(ArrayList<String> availableCourts)
+                        {
+                            // creates list from array
+                            JList<String> list = new JList<String>(availableCourts.toArray(new String[availableCourts.size()]));
+                            // sets font to monospaced font
+                            list.setFont(new Font("Courier New",Font.BOLD, 20));
+
+                            // Display graph in table pane
+                            mainFrame.remove(tablePane);
+                            tablePane = new JScrollPane(list);
+                            mainFrame.add(tablePane, BorderLayout.CENTER);
+                            refreshGUI();
+                        }
+                    });
                 }
 
             }
         });
     }
 
+    /**
+     * Creates and adds the listener with required functionality for Week at a Glance button, showing the free hours
+     * of every court of every sport for the next 7 days
+     */
+    public void weekViewButton()
+    {
+        weekViewButton = new JButton("Week at a Glance");
+        weekViewButton.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                runInBackground(new BackgroundTask<ArrayList<String>>("Reading the week") {
+                    protected ArrayList<String> work()
+                    {
+                        return sportsClub.getAvailabilityMatrix().getWeekView();
+                    }
+
+                    protected void succeeded(ArrayList<String> rows)
+                    {
+                        JList<String> list = new JList<String>(rows.toArray(new String[rows.size()]));
+                        list.setFont(new Font("Courier New",Font.BOLD, 20));
+
+                        mainFrame.remove(tablePane);
+                        tablePane = new JScrollPane(list);
+                        mainFrame.add(tablePane, BorderLayout.CENTER);
+                        refreshGUI();
+                    }
+                });
+            }
+        });
+    }
+
     /**
      * Creates and adds the listener with required functionality for Show Court Bookings button
      */
@@ -157,22 +369,27 @@ public class GUI
             public void actionPerformed(ActionEvent e) {
                 try
                 {
-                    Object[][] data = null;
                     String courtId = JOptionPane.showInputDialog(mainFrame, "Please Enter the Court Id:");
                     if (courtId != null)
                     {
-                        // gets the required data for that court
-                        data = getCourtData(Integer.parseInt(courtId));
-                        mainFrame.remove(tablePane);
-                        // creates table with new data
-                        createTablePane(data);
-                        refreshGUI();
+                        final int id = Integer.parseInt(courtId);
+                        runInBackground(new BackgroundTask<Object[][]>("Loading court bookings") {
+                            protected Object[][] work() throws MyException
+                            {
+                                // gets the required data for that court
+                                return getCourtData(id);
+                            }
+
+                            protected void succeeded(Object[][] data)
+                            {
+                                mainFrame.remove(tablePane);
+                                // creates table with new data
+                                createTablePane(data);
+                                refreshGUI();
+                            }
+                        });
                     }
                 }
-                catch (MyException ex)
-                {
-                    errorDialog(ex.getMessage());
-                }
                 catch (Exception NumberFormatException)
                 {
                     errorDialog("You must enter an Integer");
@@ -194,18 +411,24 @@ public class GUI
                     String memberId = JOptionPane.showInputDialog(mainFrame, "Please Enter the Member Id:");
                     if (memberId != null)
                     {
-                        // gets the required data for that member
-                        Object[][] data = getMemberData(Integer.parseInt(memberId));
-                        mainFrame.remove(tablePane);
-                        // creates table with new data
-                        createTablePane(data);
-                        refreshGUI();
+                        final int id = Integer.parseInt(memberId);
+                        runInBackground(new BackgroundTask<Object[][]>("Loading member bookings") {
+                            protected Object[][] work() throws MyException
+                            {
+                                // gets the required data for that member
+                                return getMemberData(id);
+                            }
+
+                            protected void succeeded(Object[][] data)
+                            {
+                                mainFrame.remove(tablePane);
+                                // creates table with new data
+                                createTablePane(data);
+                                refreshGUI();
+                            }
+                        });
                     }
                 }
-                catch (MyException ex)
-                {
-                    errorDialog(ex.getMessage());
-                }
                 catch (Exception NumberFormatException)
                 {
                     errorDialog("You must enter an Integer");
@@ -214,6 +437,93 @@ public class GUI
         });
     }
 
+    /**
+     * Creates and adds the listener with required functionality for Find Earliest Slots button, listing the first
+     * free courts over the next 7 days for a booking length and time of day
+     */
+    public void findSlotsButton()
+    {
+        findSlotsButton = new JButton("Find Earliest Slots");
+        findSlotsButton.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                try
+                {
+                    ArrayList<String> sportsList = sportsClub.getSportsNamesToString();
+                    sportsList.add(0, "Any sport");
+                    String[] sportsArr = sportsList.toArray(new String[sportsList.size()]);
+                    String[] lengthArr = {"0:30", "1:00", "1:30", "2:00", "2:30", "3:00"};
+                    String[] fromArr = {"9", "10", "11", "12", "13", "14", "15", "16", "17", "18", "19", "20", "21"};
+                    String[] toArr = {"10", "11", "12", "13", "14", "15", "16", "17", "18", "19", "20", "21", "22"};
+
+                    JComboBox<String> sportBox = new JComboBox<String>(sportsArr);
+                    JComboBox<String> lengthBox = new JComboBox<String>(lengthArr);
+                    lengthBox.setSelectedIndex(1);
+                    JComboBox<String> fromBox = new JComboBox<String>(fromArr);
+                    JComboBox<String> toBox = new JComboBox<String>(toArr);
+                    toBox.setSelectedIndex(toArr.length - 1);
+                    JTextField countField = new JTextField("10");
+
+                    JPanel panel = new JPanel(new GridLayout(0,1));
+                    panel.add(new JLabel("Sport"));
+                    panel.add(sportBox);
+                    panel.add(new JLabel("Length"));
+                    panel.add(lengthBox);
+                    panel.add(new JLabel("Between"));
+                    panel.add(fromBox);
+                    panel.add(new JLabel("And"));
+                    panel.add(toBox);
+                    panel.add(new JLabel("Number of Slots"));
+                    panel.add(countField);
+
+                    int result = JOptionPane.showConfirmDialog(null, panel, "Find Earliest Slots",
+                            JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+                    if (result == JOptionPane.OK_OPTION)
+                    {
+                        final String sportName = sportBox.getSelectedIndex() == 0 ? null : sportsClub.getSport(sportBox.getSelectedIndex() - 1).getName();
+                        final int minutes = (lengthBox.getSelectedIndex() + 1) * 30;
+                        final LocalTime from = LocalTime.of(Integer.parseInt(fromBox.getSelectedItem().toString()), 0);
+                        final LocalTime to = LocalTime.of(Integer.parseInt(toBox.getSelectedItem().toString()), 0);
+                        final int count = Integer.parseInt(countField.getText().trim());
+
+                        runInBackground(new BackgroundTask<Object[][]>("Finding free courts") {
+                            protected Object[][] work() throws MyException
+                            {
+                                ArrayList<AvailableSlot> slots = sportsClub.findEarliestSlots(sportName, minutes, from, to, count);
+                                if (slots.isEmpty())
+                                    throw new MyException("No courts are free for that long between those times in the next 7 days");
+                                Object[][] data = new String[slots.size()][5];
+                                for (int i = 0; i < slots.size(); i++)
+                                {
+                                    data[i][0] = slots.get(i).getDate().toString();
+                                    data[i][1] = slots.get(i).getSportName();
+                                    data[i][2] = Integer.toString(slots.get(i).getCourtId());
+                                    data[i][3] = slots.get(i).getStartTime().toString();
+                                    data[i][4] = slots.get(i).getEndTime().toString();
+                                }
+                                return data;
+                            }
+
+                            protected void succeeded(Object[][] data)
+                            {
+                                mainFrame.remove(tablePane);
+                                infoTable = new JTable(new MyTableModel(data, new String[] {"Date", "Sport", "Court ID", "Start Time", "End Time"}));
+                                infoTable.setFillsViewportHeight(true);
+                                // left in the order found, earliest first
+                                tablePane = new JScrollPane(infoTable);
+                                mainFrame.add(tablePane, BorderLayout.CENTER);
+                                refreshGUI();
+                            }
+                        });
+                    }
+                }
+                catch (NumberFormatException ex)
+                {
+                    errorDialog("Number of slots must be an integer");
+                }
+            }
+        });
+    }
+
     /**
      * Creates and adds the listener with required functionality for Add Booking button
      */
@@ -242,6 +552,8 @@ public class GUI
                     JComboBox dateBox = new JComboBox(datesArr);
                     JComboBox startBox = new JComboBox(startArr);
                     JComboBox endBox = new JComboBox(endArr);
+                    JComboBox<String> repeatBox = new JComboBox<String>(new String[] {"Does not repeat", "Weekly", "Fortnightly"});
+                    JTextField occurrencesField = new JTextField("1");
                     // adds to panel
                     JPanel panel = new JPanel(new GridLayout(0,1));
                     panel.add(new JLabel("Member Id"));
@@ -254,6 +566,10 @@ public class GUI
                     panel.add(startBox);
                     panel.add(new JLabel("End Time"));
                     panel.add(endBox);
+                    panel.add(new JLabel("Repeat"));
+                    panel.add(repeatBox);
+                    panel.add(new JLabel("Occurrences"));
+                    panel.add(occurrencesField);
 
                     int result = JOptionPane.showConfirmDialog(null, panel, "Add Booking",
                             JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
@@ -261,39 +577,134 @@ public class GUI
                     if (result == JOptionPane.OK_OPTION)
                     {
                         // gets input in the required formats
-                        int memberId = Integer.parseInt(memberIdField.getText());
-                        String sportName = sportsClub.getSport(sportBox.getSelectedIndex()).getName();
-                        LocalDate date = LocalDate.parse(dateBox.getSelectedItem().toString());
-                        LocalTime startTime = LocalTime.of(Integer.parseInt(startBox.getSelectedItem().toString()),0);
-                        LocalTime endTime = LocalTime.of(Integer.parseInt(endBox.getSelectedItem().toString()),0);
-
-                        // checks that data entered is valid, catching any exceptions if invalid
-                        sportsClub.getMember(memberId);
-                        sportsClub.validMemberFinancial(memberId);
-                        if (!sportsClub.getMember(memberId).playsSport(sportName))
-                            throw new MyException("Member Id: " + memberId + " does not play " + sportName);
-                        sportsClub.validBookingDate(date, memberId);
-                        sportsClub.validBookingStartTime(startTime);
-                        sportsClub.validBookingEndTime(startTime, endTime, sportName);
-                        // adds the booking
-                        sportsClub.addBooking(memberId, sportName, date, startTime, endTime);
-                        // show successful booking
-                        JOptionPane.showMessageDialog(mainFrame, "Booking Succesful", "Success", JOptionPane.INFORMATION_MESSAGE);
-
-                        Object[][] data = getMemberData(memberId);
-                        mainFrame.remove(tablePane);
-                        createTablePane(data);
-                        refreshGUI();
+                        final int memberId = Integer.parseInt(memberIdField.getText());
+                        final String sportName = sportsClub.getSport(sportBox.getSelectedIndex()).getName();
+                        final LocalDate date = LocalDate.parse(dateBox.getSelectedItem().toString());
+                        final LocalTime startTime = LocalTime.of(Integer.parseInt(startBox.getSelectedItem().toString()),0);
+                        final LocalTime endTime = LocalTime.of(Integer.parseInt(endBox.getSelectedItem().toString()),0);
+
+                        if (repeatBox.getSelectedIndex() > 0)
+                        {
+                            BookingSeries.Frequency frequency = repeatBox.getSelectedIndex() == 1 ? BookingSeries.Frequency.WEEKLY : BookingSeries.Frequency.FORTNIGHTLY;
+                            int occurrences = Integer.parseInt(occurrencesField.getText().trim());
+                            addBookingSeries(new BookingSeries(memberId, sportName, date, startTime, endTime, frequency, occurrences));
+                            return;
+                        }
+
+                        runInBackground(new BackgroundTask<Object[][]>("Adding booking") {
+                            // set when every court was taken, so the booking can go on the waitlist instead
+                            private boolean courtsFull;
+
+                            protected Object[][] work() throws MyException
+                            {
+                                // checks that data entered is valid, catching any exceptions if invalid
+                                sportsClub.validateBooking(memberId, sportName, date, startTime, endTime);
+                                // adds the booking
+                                try
+                                {
+                                    sportsClub.addBooking(memberId, sportName, date, startTime, endTime);
+                                }
+                                catch (MyException ex)
+                                {
+                                    if (sportsClub.getSport(sportName).hasCourtAvailable(date, startTime, endTime))
+                                        throw ex;
+                                    courtsFull = true;
+                                    return null;
+                                }
+                                return getMemberData(memberId);
+                            }
+
+                            protected void succeeded(Object[][] data)
+                            {
+                                if (courtsFull)
+                                {
+                                    int join = JOptionPane.showConfirmDialog(mainFrame, "No " + sportName + " courts are available at that time.\n"
+                                            + "Add the booking to the waitlist? It will be booked automatically if a court becomes free.",
+                                            "Courts Full", JOptionPane.YES_NO_OPTION);
+                                    if (join == JOptionPane.YES_OPTION)
+                                        addToWaitlist(memberId, sportName, date, startTime, endTime);
+                                    return;
+                                }
+                                mainFrame.remove(tablePane);
+                                createTablePane(data);
+                                refreshGUI();
+                                // show successful booking
+                                JOptionPane.showMessageDialog(mainFrame, "Booking Succesful", "Success", JOptionPane.INFORMATION_MESSAGE);
+                            }
+                        });
                     }
                 }
-                catch (MyException ex)
+                catch (NumberFormatException ex)
                 {
-                    errorDialog(ex.getMessage());
+                    errorDialog("Member Id and occurrences must be integers");
                 }
-                catch (NumberFormatException ex)
+            }
+        });
+    }
+
+    /**
+     * Puts a booking on its sport's waitlist in the background, then shows its place in the queue for the day
+     *
+     * @param memberId the id of the member making the booking
+     * @param sportName the name of the sport
+     * @param date the date of the booking
+     * @param startTime the starting time of the booking
+     * @param endTime the end time of the booking
+     */
+    private void addToWaitlist(final int memberId, final String sportName, final LocalDate date, final LocalTime startTime, final LocalTime endTime)
+    {
+        runInBackground(new BackgroundTask<Integer>("Joining the waitlist") {
+            protected Integer work() throws MyException
+            {
+                Waitlist.Entry entry = sportsClub.addToWaitlist(memberId, sportName, date, startTime, endTime);
+                return sportsClub.getSport(sportName).getWaitlist().getEntries(date).indexOf(entry) + 1;
+            }
+
+            protected void succeeded(Integer position)
+            {
+                JOptionPane.showMessageDialog(mainFrame, "Added to the " + sportName + " waitlist for " + date
+                        + (position > 0 ? ", number " + position + " in line" : ""), "Waitlisted", JOptionPane.INFORMATION_MESSAGE);
+            }
+        });
+    }
+
+    /**
+     * Books a recurring series in the background, then shows the member's bookings and which occurrences could
+     * not be booked
+     *
+     * @param series the series to book
+     */
+    private void addBookingSeries(final BookingSeries series)
+    {
+        final ArrayList<BookingResult> results = new ArrayList<BookingResult>();
+        runInBackground(new BackgroundTask<Object[][]>("Adding booking series") {
+            protected Object[][] work() throws MyException
+            {
+                results.addAll(sportsClub.addBookingSeries(series));
+                for (BookingResult result : results)
+                    if (result.isSuccessful())
+                        return getMemberData(series.getMemberId());
+                throw new MyException("None of the series could be booked: " + results.get(0).getError());
+            }
+
+            protected void succeeded(Object[][] data)
+            {
+                mainFrame.remove(tablePane);
+                createTablePane(data);
+                refreshGUI();
+
+                int booked = 0;
+                String failures = "";
+                for (BookingResult result : results)
                 {
-                    errorDialog("Member Id must be an integer");
+                    if (result.isSuccessful())
+                        booked++;
+                    else
+                        failures += "\n" + result.getRequest().getDate() + ": " + result.getError();
                 }
+                String message = booked + " of " + results.size() + " bookings made" + failures;
+                JOptionPane.showMessageDialog(mainFrame, message, booked == results.size() ? "Success" : "Series Booked",
+                        booked == results.size() ? JOptionPane.INFORMATION_MESSAGE : JOptionPane.WARNING_MESSAGE);
             }
         });
     }
@@ -331,20 +742,32 @@ public class GUI
                     }
                     else
                     {
-                        int memberId = Integer.parseInt(infoTable.getValueAt(row, 1).toString());
-                        int courtId = Integer.parseInt(infoTable.getValueAt(row, 3).toString());
-                        String sportName = sportsClub.sportHasCourt(courtId);
-                        LocalDate date = LocalDate.parse(infoTable.getValueAt(row, 0).toString());
-                        LocalTime startTime = LocalTime.of(Integer.parseInt(infoTable.getValueAt(row, 4).toString().substring(0,2)),0);
-                        LocalTime endTime = LocalTime.of(Integer.parseInt(infoTable.getValueAt(row, 5).toString().substring(0,2)),0);
-
-                        // deletes the booking
-                        sportsClub.removeBooking(memberId, courtId, sportName, date, startTime, endTime);
-
-                        Object[][] data = getMemberData(memberId);
-                        mainFrame.remove(tablePane);
-                        createTablePane(data);
-                        refreshGUI();
+                        final int memberId = Integer.parseInt(infoTable.getValueAt(row, 1).toString());
+                        final int courtId = Integer.parseInt(infoTable.getValueAt(row, 3).toString());
+                        final LocalDate date = LocalDate.parse(infoTable.getValueAt(row, 0).toString());
+                        final LocalTime startTime = LocalTime.parse(infoTable.getValueAt(row, 4).toString());
+                        final LocalTime endTime = LocalTime.parse(infoTable.getValueAt(row, 5).toString());
+                        String id = infoTable.getColumnCount() > 6 ? infoTable.getValueAt(row, 6).toString() : "";
+                        final int bookingId = id.isEmpty() ? 0 : Integer.parseInt(id);
+
+                        runInBackground(new BackgroundTask<Object[][]>("Deleting booking") {
+                            protected Object[][] work() throws MyException
+                            {
+                                // deletes the booking by its id, bookings in the past or not saved yet are found by their details
+                                if (bookingId > 0 && sportsClub.getBooking(bookingId) != null)
+                                    sportsClub.removeBooking(bookingId);
+                                else
+                                    sportsClub.removeBooking(memberId, courtId, sportsClub.sportHasCourt(courtId), date, startTime, endTime);
+                                return getMemberData(memberId);
+                            }
+
+                            protected void succeeded(Object[][] data)
+                            {
+                                mainFrame.remove(tablePane);
+                                createTablePane(data);
+                                refreshGUI();
+                            }
+                        });
                     }
                 }
                 catch (ArrayIndexOutOfBoundsException ex)
@@ -352,10 +775,6 @@ public class GUI
                     JOptionPane error = new JOptionPane();
                     error.showMessageDialog(mainFrame,"No Booking selected", "Error", JOptionPane.ERROR_MESSAGE);
                 }
-                catch (MyException ex)
-                {
-                    errorDialog(ex.getMessage());
-                }
             }
         });
     }
@@ -382,17 +801,25 @@ public class GUI
      */
     public Object[][] getMemberData(int memberId) throws MyException
     {
-        ArrayList<Booking> bookings = sportsClub.getMember(memberId).getBookings();
-
-        Object[][] data = new String[bookings.size()][6];
+        Member member = sportsClub.getMember(memberId);
+        // the newest page of the member's archived history, read from the archive file, then the rest of their bookings
+        int archived = sportsClub.getMemberHistorySize(memberId);
+        ArrayList<Booking> bookings = sportsClub.getMemberHistory(memberId, Math.max(0, archived - HISTORY_ROWS), HISTORY_ROWS);
+        bookings.addAll(member.getAllBookings());
+        if (bookings.size() == 0)
+            throw new MyException("There are no bookings for that member");
+
+        Object[][] data = new String[bookings.size()][7];
         for (int i = 0; i < bookings.size(); i++)
         {
             data[i][0] = bookings.get(i).getDate().toString();
             data[i][1] = Integer.toString(bookings.get(i).getMemberId());
-            data[i][2] = sportsClub.getMember(memberId).getName();
+            data[i][2] = member.getName();
             data[i][3] = Integer.toString(bookings.get(i).getCourtId());
             data[i][4] = bookings.get(i).getStartTime().toString();
             data[i][5] = bookings.get(i).getEndTime().toString();
+            // blank until the booking has been saved
+            data[i][6] = bookings.get(i).getBookingId() > 0 ? Integer.toString(bookings.get(i).getBookingId()) : "";
         }
 
         return data;
@@ -406,10 +833,15 @@ public class GUI
      */
     public Object[][] getCourtData(int courtId) throws MyException
     {
-        String sportName = sportsClub.sportHasCourt(courtId);
-        ArrayList<Booking> bookings = sportsClub.getSport(sportName).getCourt(courtId).getCourtBookings();
-
-        Object[][] data = new String[bookings.size()][6];
+        Court court = sportsClub.getCourt(courtId);
+        // the newest page of the court's archived history, read from the archive file, then the rest of its bookings
+        int archived = sportsClub.getCourtHistorySize(courtId);
+        ArrayList<Booking> bookings = sportsClub.getCourtHistory(courtId, Math.max(0, archived - HISTORY_ROWS), HISTORY_ROWS);
+        bookings.addAll(court.getAllBookings());
+        if (bookings.size() == 0)
+            throw new MyException("There are no bookings for that court");
+
+        Object[][] data = new String[bookings.size()][7];
         for (int i = 0; i < bookings.size(); i++)
         {
             data[i][0] = bookings.get(i).getDate().toString();
@@ -418,6 +850,8 @@ public class GUI
             data[i][3] = Integer.toString(bookings.get(i).getCourtId());
             data[i][4] = bookings.get(i).getStartTime().toString();
             data[i][5] = bookings.get(i).getEndTime().toString();
+            // blank until the booking has been saved
+            data[i][6] = bookings.get(i).getBookingId() > 0 ? Integer.toString(bookings.get(i).getBookingId()) : "";
         }
 
         return data;
@@ -465,22 +899,43 @@ public class GUI
      */
     public void exit()
     {
+        if (busyDescription != null)
+        {
+            errorDialog("Please wait, " + busyDescription.toLowerCase() + " has not finished");
+            return;
+        }
         String ObjButtons[] = {"Exit", "Cancel"};
         int result = JOptionPane.showOptionDialog(mainFrame, "Are you sure you want to exit?", "Exit",
                 JOptionPane.DEFAULT_OPTION,JOptionPane.WARNING_MESSAGE,null,ObjButtons,ObjButtons[1]);
         // if yes selected
         if (result == 0)
         {
-            try
-            {
-//                sportsClub.writeBookingsToFile();
-            }
-            catch(Exception ex)
-            {
-                errorDialog(ex.getMessage());
-            }
-            // exits program
-            System.exit(0);
+            // a club that never finished loading is not worth a snapshot
+            final boolean loaded = !loading;
+            runInBackground(new BackgroundTask<Void>("Saving") {
+                protected Void work()
+                {
+                    // writes any booking changes still waiting, before the snapshot so it has their ids
+                    sportsClub.shutdown();
+                    try
+                    {
+                        // saves a snapshot so the next start up is quicker
+                        if (loaded && ClubSnapshot.isEnabled())
+                            ClubSnapshot.write(sportsClub, ClubSnapshot.getFile());
+                    }
+                    catch(Exception ex)
+                    {
+                        System.out.println("Snapshot could not be written: " + ex);
+                    }
+                    return null;
+                }
+
+                protected void succeeded(Void result)
+                {
+                    // exits program
+                    System.exit(0);
+                }
+            });
         }
     }
 }
@@ -0,0 +1,103 @@
+import utility.TimingWheel;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+
+/**
+ * A court held for a member for a few minutes while they confirm a booking. A hold takes up its court's time like a
+ * booking does, so nobody else can book it, but it is not one of the court's bookings and it is never saved. It
+ * either becomes a booking when confirmed or frees the time again when released or when it expires
+ *
+ * @author Alex McWhae
+ */
+public class Hold extends Booking
+{
+    // identifies the hold to confirm or release it
+    private long holdId;
+    // the sport the court belongs to
+    private String sportName;
+    // when the hold expires, in milliseconds
+    private long expiresAt;
+    // the hold's place on the timing wheel, cancelled when the hold is confirmed or released
+    private TimingWheel.Timeout<Hold> timeout;
+
+    /**
+     * Constructor
+     *
+     * @param holdId the id of the hold
+     * @param sportName the name of the sport
+     * @param date the date of the hold
+     * @param startTime the time the hold starts
+     * @param endTime the time the hold ends
+     * @param memberId the id of the member the court is held for
+     * @param courtId the id of the court held
+     * @param expiresAt when the hold expires, in milliseconds
+     */
+    public Hold(long holdId, String sportName, LocalDate date, LocalTime startTime, LocalTime endTime, int memberId, int courtId, long expiresAt)
+    {
+        super(date, startTime, endTime, memberId, courtId);
+        this.holdId = holdId;
+        this.sportName = sportName;
+        this.expiresAt = expiresAt;
+    }
+
+    /**
+     * An accessor method to get the hold id
+     *
+     * @return long the id of the hold
+     */
+    public long getHoldId()
+    {
+        return holdId;
+    }
+
+    /**
+     * An accessor method to get the sport name
+     *
+     * @return String the name of the sport
+     */
+    public String getSportName()
+    {
+        return sportName;
+    }
+
+    /**
+     * An accessor method to get when the hold expires
+     *
+     * @return long the time in milliseconds
+     */
+    public long getExpiresAt()
+    {
+        return expiresAt;
+    }
+
+    /**
+     * An accessor method to get the hold's timeout
+     *
+     * @return TimingWheel.Timeout the timeout, null until the hold has been scheduled to expire
+     */
+    public TimingWheel.Timeout<Hold> getTimeout()
+    {
+        return timeout;
+    }
+
+    /**
+     * A mutator method to set the hold's timeout
+     *
+     * @param timeout the timeout
+     */
+    public void setTimeout(TimingWheel.Timeout<Hold> timeout)
+    {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Returns the hold in a String format
+     *
+     * @return String the hold
+     */
+    public String toString()
+    {
+        return "hold " + holdId + " " + super.toString();
+    }
+}
@@ -0,0 +1,318 @@
+import java.time.LocalTime;
+import java.util.ArrayList;
+
+/**
+ * An interval tree holding the bookings made on one court for a single day. The tree is a balanced (AVL) binary
+ * search tree keyed on the start time of the booking, where each node also records the latest end time found in
+ * its subtree, this allows overlap checks to skip any subtree that could not contain a clashing booking
+ *
+ * @author Alex McWhae
+ */
+public class IntervalTree
+{
+    // the root node of the tree
+    private Node root;
+    // the number of bookings held in the tree
+    private int size;
+
+    /**
+     * A node in the tree, holds every booking that starts at the node's start time
+     */
+    private static class Node
+    {
+        // start time of the bookings in this node, in seconds of the day
+        private int start;
+        // the latest end time of the bookings in this node
+        private int end;
+        // the latest end time of any booking in this node's subtree
+        private int maxEnd;
+        // height of the subtree rooted at this node
+        private int height;
+        // the bookings starting at this node's start time
+        private ArrayList<Booking> bookings;
+        private Node left;
+        private Node right;
+
+        private Node(Booking booking)
+        {
+            this.start = seconds(booking.getStartTime());
+            this.end = seconds(booking.getEndTime());
+            this.maxEnd = end;
+            this.height = 1;
+            this.bookings = new ArrayList<Booking>(1);
+            this.bookings.add(booking);
+        }
+    }
+
+    /**
+     * An accessor method to get the number of bookings in the tree
+     *
+     * @return int the number of bookings
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Checks if there are no bookings in the tree
+     *
+     * @return boolean true if the tree holds no bookings
+     */
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    /**
+     * Adds a booking to the tree
+     *
+     * @param booking the booking to add
+     */
+    public void add(Booking booking)
+    {
+        root = insert(root, booking);
+        size++;
+    }
+
+    /**
+     * Removes the given booking from the tree
+     *
+     * @param booking the booking to remove
+     * @return boolean indicating whether the booking was found and removed
+     */
+    public boolean remove(Booking booking)
+    {
+        int before = size;
+        root = delete(root, seconds(booking.getStartTime()), booking);
+        return size != before;
+    }
+
+    /**
+     * Checks whether any booking in the tree overlaps the time between the given start and end times. Bookings
+     * that only touch (one ends as the other starts) are not considered overlapping
+     *
+     * @param startTime the start of the time to check
+     * @param endTime the end of the time to check
+     * @return boolean true if a booking overlaps the given times
+     */
+    public boolean overlaps(LocalTime startTime, LocalTime endTime)
+    {
+        int start = seconds(startTime);
+        int end = seconds(endTime);
+        Node node = root;
+        // walks down one path: if the left subtree could overlap then it is guaranteed to if anything does
+        while (node != null)
+        {
+            if (node.start < end && node.end > start)
+                return true;
+            if (node.left != null && node.left.maxEnd > start)
+                node = node.left;
+            else if (node.start < end)
+                node = node.right;
+            else
+                node = null;
+        }
+        return false;
+    }
+
+    /**
+     * Gets every booking in the tree that overlaps the time between the given start and end times
+     *
+     * @param startTime the start of the time to check
+     * @param endTime the end of the time to check
+     * @return ArrayList<Booking> the overlapping bookings ordered by start time
+     */
+    public ArrayList<Booking> getOverlapping(LocalTime startTime, LocalTime endTime)
+    {
+        ArrayList<Booking> result = new ArrayList<Booking>();
+        collectOverlapping(root, seconds(startTime), seconds(endTime), result);
+        return result;
+    }
+
+    /**
+     * Gets the bookings that start at exactly the given time
+     *
+     * @param startTime the start time to look for
+     * @return ArrayList<Booking> the bookings starting at the time, empty if there are none
+     */
+    public ArrayList<Booking> getStartingAt(LocalTime startTime)
+    {
+        int start = seconds(startTime);
+        Node node = root;
+        while (node != null)
+        {
+            if (start < node.start)
+                node = node.left;
+            else if (start > node.start)
+                node = node.right;
+            else
+                return node.bookings;
+        }
+        return new ArrayList<Booking>();
+    }
+
+    /**
+     * Gets every booking in the tree ordered by start time
+     *
+     * @return ArrayList<Booking> the bookings in the tree
+     */
+    public ArrayList<Booking> getBookings()
+    {
+        ArrayList<Booking> result = new ArrayList<Booking>(size);
+        collectAll(root, result);
+        return result;
+    }
+
+    private static void collectOverlapping(Node node, int start, int end, ArrayList<Booking> result)
+    {
+        if (node == null || node.maxEnd <= start)
+            return;
+        collectOverlapping(node.left, start, end, result);
+        if (node.start < end)
+        {
+            for (Booking booking : node.bookings)
+                if (seconds(booking.getEndTime()) > start)
+                    result.add(booking);
+            collectOverlapping(node.right, start, end, result);
+        }
+    }
+
+    private static void collectAll(Node node, ArrayList<Booking> result)
+    {
+        if (node == null)
+            return;
+        collectAll(node.left, result);
+        result.addAll(node.bookings);
+        collectAll(node.right, result);
+    }
+
+    private Node insert(Node node, Booking booking)
+    {
+        if (node == null)
+            return new Node(booking);
+
+        int start = seconds(booking.getStartTime());
+        if (start < node.start)
+            node.left = insert(node.left, booking);
+        else if (start > node.start)
+            node.right = insert(node.right, booking);
+        else
+        {
+            node.bookings.add(booking);
+            node.end = Math.max(node.end, seconds(booking.getEndTime()));
+        }
+        return balance(node);
+    }
+
+    private Node delete(Node node, int start, Booking booking)
+    {
+        if (node == null)
+            return null;
+
+        if (start < node.start)
+            node.left = delete(node.left, start, booking);
+        else if (start > node.start)
+            node.right = delete(node.right, start, booking);
+        else
+        {
+            if (!node.bookings.remove(booking))
+                return node;
+            size--;
+            if (!node.bookings.isEmpty())
+            {
+                node.end = latestEnd(node.bookings);
+                return balance(node);
+            }
+            // node is now empty so unlinks it from the tree
+            if (node.left == null)
+                return node.right;
+            if (node.right == null)
+                return node.left;
+            Node successor = node.right;
+            while (successor.left != null)
+                successor = successor.left;
+            node.right = removeMin(node.right);
+            successor.left = node.left;
+            successor.right = node.right;
+            return balance(successor);
+        }
+        return balance(node);
+    }
+
+    private Node removeMin(Node node)
+    {
+        if (node.left == null)
+            return node.right;
+        node.left = removeMin(node.left);
+        return balance(node);
+    }
+
+    private static Node balance(Node node)
+    {
+        update(node);
+        int factor = height(node.left) - height(node.right);
+        if (factor > 1)
+        {
+            if (height(node.left.left) < height(node.left.right))
+                node.left = rotateLeft(node.left);
+            return rotateRight(node);
+        }
+        if (factor < -1)
+        {
+            if (height(node.right.right) < height(node.right.left))
+                node.right = rotateRight(node.right);
+            return rotateLeft(node);
+        }
+        return node;
+    }
+
+    private static Node rotateRight(Node node)
+    {
+        Node pivot = node.left;
+        node.left = pivot.right;
+        pivot.right = node;
+        update(node);
+        update(pivot);
+        return pivot;
+    }
+
+    private static Node rotateLeft(Node node)
+    {
+        Node pivot = node.right;
+        node.right = pivot.left;
+        pivot.left = node;
+        update(node);
+        update(pivot);
+        return pivot;
+    }
+
+    private static void update(Node node)
+    {
+        node.height = 1 + Math.max(height(node.left), height(node.right));
+        int maxEnd = node.end;
+        if (node.left != null)
+            maxEnd = Math.max(maxEnd, node.left.maxEnd);
+        if (node.right != null)
+            maxEnd = Math.max(maxEnd, node.right.maxEnd);
+        node.maxEnd = maxEnd;
+    }
+
+    private static int height(Node node)
+    {
+        return node == null ? 0 : node.height;
+    }
+
+    private static int latestEnd(ArrayList<Booking> bookings)
+    {
+        int result = 0;
+        for (Booking booking : bookings)
+            result = Math.max(result, seconds(booking.getEndTime()));
+        return result;
+    }
+
+    private static int seconds(LocalTime time)
+    {
+        return time.toSecondOfDay();
+    }
+}
@@ -1,11 +1,12 @@
 import java.util.ArrayList;
 import java.time.LocalDate;
 import java.time.LocalTime;
-import java.util.Iterator;
 /**
  * This class represents a member at a sports club, it contains a name, member id, financial status, a list of sports the play
  * and a list of bookings they've made
  *
+ * The bookings are guarded by the member's monitor, so bookings can be added and removed from several threads
+ *
  * @author Alex McWhae
  */
 public class Member
@@ -18,8 +19,8 @@ public class Member
     private boolean financial;
     // a list of the sports the member plays
     private ArrayList<String> sportsPlayed;
-    // a list of bookings made by the member
-    private ArrayList<Booking> bookings;
+    // the bookings made by the member, partitioned by date
+    private BookingStore bookings;
 
     /**
      * Constructor for Member
@@ -35,7 +36,7 @@ public class Member
         this.name = name;
         this.financial = financial;
         this.sportsPlayed = sportsPlayed;
-        this.bookings = new ArrayList<Booking>();
+        this.bookings = new BookingStore();
     }
 
     /**
@@ -123,24 +124,37 @@ public class Member
      *
      * @param bookings list of bookings made by member
      */
-    public void setBookings(ArrayList<Booking> bookings)
+    public synchronized void setBookings(ArrayList<Booking> bookings)
     {
-        this.bookings = bookings;
+        this.bookings = new BookingStore();
+        for (Booking booking : bookings)
+            this.bookings.add(booking);
     }
 
     /**
-     * An accessor method to get the bookings made by member
+     * An accessor method to get a copy of the bookings made by member
      *
      * @return ArrayList<Booking> list of bookings made by member
      */
-    public ArrayList<Booking> getBookings() throws MyException
+    public synchronized ArrayList<Booking> getBookings() throws MyException
     {
         if (bookings.size() == 0)
         {
             throw new MyException("There are no bookings for that member");
         }
 
-        return bookings;
+        return bookings.getAll();
+    }
+
+    /**
+     * An accessor method to get a copy of the bookings made by member that does not treat a member with no bookings
+     * as an error
+     *
+     * @return ArrayList<Booking> list of bookings made by member, may be empty
+     */
+    public synchronized ArrayList<Booking> getAllBookings()
+    {
+        return bookings.getAll();
     }
 
     /**
@@ -196,7 +210,7 @@ public class Member
      * @param startTime the starting time of the booking
      * @param endTime the end time of the booking
      */
-    public void addBooking (int courtId, LocalDate date, LocalTime startTime, LocalTime endTime)
+    public synchronized void addBooking (int courtId, LocalDate date, LocalTime startTime, LocalTime endTime)
     {
         //creates the booking object using the member id as well
         Booking booking = new Booking(date, startTime, endTime, this.memberId, courtId);
@@ -208,7 +222,7 @@ public class Member
      *
      * @param Booking booking to add
      */
-    public void addBooking(Booking booking)
+    public synchronized void addBooking(Booking booking)
     {
         bookings.add(booking);
     }
@@ -219,12 +233,9 @@ public class Member
      * @param date the date to look for a booking
      * @return boolean  indicating whether a booking is already made on the date
      */
-    public boolean hasBooking(LocalDate date)
+    public synchronized boolean hasBooking(LocalDate date)
     {
-        for (Booking booking : bookings)
-            if(booking.getDate().equals(date))
-                return true;
-        return false;
+        return bookings.get(date) != null;
     }
 
     /**
@@ -233,12 +244,9 @@ public class Member
      * @param date the date to get the booking
      * @return Booking the booking on the date, null if none found
      */
-    public Booking getBooking(LocalDate date)
+    public synchronized Booking getBooking(LocalDate date)
     {
-        for (Booking booking : bookings)
-            if(booking.getDate().equals(date))
-                return booking;
-        return null;
+        return bookings.get(date);
     }
 
     /**
@@ -248,25 +256,27 @@ public class Member
      * @param startTime the starting time of the booking to remove
      * @return boolean indiciating whether booking was removed
      */
-    public boolean removeBooking(LocalDate date, LocalTime startTime)
+    public synchronized boolean removeBooking(LocalDate date, LocalTime startTime)
     {
-        Booking booking = null;
-        boolean result = false;
+        return bookings.remove(date, startTime) != null;
+    }
 
-        Iterator<Booking> itr = bookings.iterator();
+    /**
+     * Drops the member's sealed bookings before a date once they have been written to the booking archive
+     *
+     * @param date the date the archive covers up to
+     */
+    public synchronized void dropArchived(LocalDate date)
+    {
+        bookings.dropSealedBefore(date);
+    }
 
-        while (itr.hasNext())
-        {
-            booking = itr.next();
-            if (date.equals(booking.getDate()))
-                if (startTime.equals(booking.getStartTime()))
-                {
-                    itr.remove();
-                    result = true;
-                    break;
-                }
-        }
-        return result;
+    /**
+     * Seals the member's bookings for dates that have passed, packing them into the booking store's columns
+     */
+    public synchronized void sealHistory()
+    {
+        bookings.seal();
     }
 
     /**
@@ -274,11 +284,11 @@ public class Member
      *
      * @return ArrayList<String> the list of the bookings in string format     
      */
-    public ArrayList<String> getBookingsToString()
+    public synchronized ArrayList<String> getBookingsToString()
     {
         ArrayList<String> result = new ArrayList<String>();
 
-        for (Booking booking : bookings)
+        for (Booking booking : bookings.getAll())
         {
             result.add(booking.toString());
         }
@@ -290,15 +300,12 @@ public class Member
      *
      * @return ArrayList<String> the list of the bookings in the next week in string format 
      */
-    public ArrayList<String> getBookingsInNextWeek()
+    public synchronized ArrayList<String> getBookingsInNextWeek()
     {
         ArrayList<String> result = new ArrayList<String>();
-        for (Booking booking : bookings)
-        {
-            // checks if booking is a future booking
-            if (booking.getDate().isAfter(LocalDate.now()) || booking.getDate().equals(LocalDate.now()))
-                result.add(booking.toString());
-        }
+        // only the live partitions, from today on, are looked at
+        for (Booking booking : bookings.getLive())
+            result.add(booking.toString());
         return result;
     }
 
@@ -307,11 +314,11 @@ public class Member
      *
      * @return ArrayList<String> the list of the bookings in string format 
      */
-    public ArrayList<String> getBookingsForFileWrite()
+    public synchronized ArrayList<String> getBookingsForFileWrite()
     {
         ArrayList<String> bookingStrings = new ArrayList<String>();
 
-        for (Booking booking : bookings)
+        for (Booking booking : bookings.getAll())
         {
             bookingStrings.add(booking.toStringForFileWrite());
         }
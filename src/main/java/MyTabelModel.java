@@ -7,7 +7,7 @@ import javax.swing.table.*;
 class MyTableModel extends AbstractTableModel
 {
     // column names for the table
-    private String[] columnNames = {"Date", "Member ID", "Name", "Court ID", "Start Time", "End Time"};
+    private String[] columnNames = {"Date", "Member ID", "Name", "Court ID", "Start Time", "End Time", "Booking ID"};
     // the data to be displayed in the table
     private Object[][] data;
     /**
@@ -20,6 +20,18 @@ class MyTableModel extends AbstractTableModel
         this.data = data;
     }
 
+    /**
+     * Constructor for a table with its own columns
+     *
+     * @param data the 2dimensional array that holds all the data to be shown in the table
+     * @param columnNames the names of the columns
+     */
+    public MyTableModel(Object[][] data, String[] columnNames)
+    {
+        this.data = data;
+        this.columnNames = columnNames;
+    }
+
     /**
      * Gets the number of columns in the table
      *
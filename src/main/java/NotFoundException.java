@@ -0,0 +1,20 @@
+/**
+ * A MyException for something asked for by id or name that the club does not have, such as a member, court or hold
+ *
+ * @author Alex McWhae
+ */
+public class NotFoundException extends MyException
+{
+    // exceptions are serializable, so this keeps the class's serialized form stable
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructor for objects of class NotFoundException
+     *
+     * @param message the message detailing what could not be found
+     */
+    public NotFoundException(String message)
+    {
+        super(message);
+    }
+}
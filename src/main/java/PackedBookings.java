@@ -0,0 +1,321 @@
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A read only set of bookings packed into primitive columns, one array per field: the date as an epoch day, the start
+ * and end times as minutes of the day, and the member, court and booking ids. A booking takes 20 bytes this way instead of a
+ * Booking object with its LocalDate and two LocalTimes. The bookings are sorted by date then start time, so the
+ * bookings on a date are found by binary search of the date column
+ *
+ * Booking objects are only made when a booking is asked for, and a change makes a new set rather than changing this
+ * one, so a set can be shared between threads freely
+ *
+ * @author Alex McWhae
+ */
+public class PackedBookings
+{
+    // an empty set
+    public static final PackedBookings EMPTY = new PackedBookings(new int[0], new short[0], new short[0], new int[0], new int[0], new int[0]);
+
+    private static final Comparator<Booking> BY_DATE_AND_START =
+            Comparator.comparing(Booking::getDate).thenComparing(Booking::getStartTime);
+
+    // the date of each booking as an epoch day, in order
+    private final int[] days;
+    // the start and end of each booking in minutes from midnight
+    private final short[] starts;
+    private final short[] ends;
+    private final int[] memberIds;
+    private final int[] courtIds;
+    // the id of each booking in the database, 0 if it was never saved
+    private final int[] bookingIds;
+
+    private PackedBookings(int[] days, short[] starts, short[] ends, int[] memberIds, int[] courtIds, int[] bookingIds)
+    {
+        this.days = days;
+        this.starts = starts;
+        this.ends = ends;
+        this.memberIds = memberIds;
+        this.courtIds = courtIds;
+        this.bookingIds = bookingIds;
+    }
+
+    /**
+     * Makes a new set with the given bookings merged in
+     *
+     * @param added the bookings to add, in any order
+     * @return PackedBookings the new set
+     */
+    public PackedBookings merge(List<Booking> added)
+    {
+        ArrayList<Booking> sorted = new ArrayList<Booking>(added);
+        sorted.sort(BY_DATE_AND_START);
+
+        int size = days.length + sorted.size();
+        PackedBookings result = new PackedBookings(new int[size], new short[size], new short[size], new int[size], new int[size], new int[size]);
+        int i = 0;
+        int j = 0;
+        for (int k = 0; k < size; k++)
+        {
+            // takes the earlier of the next packed booking and the next added one
+            if (j == sorted.size() || (i < days.length && compare(i, sorted.get(j)) <= 0))
+                result.copy(k, this, i++);
+            else
+                result.pack(k, sorted.get(j++));
+        }
+        return result;
+    }
+
+    /**
+     * Makes a new set without the booking at the given index
+     *
+     * @param index the index of the booking to leave out
+     * @return PackedBookings the new set
+     */
+    public PackedBookings without(int index)
+    {
+        return new PackedBookings(remove(days, index), remove(starts, index), remove(ends, index), remove(memberIds, index), remove(courtIds, index),
+                remove(bookingIds, index));
+    }
+
+    /**
+     * Makes a new set of the bookings from one index up to another
+     *
+     * @param from the index of the first booking to keep
+     * @param to the index after the last booking to keep
+     * @return PackedBookings the new set
+     */
+    public PackedBookings slice(int from, int to)
+    {
+        return new PackedBookings(Arrays.copyOfRange(days, from, to), Arrays.copyOfRange(starts, from, to), Arrays.copyOfRange(ends, from, to),
+                Arrays.copyOfRange(memberIds, from, to), Arrays.copyOfRange(courtIds, from, to), Arrays.copyOfRange(bookingIds, from, to));
+    }
+
+    /**
+     * Gets the number of bookings
+     *
+     * @return int the number of bookings
+     */
+    public int size()
+    {
+        return days.length;
+    }
+
+    /**
+     * Gets the index of the first booking on a date, or of the first booking after it if there are none on it
+     *
+     * @param date the date
+     * @return int the index, size() if every booking is earlier
+     */
+    public int first(LocalDate date)
+    {
+        return lowerBound(date.toEpochDay());
+    }
+
+    /**
+     * Gets the index after the last booking on a date
+     *
+     * @param date the date
+     * @return int the index
+     */
+    public int end(LocalDate date)
+    {
+        return lowerBound(date.toEpochDay() + 1);
+    }
+
+    /**
+     * Gets a booking, made from its columns
+     *
+     * @param index the index of the booking
+     * @return Booking the booking
+     */
+    public Booking get(int index)
+    {
+        return new Booking(bookingIds[index], LocalDate.ofEpochDay(days[index]), toTime(starts[index]), toTime(ends[index]), memberIds[index], courtIds[index]);
+    }
+
+    /**
+     * Gets the member id of a booking without making the booking
+     *
+     * @param index the index of the booking
+     * @return int the member id
+     */
+    public int getMemberId(int index)
+    {
+        return memberIds[index];
+    }
+
+    /**
+     * Gets the court id of a booking without making the booking
+     *
+     * @param index the index of the booking
+     * @return int the court id
+     */
+    public int getCourtId(int index)
+    {
+        return courtIds[index];
+    }
+
+    /**
+     * Gets the booking id of a booking without making the booking
+     *
+     * @param index the index of the booking
+     * @return int the booking id, 0 if it was never saved
+     */
+    public int getBookingId(int index)
+    {
+        return bookingIds[index];
+    }
+
+    /**
+     * Gets the date of a booking as an epoch day without making the booking
+     *
+     * @param index the index of the booking
+     * @return int the epoch day
+     */
+    public int getEpochDay(int index)
+    {
+        return days[index];
+    }
+
+    /**
+     * Gets the start of a booking without making the booking
+     *
+     * @param index the index of the booking
+     * @return short the start in minutes from midnight
+     */
+    public short getStartMinute(int index)
+    {
+        return starts[index];
+    }
+
+    /**
+     * Gets the end of a booking without making the booking
+     *
+     * @param index the index of the booking
+     * @return short the end in minutes from midnight
+     */
+    public short getEndMinute(int index)
+    {
+        return ends[index];
+    }
+
+    /**
+     * Checks whether a booking has the given start time, without making the booking
+     *
+     * @param index the index of the booking
+     * @param startTime the start time
+     * @return boolean true if the booking starts then
+     */
+    public boolean startsAt(int index, LocalTime startTime)
+    {
+        return starts[index] == toMinute(startTime);
+    }
+
+    /**
+     * Checks whether a booking has the same fields as the given one
+     *
+     * @param index the index of the booking
+     * @param booking the booking to compare against
+     * @return boolean true if every field matches
+     */
+    public boolean matches(int index, Booking booking)
+    {
+        return compare(index, booking) == 0 && ends[index] == toMinute(booking.getEndTime())
+                && memberIds[index] == booking.getMemberId() && courtIds[index] == booking.getCourtId();
+    }
+
+    /**
+     * Gets the occupancy bitmap of the bookings on a date, as described in CourtDay. Only of use when the set holds
+     * the bookings of a single court
+     *
+     * @param date the date
+     * @return long the bitmap
+     */
+    public long getOccupancy(LocalDate date)
+    {
+        long occupied = 0L;
+        for (int i = first(date); i < end(date); i++)
+            occupied |= CourtDay.rangeMask(starts[i] / CourtDay.SLOT_MINUTES, (ends[i] + CourtDay.SLOT_MINUTES - 1) / CourtDay.SLOT_MINUTES);
+        return occupied;
+    }
+
+    /**
+     * Gets the heap taken by the columns
+     *
+     * @return long the size in bytes, not counting array headers
+     */
+    public long getColumnBytes()
+    {
+        return (long) days.length * (Integer.BYTES + Short.BYTES * 2 + Integer.BYTES * 3);
+    }
+
+    private int compare(int index, Booking booking)
+    {
+        int result = Long.compare(days[index], booking.getDate().toEpochDay());
+        return result != 0 ? result : Integer.compare(starts[index], toMinute(booking.getStartTime()));
+    }
+
+    private void copy(int index, PackedBookings from, int fromIndex)
+    {
+        days[index] = from.days[fromIndex];
+        starts[index] = from.starts[fromIndex];
+        ends[index] = from.ends[fromIndex];
+        memberIds[index] = from.memberIds[fromIndex];
+        courtIds[index] = from.courtIds[fromIndex];
+        bookingIds[index] = from.bookingIds[fromIndex];
+    }
+
+    private void pack(int index, Booking booking)
+    {
+        days[index] = (int) booking.getDate().toEpochDay();
+        starts[index] = toMinute(booking.getStartTime());
+        ends[index] = toMinute(booking.getEndTime());
+        memberIds[index] = booking.getMemberId();
+        courtIds[index] = booking.getCourtId();
+        bookingIds[index] = booking.getBookingId();
+    }
+
+    private int lowerBound(long day)
+    {
+        int low = 0;
+        int high = days.length;
+        while (low < high)
+        {
+            int middle = (low + high) >>> 1;
+            if (days[middle] < day)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
+    static short toMinute(LocalTime time)
+    {
+        return (short) (time.getHour() * 60 + time.getMinute());
+    }
+
+    static LocalTime toTime(short minute)
+    {
+        return LocalTime.of(minute / 60, minute % 60);
+    }
+
+    private static int[] remove(int[] column, int index)
+    {
+        int[] result = Arrays.copyOf(column, column.length - 1);
+        System.arraycopy(column, index + 1, result, index, column.length - index - 1);
+        return result;
+    }
+
+    private static short[] remove(short[] column, int index)
+    {
+        short[] result = Arrays.copyOf(column, column.length - 1);
+        System.arraycopy(column, index + 1, result, index, column.length - index - 1);
+        return result;
+    }
+}
@@ -1,4 +1,9 @@
+import utility.IntHashMap;
+
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
 import java.time.LocalDate;
 import java.time.LocalTime;
 /**
@@ -13,6 +18,12 @@ public class Sport
     private double usageFee;
     private double insuranceFee;
     private ArrayList<Court> courts;
+    // the courts keyed by court id
+    private IntHashMap<Court> courtsById;
+    // the club wide court index this sport registers its courts with, null until added to a club
+    private CourtIndex courtIndex;
+    // the requests waiting for a court to become free
+    private Waitlist waitlist;
 
     /**
      * Constructor
@@ -28,10 +39,14 @@ public class Sport
         this.usageFee = usageFee;
         this.insuranceFee = insuranceFee;
         this.courts = new ArrayList<Court>();
+        this.courtsById = new IntHashMap<Court>(courts.length);
+        this.waitlist = new Waitlist();
 
         for (int i = 0; i < courts.length; i++)
         {
-            this.courts.add(new Court(courts[i])); // creates a Court object for each court id
+            Court court = new Court(courts[i]); // creates a Court object for each court id
+            this.courts.add(court);
+            courtsById.put(court.getCourtId(), court); // no club index to register with yet
         }
     }
 
@@ -112,7 +127,35 @@ public class Sport
      */
     public void setCourts(ArrayList<Court> courts)
     {
+        if (courtIndex != null)
+            for (Court court : this.courts)
+                courtIndex.unregister(court.getCourtId());
         this.courts = courts;
+        courtsById = new IntHashMap<Court>(courts.size());
+        for (Court court : courts)
+            indexCourt(court);
+    }
+
+    /**
+     * An accessor method to get the sport's waitlist
+     *
+     * @return Waitlist the requests waiting for a court
+     */
+    public Waitlist getWaitlist()
+    {
+        return waitlist;
+    }
+
+    /**
+     * Sets the club wide court index, registering all of the sport's courts with it
+     *
+     * @param courtIndex the index to register with
+     */
+    public void setCourtIndex(CourtIndex courtIndex)
+    {
+        this.courtIndex = courtIndex;
+        for (Court court : courts)
+            courtIndex.register(this, court);
     }
 
     /**
@@ -122,7 +165,21 @@ public class Sport
      */
     public void addCourt(int courtId)
     {
-        courts.add(new Court(courtId));
+        Court court = new Court(courtId);
+        courts.add(court);
+        indexCourt(court);
+    }
+
+    /**
+     * Adds the court to the sport's index and the club's index if the sport belongs to a club
+     *
+     * @param court the court to index
+     */
+    private void indexCourt(Court court)
+    {
+        courtsById.put(court.getCourtId(), court);
+        if (courtIndex != null)
+            courtIndex.register(this, court);
     }
 
     /**
@@ -133,16 +190,7 @@ public class Sport
      */
     public Court getCourt(int id)
     {
-        Court result = null;
-        for (Court court : courts)
-        {
-            if (id == court.getCourtId())
-            {
-                result = court;
-                break;
-            }
-        }
-        return result;
+        return courtsById.get(id);
     }
 
     /**
@@ -153,14 +201,7 @@ public class Sport
      */
     public boolean hasCourt(int courtId)
     {
-        boolean result = false;
-        for (Court court : courts)
-            if (courtId == court.getCourtId())
-            {
-                result = true;
-                break;
-            }
-        return result;
+        return courtsById.containsKey(courtId);
     }
 
     /**
@@ -174,25 +215,111 @@ public class Sport
      */
     public int addBooking(int memberId, LocalDate date, LocalTime startTime,LocalTime endTime)
     {
-        boolean courtAvailable = false;
-        Court court = null;
-        int i;
-        int result = 0;
+        Booking booking = bookCourt(memberId, date, startTime, endTime);
+        return booking == null ? 0 : booking.getCourtId();
+    }
 
-        //checks to see if a court is available between the given times on the date
-        for (i = 0; i < courts.size(); i++)
-            if (courts.get(i).checkCourtAvailable(date, startTime, endTime))
-            {
-                courtAvailable = true;
-                break;
-            }
-        // if available makes the booking
-        if (courtAvailable)
+    /**
+     * Books the first court that is free between the given times. Each court is checked and booked in one step
+     * under that court day's lock, so concurrent callers can never be given the same court at the same time
+     *
+     * @param memberId the id of the member making the booking
+     * @param date the date of the booking
+     * @param startTime the starting time of the booking
+     * @param endTime the end time of the booking
+     * @return Booking the booking that was made, null if no court is free
+     */
+    public Booking bookCourt(int memberId, LocalDate date, LocalTime startTime, LocalTime endTime)
+    {
+        return bookCourt(memberId, date, startTime, endTime, Collections.<Integer>emptySet());
+    }
+
+    /**
+     * Books the first court that is free between the given times, as bookCourt does, without trying the given courts
+     *
+     * @param memberId the id of the member making the booking
+     * @param date the date of the booking
+     * @param startTime the starting time of the booking
+     * @param endTime the end time of the booking
+     * @param skipped the ids of the courts to leave out
+     * @return Booking the booking that was made, null if no other court is free
+     */
+    public Booking bookCourt(int memberId, LocalDate date, LocalTime startTime, LocalTime endTime, Set<Integer> skipped)
+    {
+        for (Court court : courts)
+        {
+            if (skipped.contains(court.getCourtId()))
+                continue;
+            Booking booking = court.tryAddBooking(memberId, date, startTime, endTime);
+            if (booking != null)
+                return booking;
+        }
+        return null;
+    }
+
+    /**
+     * Holds the first court that is free between the given times, see Court.tryHold
+     *
+     * @param holdId the id of the hold
+     * @param memberId the id of the member the court is held for
+     * @param date the date of the hold
+     * @param startTime the starting time of the hold
+     * @param endTime the end time of the hold
+     * @param expiresAt when the hold expires, in milliseconds
+     * @return Hold the hold that was made, null if no court is free
+     */
+    public Hold holdCourt(long holdId, int memberId, LocalDate date, LocalTime startTime, LocalTime endTime, long expiresAt)
+    {
+        for (Court court : courts)
+        {
+            Hold hold = court.tryHold(holdId, name, memberId, date, startTime, endTime, expiresAt);
+            if (hold != null)
+                return hold;
+        }
+        return null;
+    }
+
+    /**
+     * Books the same times on several dates, keeping to one court where possible. The occupancy bitmap of every
+     * court on every date is read once up front to count how many of the dates each court has free, and each date is
+     * then booked on the first free court in order of that count, so the court free on the most dates takes every
+     * date it can and the rest fall back to the next best court
+     *
+     * @param memberId the id of the member making the bookings
+     * @param dates the dates to book, a null date is skipped
+     * @param startTime the starting time of each booking
+     * @param endTime the end time of each booking
+     * @return Booking[] the booking made on each date, in the same order, null where no court was free
+     */
+    public Booking[] bookSeries(int memberId, List<LocalDate> dates, LocalTime startTime, LocalTime endTime)
+    {
+        long mask = CourtDay.slotMask(startTime, endTime);
+        final int[] freeDates = new int[courts.size()];
+        ArrayList<Integer> order = new ArrayList<Integer>(courts.size());
+        for (int i = 0; i < courts.size(); i++)
         {
-            courts.get(i).addBooking(memberId,date, startTime,endTime);
-            result = courts.get(i).getCourtId();
+            Court court = courts.get(i);
+            for (LocalDate date : dates)
+                if (date != null && (court.getOccupancy(date) & mask) == 0)
+                    freeDates[i]++;
+            order.add(i);
         }
+        // most free dates first, ties keep the usual court order
+        order.sort((a, b) -> freeDates[b] - freeDates[a]);
 
+        Booking[] result = new Booking[dates.size()];
+        for (int d = 0; d < dates.size(); d++)
+        {
+            LocalDate date = dates.get(d);
+            if (date == null)
+                continue;
+            for (int i : order)
+            {
+                result[d] = courts.get(i).tryAddBooking(memberId, date, startTime, endTime);
+                if (result[d] != null)
+                    break;
+            }
+        }
         return result;
     }
 
@@ -204,11 +331,12 @@ public class Sport
      * @param date the date of the booking
      * @param startTime the starting time of the booking
      * @param endTime the end time of the booking
+     * @return Booking the booking that was added
      */
-    public void addBooking(int memberId, int courtId, LocalDate date, LocalTime startTime,LocalTime endTime)
+    public Booking addBooking(int memberId, int courtId, LocalDate date, LocalTime startTime,LocalTime endTime)
     {
         Court court = getCourt(courtId);
-        court.addBooking(memberId, date, startTime, endTime);
+        return court.addBooking(memberId, date, startTime, endTime);
     }
 
     /**
@@ -258,8 +386,9 @@ public class Sport
      */
     public ArrayList<String> getAvailableCourtsGraph(LocalDate date)
     {
-        ArrayList<String> result = new ArrayList<String>();
+        ArrayList<String> result = new ArrayList<String>(courts.size());
 
+        // each court renders its row straight from its occupancy bitmap for the date
         for (Court court : courts)
             result.add(court.getBookingsGraph(date));
 
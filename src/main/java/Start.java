@@ -1,17 +1,66 @@
-import java.util.*;
+import utility.DBUtility;
+
+import javax.swing.SwingUtilities;
 /**
- * Starts the program, instaniates the Club class and runs the user interface
+ * Starts the program, instaniates the Club class and runs the user interface. The window opens straight away and
+ * the club is loaded in the background, the GUI enables its buttons once loading has finished
+ *
+ * Run with --server [port] to serve the club over HTTP instead of opening the window, see BookingServer
  *
  * @author Alex McWhae
  */
 public class Start
 {
-    public static void main(String[] args)
+    public static void main(String[] args) throws Exception
     {
-        Club sportsClub = new Club("Sports Club");
+        Club sportsClub = new Club("Sports Club", false);
 
-        GUI guiApp = new GUI(sportsClub);
+        if (args.length > 0 && args[0].equals("--server"))
+        {
+            int port = args.length > 1 ? Integer.parseInt(args[1]) : DBUtility.getIntProperty("server.port", 8080);
+            runServer(sportsClub, port);
+            return;
+        }
+
+        final GUI guiApp = new GUI(sportsClub);
         guiApp.run();
+        guiApp.setLoading(true);
+
+        new ClubLoader(sportsClub).loadAsync().whenComplete((club, ex) -> SwingUtilities.invokeLater(() -> {
+            if (ex != null)
+                guiApp.loadFailed("The club could not be fully loaded, restart to try again: " + ex.getMessage());
+            else
+                guiApp.setLoading(false);
+        }));
+    }
+
+    /**
+     * Loads the club and serves it over HTTP until the process is stopped, then saves any booking changes still
+     * waiting and writes a snapshot
+     *
+     * @param sportsClub the club to serve
+     * @param port the port to listen on
+     */
+    private static void runServer(final Club sportsClub, int port) throws Exception
+    {
+        new ClubLoader(sportsClub).load();
+        final BookingServer server = new BookingServer(sportsClub, port);
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop(2);
+            sportsClub.shutdown();
+            try
+            {
+                if (ClubSnapshot.isEnabled())
+                    ClubSnapshot.write(sportsClub, ClubSnapshot.getFile());
+            }
+            catch (Exception ex)
+            {
+                System.out.println("Snapshot could not be written: " + ex);
+            }
+            DBUtility.shutdown();
+        }, "booking-server-shutdown"));
 
+        server.start();
     }
 }
@@ -0,0 +1,248 @@
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.TreeMap;
+
+/**
+ * The booking requests waiting for a sport's court to become free, kept per date in the order they were made.
+ *
+ * Each date's requests are indexed by start time, so when a booking is cancelled only the requests that overlap the
+ * freed times are looked at rather than every request waiting that day
+ *
+ * @author Alex McWhae
+ */
+public class Waitlist
+{
+    /**
+     * A request waiting on the list
+     */
+    public static class Entry
+    {
+        // the order the request joined the waitlist in, across all dates
+        private long sequence;
+        private BookingRequest request;
+        // when the request joined the waitlist
+        private long requestedAt;
+
+        private Entry(long sequence, BookingRequest request)
+        {
+            this.sequence = sequence;
+            this.request = request;
+            this.requestedAt = System.currentTimeMillis();
+        }
+
+        /**
+         * An accessor method to get the sequence number
+         *
+         * @return long the order the request joined the waitlist in
+         */
+        public long getSequence()
+        {
+            return sequence;
+        }
+
+        /**
+         * An accessor method to get the request
+         *
+         * @return BookingRequest the request waiting
+         */
+        public BookingRequest getRequest()
+        {
+            return request;
+        }
+
+        /**
+         * An accessor method to get when the request joined the waitlist
+         *
+         * @return long the time in milliseconds
+         */
+        public long getRequestedAt()
+        {
+            return requestedAt;
+        }
+
+        /**
+         * Returns the entry in a String format
+         *
+         * @return String the entry
+         */
+        public String toString()
+        {
+            return "#" + sequence + " " + request;
+        }
+    }
+
+    /**
+     * The requests waiting on a single date
+     */
+    private static class Day
+    {
+        // the requests keyed by start minute, each list in the order the requests joined
+        private TreeMap<Integer, ArrayList<Entry>> byStart = new TreeMap<Integer, ArrayList<Entry>>();
+        // the longest request waiting, in minutes, bounding how far back a freed time needs to look
+        private int longestMinutes;
+        private int size;
+    }
+
+    // the dates with requests waiting
+    private TreeMap<LocalDate, Day> days;
+    private long nextSequence;
+
+    /**
+     * Constructor, for an empty waitlist
+     */
+    public Waitlist()
+    {
+        this.days = new TreeMap<LocalDate, Day>();
+    }
+
+    /**
+     * Adds a request to the end of the waitlist for its date
+     *
+     * @param request the request to add
+     * @return Entry the entry made for the request
+     * @throws MyException if the member is already waiting on that date
+     */
+    public synchronized Entry add(BookingRequest request) throws MyException
+    {
+        // dates that have passed are no longer of use
+        days.headMap(LocalDate.now()).clear();
+
+        Day day = days.get(request.getDate());
+        if (day == null)
+        {
+            day = new Day();
+            days.put(request.getDate(), day);
+        }
+        for (ArrayList<Entry> entries : day.byStart.values())
+            for (Entry entry : entries)
+                if (entry.request.getMemberId() == request.getMemberId())
+                    throw new MyException("Member Id: " + request.getMemberId() + " is already on the waitlist for " + request.getDate());
+
+        Entry entry = new Entry(nextSequence++, request);
+        int start = minuteOfDay(request.getStartTime());
+        ArrayList<Entry> entries = day.byStart.get(start);
+        if (entries == null)
+        {
+            entries = new ArrayList<Entry>();
+            day.byStart.put(start, entries);
+        }
+        entries.add(entry);
+        day.longestMinutes = Math.max(day.longestMinutes, minuteOfDay(request.getEndTime()) - start);
+        day.size++;
+        return entry;
+    }
+
+    /**
+     * Puts an entry taken off the waitlist back in its place, for when the booking made for it could not be saved
+     *
+     * @param entry the entry to put back
+     */
+    public synchronized void putBack(Entry entry)
+    {
+        Day day = days.get(entry.request.getDate());
+        if (day == null)
+        {
+            day = new Day();
+            days.put(entry.request.getDate(), day);
+        }
+        int start = minuteOfDay(entry.request.getStartTime());
+        ArrayList<Entry> entries = day.byStart.get(start);
+        if (entries == null)
+        {
+            entries = new ArrayList<Entry>();
+            day.byStart.put(start, entries);
+        }
+        // kept in the order the requests joined
+        int index = 0;
+        while (index < entries.size() && entries.get(index).sequence < entry.sequence)
+            index++;
+        entries.add(index, entry);
+        day.longestMinutes = Math.max(day.longestMinutes, minuteOfDay(entry.request.getEndTime()) - start);
+        day.size++;
+    }
+
+    /**
+     * Removes an entry from the waitlist
+     *
+     * @param entry the entry to remove
+     * @return boolean true if the entry was waiting
+     */
+    public synchronized boolean remove(Entry entry)
+    {
+        Day day = days.get(entry.request.getDate());
+        if (day == null)
+            return false;
+        int start = minuteOfDay(entry.request.getStartTime());
+        ArrayList<Entry> entries = day.byStart.get(start);
+        if (entries == null || !entries.remove(entry))
+            return false;
+        if (entries.isEmpty())
+            day.byStart.remove(start);
+        if (--day.size == 0)
+            days.remove(entry.request.getDate());
+        return true;
+    }
+
+    /**
+     * Gets the requests on a date that overlap the given times, the only ones that times being freed could let in
+     *
+     * @param date the date
+     * @param startTime the start of the freed times
+     * @param endTime the end of the freed times
+     * @return ArrayList<Entry> the overlapping requests, in the order they joined the waitlist
+     */
+    public synchronized ArrayList<Entry> getCandidates(LocalDate date, LocalTime startTime, LocalTime endTime)
+    {
+        ArrayList<Entry> result = new ArrayList<Entry>();
+        Day day = days.get(date);
+        if (day == null)
+            return result;
+
+        int start = minuteOfDay(startTime);
+        int end = minuteOfDay(endTime);
+        // a request starting before start - longestMinutes ends before the freed times begin
+        for (ArrayList<Entry> entries : day.byStart.subMap(start - day.longestMinutes, false, end, false).values())
+            for (Entry entry : entries)
+                if (minuteOfDay(entry.request.getEndTime()) > start)
+                    result.add(entry);
+        result.sort((a, b) -> Long.compare(a.sequence, b.sequence));
+        return result;
+    }
+
+    /**
+     * Gets every request waiting on a date
+     *
+     * @param date the date
+     * @return ArrayList<Entry> the requests, in the order they joined the waitlist
+     */
+    public synchronized ArrayList<Entry> getEntries(LocalDate date)
+    {
+        ArrayList<Entry> result = new ArrayList<Entry>();
+        Day day = days.get(date);
+        if (day != null)
+            for (Collection<Entry> entries : day.byStart.values())
+                result.addAll(entries);
+        result.sort((a, b) -> Long.compare(a.sequence, b.sequence));
+        return result;
+    }
+
+    /**
+     * Gets the number of requests waiting across all dates
+     *
+     * @return int the number of requests
+     */
+    public synchronized int size()
+    {
+        int size = 0;
+        for (Day day : days.values())
+            size += day.size;
+        return size;
+    }
+
+    private static int minuteOfDay(LocalTime time)
+    {
+        return time.getHour() * 60 + time.getMinute();
+    }
+}
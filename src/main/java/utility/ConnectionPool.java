@@ -0,0 +1,419 @@
+package utility;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of JDBC connections. Borrowed connections are wrapped so that calling close() hands the connection
+ * back to the pool instead of closing it, along with any statements that were left open on it.
+ *
+ * A housekeeping thread closes connections that have sat idle longer than the idle timeout (never going below the
+ * minimum size), tops the pool back up to the minimum, and reports connections that have been held longer than the
+ * leak threshold together with where they were borrowed from
+ *
+ * @author Alex McWhae
+ */
+public class ConnectionPool
+{
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int minSize;
+    private final long idleTimeoutMillis;
+    private final long maxWaitMillis;
+    private final long leakThresholdMillis;
+    private final String validationQuery;
+    // idle connections that have been used more recently than this are not validated when borrowed
+    private final long validateAfterMillis;
+
+    // connections waiting to be borrowed, most recently returned first
+    private final LinkedBlockingDeque<PooledConnection> idle;
+    // connections currently borrowed
+    private final ConcurrentHashMap<PooledConnection, Boolean> active;
+    // one permit for each connection that can still be borrowed
+    private final Semaphore permits;
+    private final ScheduledExecutorService housekeeper;
+
+    private final AtomicInteger totalConnections = new AtomicInteger();
+    private final AtomicInteger waitingThreads = new AtomicInteger();
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong destroyedCount = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final AtomicLong leakCount = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+
+    private volatile boolean closed;
+
+    /**
+     * Constructor, opens the minimum number of connections straight away
+     *
+     * @param url the JDBC url of the database
+     * @param user the database user
+     * @param password the database password
+     * @param minSize the number of connections to keep open even when idle
+     * @param maxSize the most connections that can be open at once
+     * @param idleTimeoutMillis how long a connection above the minimum can sit idle before it is closed
+     * @param maxWaitMillis how long to wait for a connection when all of them are in use
+     * @param leakThresholdMillis how long a connection can be held before it is reported, 0 to disable
+     * @param validationQuery the query used to check that an idle connection still works
+     */
+    public ConnectionPool(String url, String user, String password, int minSize, int maxSize, long idleTimeoutMillis,
+                          long maxWaitMillis, long leakThresholdMillis, String validationQuery)
+    {
+        if (maxSize < 1 || minSize < 0 || minSize > maxSize)
+            throw new IllegalArgumentException("Pool sizes must satisfy 0 <= min <= max and max >= 1");
+
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.minSize = minSize;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.maxWaitMillis = maxWaitMillis;
+        this.leakThresholdMillis = leakThresholdMillis;
+        this.validationQuery = validationQuery;
+        this.validateAfterMillis = 5000;
+        this.idle = new LinkedBlockingDeque<PooledConnection>();
+        this.active = new ConcurrentHashMap<PooledConnection, Boolean>();
+        this.permits = new Semaphore(maxSize, true);
+
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "connection-pool-housekeeper");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        long period = Math.max(1000, Math.min(idleTimeoutMillis, leakThresholdMillis > 0 ? leakThresholdMillis : idleTimeoutMillis) / 2);
+        housekeeper.scheduleWithFixedDelay(new Runnable() {
+            public void run()
+            {
+                houseKeep();
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+
+        fillToMinimum();
+    }
+
+    /**
+     * Borrows a connection from the pool, opening a new one if none are idle and the pool is not full. The
+     * connection must be closed to return it to the pool
+     *
+     * @return Connection the borrowed connection
+     * @throws SQLException if no connection became available within the maximum wait, or one could not be opened
+     */
+    public Connection borrow() throws SQLException
+    {
+        if (closed)
+            throw new SQLException("The connection pool has been shut down");
+
+        long waitStart = System.nanoTime();
+        waitingThreads.incrementAndGet();
+        try
+        {
+            if (!permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS))
+            {
+                timeoutCount.incrementAndGet();
+                throw new SQLException("Timed out after " + maxWaitMillis + "ms waiting for a database connection");
+            }
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection");
+        }
+        finally
+        {
+            waitingThreads.decrementAndGet();
+        }
+
+        try
+        {
+            PooledConnection pooled = takeIdle();
+            if (pooled == null)
+                pooled = open();
+            pooled.borrowed(leakThresholdMillis > 0 ? new Throwable("Connection borrowed here") : null);
+            active.put(pooled, Boolean.TRUE);
+            borrowCount.incrementAndGet();
+            totalWaitNanos.addAndGet(System.nanoTime() - waitStart);
+            return pooled.proxy;
+        }
+        catch (SQLException | RuntimeException ex)
+        {
+            permits.release();
+            throw ex;
+        }
+    }
+
+    /**
+     * Gets a snapshot of the pool's counters
+     *
+     * @return PoolStatistics the statistics
+     */
+    public PoolStatistics getStatistics()
+    {
+        return new PoolStatistics(totalConnections.get(), idle.size(), active.size(), waitingThreads.get(),
+                borrowCount.get(), createdCount.get(), destroyedCount.get(), timeoutCount.get(), leakCount.get(),
+                totalWaitNanos.get());
+    }
+
+    /**
+     * Shuts the pool down, closing every idle connection. Borrowed connections are closed as they are returned
+     */
+    public void shutdown()
+    {
+        closed = true;
+        housekeeper.shutdownNow();
+        PooledConnection pooled;
+        while ((pooled = idle.poll()) != null)
+            destroy(pooled);
+    }
+
+    /**
+     * Takes the most recently used idle connection that is still valid
+     *
+     * @return PooledConnection the connection, null if there are no usable idle connections
+     */
+    private PooledConnection takeIdle()
+    {
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null)
+        {
+            if (System.currentTimeMillis() - pooled.lastUsed < validateAfterMillis || isValid(pooled))
+                return pooled;
+            destroy(pooled);
+        }
+        return null;
+    }
+
+    private boolean isValid(PooledConnection pooled)
+    {
+        try
+        {
+            if (validationQuery == null || validationQuery.isEmpty())
+                return pooled.connection.isValid(5);
+            Statement statement = pooled.connection.createStatement();
+            try
+            {
+                statement.setQueryTimeout(5);
+                statement.execute(validationQuery);
+            }
+            finally
+            {
+                statement.close();
+            }
+            return true;
+        }
+        catch (SQLException ex)
+        {
+            return false;
+        }
+    }
+
+    private PooledConnection open() throws SQLException
+    {
+        Connection connection = DriverManager.getConnection(url, user, password);
+        totalConnections.incrementAndGet();
+        createdCount.incrementAndGet();
+        return new PooledConnection(connection);
+    }
+
+    private void destroy(PooledConnection pooled)
+    {
+        try
+        {
+            pooled.connection.close();
+        }
+        catch (SQLException ex)
+        {
+            // the connection is being thrown away so there is nothing else to do
+        }
+        totalConnections.decrementAndGet();
+        destroyedCount.incrementAndGet();
+    }
+
+    /**
+     * Called when a borrowed connection is closed, resets it and puts it back in the pool
+     *
+     * @param pooled the connection being returned
+     */
+    private void giveBack(PooledConnection pooled)
+    {
+        if (active.remove(pooled) == null)
+            return;
+
+        boolean reusable = pooled.reset();
+        if (reusable && !closed)
+            idle.offerFirst(pooled);
+        else
+            destroy(pooled);
+        permits.release();
+    }
+
+    /**
+     * Closes connections that have been idle too long, tops the pool up to its minimum and reports leaks
+     */
+    private void houseKeep()
+    {
+        long now = System.currentTimeMillis();
+
+        // the least recently used connections are at the back of the queue
+        Iterator<PooledConnection> itr = idle.descendingIterator();
+        while (itr.hasNext() && totalConnections.get() > minSize)
+        {
+            PooledConnection pooled = itr.next();
+            if (now - pooled.lastUsed > idleTimeoutMillis && idle.removeFirstOccurrence(pooled))
+                destroy(pooled);
+        }
+
+        fillToMinimum();
+
+        if (leakThresholdMillis > 0)
+            for (PooledConnection pooled : active.keySet())
+                if (!pooled.leakReported && now - pooled.borrowedAt > leakThresholdMillis)
+                {
+                    pooled.leakReported = true;
+                    leakCount.incrementAndGet();
+                    System.out.println("Possible connection leak: connection held for " + (now - pooled.borrowedAt) + "ms");
+                    if (pooled.borrowSite != null)
+                        pooled.borrowSite.printStackTrace(System.out);
+                }
+    }
+
+    private void fillToMinimum()
+    {
+        while (!closed && totalConnections.get() < minSize && permits.tryAcquire())
+        {
+            try
+            {
+                idle.offerLast(open());
+            }
+            catch (SQLException ex)
+            {
+                System.out.println(ex);
+                break;
+            }
+            finally
+            {
+                permits.release();
+            }
+        }
+    }
+
+    /**
+     * A physical connection and the proxy handed out for it
+     */
+    private class PooledConnection implements InvocationHandler
+    {
+        private final Connection connection;
+        private final Connection proxy;
+        // statements opened while borrowed, closed when the connection is returned
+        private final ArrayList<Statement> statements = new ArrayList<Statement>();
+        private volatile long lastUsed = System.currentTimeMillis();
+        private volatile long borrowedAt;
+        private volatile Throwable borrowSite;
+        private volatile boolean leakReported;
+        private volatile boolean returned = true;
+
+        private PooledConnection(Connection connection)
+        {
+            this.connection = connection;
+            this.proxy = (Connection) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(),
+                    new Class<?>[] { Connection.class }, this);
+        }
+
+        private void borrowed(Throwable borrowSite)
+        {
+            this.borrowedAt = System.currentTimeMillis();
+            this.borrowSite = borrowSite;
+            this.leakReported = false;
+            this.returned = false;
+        }
+
+        /**
+         * Closes left over statements and undoes any uncommitted work
+         *
+         * @return boolean true if the connection can be used again
+         */
+        private boolean reset()
+        {
+            lastUsed = System.currentTimeMillis();
+            try
+            {
+                synchronized (statements)
+                {
+                    for (Statement statement : statements)
+                        statement.close();
+                    statements.clear();
+                }
+                if (!connection.getAutoCommit())
+                {
+                    connection.rollback();
+                    connection.setAutoCommit(true);
+                }
+                return !connection.isClosed();
+            }
+            catch (SQLException ex)
+            {
+                return false;
+            }
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+        {
+            String name = method.getName();
+            if (name.equals("close"))
+            {
+                if (!returned)
+                {
+                    returned = true;
+                    giveBack(this);
+                }
+                return null;
+            }
+            if (name.equals("isClosed"))
+                return returned || connection.isClosed();
+            if (name.equals("equals"))
+                return proxy == args[0];
+            if (name.equals("hashCode"))
+                return System.identityHashCode(proxy);
+            if (name.equals("toString"))
+                return "Pooled " + connection;
+            if (returned)
+                throw new SQLException("Connection has already been returned to the pool");
+
+            try
+            {
+                Object result = method.invoke(connection, args);
+                if (result instanceof Statement)
+                    synchronized (statements)
+                    {
+                        statements.add((Statement) result);
+                    }
+                return result;
+            }
+            catch (InvocationTargetException ex)
+            {
+                throw ex.getCause();
+            }
+        }
+    }
+}
@@ -4,27 +4,145 @@ import java.io.InputStream;
 import java.sql.*;
 import java.util.Properties;
 
+/**
+ * Gives access to the database settings in config.properties and hands out pooled connections to the database.
+ * The settings are read once when the class is first used
+ *
+ * @author Alex McWhae
+ */
 public class DBUtility {
+    private static final Properties PROPERTIES = loadProperties();
+    private static ConnectionPool pool;
+
+    /**
+     * Borrows a connection from the pool, closing the connection returns it to the pool
+     *
+     * @return Connection the connection, null if one could not be made
+     */
     public static Connection connect(){
         Connection conn = null;
         try {
-            InputStream stream = DBUtility.class.getResourceAsStream("/config.properties");
-            Properties props = new Properties();
-            props.load(stream);
+            conn = getPool().borrow();
+        }
+        catch(Exception e)
+        {
+            System.out.println(e);
+        }
+        return conn;
+    }
+
+    /**
+     * Creates a forward only, read only statement that fetches large results from the server in batches of
+     * database.fetchSize rows instead of holding the whole result in memory
+     *
+     * @param conn the connection to create the statement on
+     * @return Statement the statement
+     */
+    public static Statement streamingStatement(Connection conn) throws SQLException {
+        Statement stmt = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        stmt.setFetchSize(getIntProperty("database.fetchSize", 1000));
+        return stmt;
+    }
+
+    /**
+     * Prepares a forward only, read only statement that fetches large results in batches, as streamingStatement does
+     *
+     * @param conn the connection to prepare the statement on
+     * @param sql the query
+     * @return PreparedStatement the statement
+     */
+    public static PreparedStatement streamingStatement(Connection conn, String sql) throws SQLException {
+        PreparedStatement stmt = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        stmt.setFetchSize(getIntProperty("database.fetchSize", 1000));
+        return stmt;
+    }
+
+    /**
+     * Gets the connection pool, creating it the first time it is needed
+     *
+     * @return ConnectionPool the pool
+     */
+    public static synchronized ConnectionPool getPool() throws ClassNotFoundException {
+        if (pool == null) {
+            Class.forName(getProperty("database.driver", "com.mysql.cj.jdbc.Driver"));
+
+            String user = getProperty("database.user", "root");
+            String password = getProperty("database.password", "");
+            String url = "jdbc:mysql://" + getProperty("database.url", "localhost")
+                    + ":3306/court_booking?serverTimezone=Australia/Melbourne&useCursorFetch=true";
+
+            pool = new ConnectionPool(url, user, password,
+                    getIntProperty("database.pool.minSize", 2),
+                    getIntProperty("database.pool.maxSize", 10),
+                    getIntProperty("database.pool.idleTimeoutSeconds", 300) * 1000L,
+                    getIntProperty("database.pool.maxWaitSeconds", 10) * 1000L,
+                    getIntProperty("database.pool.leakThresholdSeconds", 60) * 1000L,
+                    getProperty("database.pool.validationQuery", "SELECT 1"));
+        }
+        return pool;
+    }
+
+    /**
+     * Gets the statistics of the connection pool
+     *
+     * @return PoolStatistics the statistics, null if the pool has not been created
+     */
+    public static synchronized PoolStatistics getPoolStatistics() {
+        return pool == null ? null : pool.getStatistics();
+    }
 
-            Class.forName("com.mysql.jdbc.Driver");
+    /**
+     * Shuts the connection pool down, closing its idle connections
+     */
+    public static synchronized void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+    /**
+     * Gets a setting from config.properties
+     *
+     * @param key the name of the setting
+     * @param defaultValue the value to use if the setting is missing
+     * @return String the value of the setting
+     */
+    public static String getProperty(String key, String defaultValue) {
+        return PROPERTIES.getProperty(key, defaultValue).trim();
+    }
 
-            String user = props.getProperty("database.user");
-            String password = props.getProperty("database.password");
-            String url = props.getProperty("database.url");
+    /**
+     * Gets a whole number setting from config.properties
+     *
+     * @param key the name of the setting
+     * @param defaultValue the value to use if the setting is missing or not a number
+     * @return int the value of the setting
+     */
+    public static int getIntProperty(String key, int defaultValue) {
+        try {
+            return Integer.parseInt(getProperty(key, Integer.toString(defaultValue)));
+        }
+        catch(NumberFormatException e)
+        {
+            System.out.println("Invalid value for " + key + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
 
-            conn=DriverManager.getConnection(
-                    "jdbc:mysql://" + url + ":3306/court_booking?serverTimezone=Australia/Melbourne",user,password);
+    private static Properties loadProperties() {
+        Properties props = new Properties();
+        try {
+            InputStream stream = DBUtility.class.getResourceAsStream("/config.properties");
+            if (stream != null) {
+                props.load(stream);
+                stream.close();
+            }
         }
         catch(Exception e)
         {
             System.out.println(e);
         }
-        return conn;
+        return props;
     }
 }
@@ -0,0 +1,238 @@
+package utility;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A hash map from primitive int keys to objects, using open addressing with linear probing so that keys are never
+ * boxed into Integers. Null values are not allowed, a null value slot marks an empty entry
+ *
+ * @author Alex McWhae
+ */
+public class IntHashMap<V>
+{
+    private static final int DEFAULT_CAPACITY = 16;
+    // the table is grown once it is this full
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private int[] keys;
+    private Object[] values;
+    private int size;
+    private int mask;
+    private int resizeAt;
+
+    /**
+     * Constructor, creates an empty map
+     */
+    public IntHashMap()
+    {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor, creates an empty map that can hold the expected number of entries without growing
+     *
+     * @param expectedSize the number of entries expected
+     */
+    public IntHashMap(int expectedSize)
+    {
+        allocate(tableSizeFor(expectedSize));
+    }
+
+    /**
+     * Gets the value mapped to the given key
+     *
+     * @param key the key to look up
+     * @return V the value, null if the key is not in the map
+     */
+    @SuppressWarnings("unchecked")
+    public V get(int key)
+    {
+        int index = indexFor(key);
+        Object value;
+        while ((value = values[index]) != null)
+        {
+            if (keys[index] == key)
+                return (V) value;
+            index = (index + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Checks if the map contains the given key
+     *
+     * @param key the key to look for
+     * @return boolean true if the key is mapped
+     */
+    public boolean containsKey(int key)
+    {
+        return get(key) != null;
+    }
+
+    /**
+     * Maps the key to the given value, replacing any existing value
+     *
+     * @param key the key
+     * @param value the value, must not be null
+     * @return V the previous value, null if there was none
+     */
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value)
+    {
+        if (value == null)
+            throw new IllegalArgumentException("IntHashMap does not allow null values");
+
+        int index = indexFor(key);
+        Object existing;
+        while ((existing = values[index]) != null)
+        {
+            if (keys[index] == key)
+            {
+                values[index] = value;
+                return (V) existing;
+            }
+            index = (index + 1) & mask;
+        }
+        keys[index] = key;
+        values[index] = value;
+        if (++size > resizeAt)
+            resize(values.length * 2);
+        return null;
+    }
+
+    /**
+     * Removes the mapping for the given key
+     *
+     * @param key the key to remove
+     * @return V the value that was removed, null if the key was not mapped
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(int key)
+    {
+        int index = indexFor(key);
+        Object value;
+        while ((value = values[index]) != null)
+        {
+            if (keys[index] == key)
+            {
+                shiftBack(index);
+                size--;
+                return (V) value;
+            }
+            index = (index + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Gets the number of entries in the map
+     *
+     * @return int the number of entries
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Checks if the map has no entries
+     *
+     * @return boolean true if empty
+     */
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    /**
+     * Removes every entry from the map
+     */
+    public void clear()
+    {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    /**
+     * Gets the values in the map, in no particular order
+     *
+     * @return ArrayList<V> the values
+     */
+    @SuppressWarnings("unchecked")
+    public ArrayList<V> values()
+    {
+        ArrayList<V> result = new ArrayList<V>(size);
+        for (Object value : values)
+            if (value != null)
+                result.add((V) value);
+        return result;
+    }
+
+    /**
+     * Closes the gap left by a removed entry by moving back any later entries in the same probe run, so lookups
+     * never need tombstones
+     *
+     * @param gap the index of the removed entry
+     */
+    private void shiftBack(int gap)
+    {
+        int index = gap;
+        while (true)
+        {
+            index = (index + 1) & mask;
+            if (values[index] == null)
+                break;
+            int home = indexFor(keys[index]);
+            // moves the entry if its home slot is not between the gap and its current position
+            if (((index - home) & mask) >= ((index - gap) & mask))
+            {
+                keys[gap] = keys[index];
+                values[gap] = values[index];
+                gap = index;
+            }
+        }
+        values[gap] = null;
+    }
+
+    private void resize(int capacity)
+    {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldValues.length; i++)
+        {
+            if (oldValues[i] != null)
+            {
+                int index = indexFor(oldKeys[i]);
+                while (values[index] != null)
+                    index = (index + 1) & mask;
+                keys[index] = oldKeys[i];
+                values[index] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity)
+    {
+        keys = new int[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+        resizeAt = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private int indexFor(int key)
+    {
+        // spreads sequential ids across the table
+        int hash = key * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    private static int tableSizeFor(int expectedSize)
+    {
+        int capacity = DEFAULT_CAPACITY;
+        while (capacity * LOAD_FACTOR < expectedSize)
+            capacity *= 2;
+        return capacity;
+    }
+}
@@ -0,0 +1,407 @@
+package utility;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+
+/**
+ * Writes JSON text, and reads the flat JSON objects used as request bodies. Values are written through the builder
+ * methods in order, for example
+ *
+ *     new Json().beginObject().field("id", 1).name("courts").beginArray().value(10).endArray().endObject()
+ *
+ * @author Alex McWhae
+ */
+public class Json
+{
+    private StringBuilder out;
+    // for each array or object that is open, whether a value has been written in it yet
+    private ArrayList<Boolean> started;
+    // true straight after a name, when the value needs no comma
+    private boolean afterName;
+
+    /**
+     * Constructor, creates an empty writer
+     */
+    public Json()
+    {
+        this.out = new StringBuilder();
+        this.started = new ArrayList<Boolean>();
+    }
+
+    /**
+     * Starts an object
+     *
+     * @return Json this writer
+     */
+    public Json beginObject()
+    {
+        separate();
+        out.append('{');
+        started.add(false);
+        return this;
+    }
+
+    /**
+     * Ends the current object
+     *
+     * @return Json this writer
+     */
+    public Json endObject()
+    {
+        started.remove(started.size() - 1);
+        out.append('}');
+        return this;
+    }
+
+    /**
+     * Starts an array
+     *
+     * @return Json this writer
+     */
+    public Json beginArray()
+    {
+        separate();
+        out.append('[');
+        started.add(false);
+        return this;
+    }
+
+    /**
+     * Ends the current array
+     *
+     * @return Json this writer
+     */
+    public Json endArray()
+    {
+        started.remove(started.size() - 1);
+        out.append(']');
+        return this;
+    }
+
+    /**
+     * Writes the name of the next field of the current object
+     *
+     * @param name the field name
+     * @return Json this writer
+     */
+    public Json name(String name)
+    {
+        separate();
+        quote(name);
+        out.append(':');
+        afterName = true;
+        return this;
+    }
+
+    /**
+     * Writes a string value, or null
+     *
+     * @param value the value
+     * @return Json this writer
+     */
+    public Json value(String value)
+    {
+        separate();
+        if (value == null)
+            out.append("null");
+        else
+            quote(value);
+        return this;
+    }
+
+    /**
+     * Writes a number value
+     *
+     * @param value the value
+     * @return Json this writer
+     */
+    public Json value(long value)
+    {
+        separate();
+        out.append(value);
+        return this;
+    }
+
+    /**
+     * Writes a number value
+     *
+     * @param value the value
+     * @return Json this writer
+     */
+    public Json value(double value)
+    {
+        separate();
+        out.append(value);
+        return this;
+    }
+
+    /**
+     * Writes a boolean value
+     *
+     * @param value the value
+     * @return Json this writer
+     */
+    public Json value(boolean value)
+    {
+        separate();
+        out.append(value);
+        return this;
+    }
+
+    /**
+     * Writes a field with a string value
+     *
+     * @param name the field name
+     * @param value the value
+     * @return Json this writer
+     */
+    public Json field(String name, String value)
+    {
+        return name(name).value(value);
+    }
+
+    /**
+     * Writes a field with a number value
+     *
+     * @param name the field name
+     * @param value the value
+     * @return Json this writer
+     */
+    public Json field(String name, long value)
+    {
+        return name(name).value(value);
+    }
+
+    /**
+     * Writes a field with a number value
+     *
+     * @param name the field name
+     * @param value the value
+     * @return Json this writer
+     */
+    public Json field(String name, double value)
+    {
+        return name(name).value(value);
+    }
+
+    /**
+     * Writes a field with a boolean value
+     *
+     * @param name the field name
+     * @param value the value
+     * @return Json this writer
+     */
+    public Json field(String name, boolean value)
+    {
+        return name(name).value(value);
+    }
+
+    /**
+     * Returns the JSON written so far
+     *
+     * @return String the JSON text
+     */
+    public String toString()
+    {
+        return out.toString();
+    }
+
+    // writes a comma if this is not the first value in the current array or object
+    private void separate()
+    {
+        if (afterName)
+        {
+            afterName = false;
+            return;
+        }
+        int last = started.size() - 1;
+        if (last < 0)
+            return;
+        if (started.get(last))
+            out.append(',');
+        else
+            started.set(last, true);
+    }
+
+    private void quote(String value)
+    {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            switch (c)
+            {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20)
+                        out.append(String.format("\\u%04x", (int) c));
+                    else
+                        out.append(c);
+            }
+        }
+        out.append('"');
+    }
+
+    /**
+     * Reads a JSON object whose values are all strings, numbers, booleans or null. Every value is returned as its
+     * text, with null values left out
+     *
+     * @param text the JSON text
+     * @return LinkedHashMap<String, String> the fields of the object in order
+     * @throws IllegalArgumentException if the text is not a flat JSON object
+     */
+    public static LinkedHashMap<String, String> parseObject(String text)
+    {
+        Parser parser = new Parser(text);
+        LinkedHashMap<String, String> result = parser.object();
+        parser.skipSpace();
+        if (parser.pos != text.length())
+            throw new IllegalArgumentException("Unexpected text after the object at " + parser.pos);
+        return result;
+    }
+
+    /**
+     * Reads a flat JSON object a character at a time
+     */
+    private static class Parser
+    {
+        private String text;
+        private int pos;
+
+        private Parser(String text)
+        {
+            this.text = text;
+        }
+
+        private LinkedHashMap<String, String> object()
+        {
+            LinkedHashMap<String, String> result = new LinkedHashMap<String, String>();
+            expect('{');
+            skipSpace();
+            if (peek() == '}')
+            {
+                pos++;
+                return result;
+            }
+            while (true)
+            {
+                skipSpace();
+                String name = string();
+                skipSpace();
+                expect(':');
+                skipSpace();
+                String value = value();
+                if (value != null)
+                    result.put(name, value);
+                skipSpace();
+                char c = next();
+                if (c == '}')
+                    return result;
+                if (c != ',')
+                    throw new IllegalArgumentException("Expected , or } at " + (pos - 1));
+            }
+        }
+
+        private String value()
+        {
+            char c = peek();
+            if (c == '"')
+                return string();
+            if (c == '{' || c == '[')
+                throw new IllegalArgumentException("Nested values are not supported at " + pos);
+            int start = pos;
+            while (pos < text.length() && ",}] \t\r\n".indexOf(text.charAt(pos)) < 0)
+                pos++;
+            String literal = text.substring(start, pos);
+            if (literal.equals("null"))
+                return null;
+            if (literal.isEmpty())
+                throw new IllegalArgumentException("Expected a value at " + start);
+            return literal;
+        }
+
+        private String string()
+        {
+            expect('"');
+            StringBuilder result = new StringBuilder();
+            while (true)
+            {
+                char c = next();
+                if (c == '"')
+                    return result.toString();
+                if (c != '\\')
+                {
+                    result.append(c);
+                    continue;
+                }
+                char escaped = next();
+                switch (escaped)
+                {
+                    case 'n':
+                        result.append('\n');
+                        break;
+                    case 'r':
+                        result.append('\r');
+                        break;
+                    case 't':
+                        result.append('\t');
+                        break;
+                    case 'b':
+                        result.append('\b');
+                        break;
+                    case 'f':
+                        result.append('\f');
+                        break;
+                    case 'u':
+                        if (pos + 4 > text.length())
+                            throw new IllegalArgumentException("Bad escape at " + pos);
+                        result.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                        pos += 4;
+                        break;
+                    default:
+                        result.append(escaped);
+                }
+            }
+        }
+
+        private void skipSpace()
+        {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos)))
+                pos++;
+        }
+
+        private char peek()
+        {
+            if (pos >= text.length())
+                throw new IllegalArgumentException("Unexpected end of JSON");
+            return text.charAt(pos);
+        }
+
+        private char next()
+        {
+            char c = peek();
+            pos++;
+            return c;
+        }
+
+        private void expect(char c)
+        {
+            if (next() != c)
+                throw new IllegalArgumentException("Expected " + c + " at " + (pos - 1));
+        }
+    }
+}
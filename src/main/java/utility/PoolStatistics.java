@@ -0,0 +1,162 @@
+package utility;
+
+/**
+ * A snapshot of the counters kept by a ConnectionPool
+ *
+ * @author Alex McWhae
+ */
+public class PoolStatistics
+{
+    private final int totalConnections;
+    private final int idleConnections;
+    private final int activeConnections;
+    private final int waitingThreads;
+    private final long borrowCount;
+    private final long createdCount;
+    private final long destroyedCount;
+    private final long timeoutCount;
+    private final long leakCount;
+    private final long totalWaitNanos;
+
+    /**
+     * Constructor
+     *
+     * @param totalConnections the number of open physical connections
+     * @param idleConnections the number of connections waiting in the pool
+     * @param activeConnections the number of connections currently borrowed
+     * @param waitingThreads the number of threads waiting for a connection
+     * @param borrowCount the number of connections handed out
+     * @param createdCount the number of physical connections opened
+     * @param destroyedCount the number of physical connections closed
+     * @param timeoutCount the number of borrows that gave up waiting
+     * @param leakCount the number of connections reported as leaked
+     * @param totalWaitNanos the total time spent waiting to borrow
+     */
+    public PoolStatistics(int totalConnections, int idleConnections, int activeConnections, int waitingThreads,
+                          long borrowCount, long createdCount, long destroyedCount, long timeoutCount,
+                          long leakCount, long totalWaitNanos)
+    {
+        this.totalConnections = totalConnections;
+        this.idleConnections = idleConnections;
+        this.activeConnections = activeConnections;
+        this.waitingThreads = waitingThreads;
+        this.borrowCount = borrowCount;
+        this.createdCount = createdCount;
+        this.destroyedCount = destroyedCount;
+        this.timeoutCount = timeoutCount;
+        this.leakCount = leakCount;
+        this.totalWaitNanos = totalWaitNanos;
+    }
+
+    /**
+     * An accessor method to get the number of open physical connections
+     *
+     * @return int the number of open physical connections
+     */
+    public int getTotalConnections()
+    {
+        return totalConnections;
+    }
+
+    /**
+     * An accessor method to get the number of connections waiting in the pool
+     *
+     * @return int the number of connections waiting in the pool
+     */
+    public int getIdleConnections()
+    {
+        return idleConnections;
+    }
+
+    /**
+     * An accessor method to get the number of connections currently borrowed
+     *
+     * @return int the number of connections currently borrowed
+     */
+    public int getActiveConnections()
+    {
+        return activeConnections;
+    }
+
+    /**
+     * An accessor method to get the number of threads waiting for a connection
+     *
+     * @return int the number of threads waiting for a connection
+     */
+    public int getWaitingThreads()
+    {
+        return waitingThreads;
+    }
+
+    /**
+     * An accessor method to get the number of connections handed out
+     *
+     * @return long the number of connections handed out
+     */
+    public long getBorrowCount()
+    {
+        return borrowCount;
+    }
+
+    /**
+     * An accessor method to get the number of physical connections opened
+     *
+     * @return long the number of physical connections opened
+     */
+    public long getCreatedCount()
+    {
+        return createdCount;
+    }
+
+    /**
+     * An accessor method to get the number of physical connections closed
+     *
+     * @return long the number of physical connections closed
+     */
+    public long getDestroyedCount()
+    {
+        return destroyedCount;
+    }
+
+    /**
+     * An accessor method to get the number of borrows that gave up waiting
+     *
+     * @return long the number of borrows that gave up waiting
+     */
+    public long getTimeoutCount()
+    {
+        return timeoutCount;
+    }
+
+    /**
+     * An accessor method to get the number of connections reported as leaked
+     *
+     * @return long the number of connections reported as leaked
+     */
+    public long getLeakCount()
+    {
+        return leakCount;
+    }
+
+    /**
+     * Gets the average time a borrow waited for a connection
+     *
+     * @return double the average wait in milliseconds
+     */
+    public double getAverageWaitMillis()
+    {
+        return borrowCount == 0 ? 0 : totalWaitNanos / 1000000.0 / borrowCount;
+    }
+
+    /**
+     * Returns the statistics in a String format
+     *
+     * @return String the statistics
+     */
+    public String toString()
+    {
+        return String.format("total=%d idle=%d active=%d waiting=%d borrowed=%d created=%d destroyed=%d timeouts=%d leaks=%d avgWait=%.2fms",
+                totalConnections, idleConnections, activeConnections, waitingThreads, borrowCount, createdCount,
+                destroyedCount, timeoutCount, leakCount, getAverageWaitMillis());
+    }
+}
@@ -0,0 +1,76 @@
+package utility;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed set of locks shared out between keys by hash. Keys that land on different stripes can be locked at the
+ * same time, so unrelated work runs in parallel without a lock for every key. Two keys may share a stripe, which only
+ * means they wait for each other now and then
+ *
+ * @author Alex McWhae
+ */
+public class StripedLock
+{
+    private final ReentrantLock[] locks;
+    // the number of stripes less one, the number of stripes is a power of two
+    private final int mask;
+
+    /**
+     * Constructor
+     *
+     * @param stripes the least number of locks to create, rounded up to a power of two
+     */
+    public StripedLock(int stripes)
+    {
+        if (stripes < 1)
+            throw new IllegalArgumentException("There must be at least one stripe");
+
+        int size = Integer.highestOneBit(stripes);
+        if (size < stripes)
+            size <<= 1;
+        locks = new ReentrantLock[size];
+        for (int i = 0; i < size; i++)
+            locks[i] = new ReentrantLock();
+        mask = size - 1;
+    }
+
+    /**
+     * Gets the lock for the key
+     *
+     * @param key the key
+     * @return ReentrantLock the lock for the key's stripe
+     */
+    public ReentrantLock get(int key)
+    {
+        return locks[spread(key) & mask];
+    }
+
+    /**
+     * Gets the lock for a key made of two parts, such as a court id and a day
+     *
+     * @param key the first part of the key
+     * @param subKey the second part of the key
+     * @return ReentrantLock the lock for the key's stripe
+     */
+    public ReentrantLock get(int key, long subKey)
+    {
+        return get(key * 31 + Long.hashCode(subKey));
+    }
+
+    /**
+     * An accessor method to get the number of stripes
+     *
+     * @return int the number of locks
+     */
+    public int getStripes()
+    {
+        return locks.length;
+    }
+
+    // mixes the bits so that keys that differ only in their high bits still spread over the stripes
+    private static int spread(int key)
+    {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,287 @@
+package utility;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * A hashed timing wheel for expiring large numbers of items after a delay. The wheel is a ring of buckets, one per
+ * tick, and an item is placed in the bucket its deadline falls in along with the number of full turns of the wheel
+ * left before it is due. A single thread advances one bucket per tick and only looks at the items in that bucket, so
+ * scheduling, cancelling and expiring an item each take constant time however many items are waiting. Items expire
+ * up to one tick late
+ *
+ * Items are handed to the wheel's thread through queues, so only that thread ever touches the buckets
+ *
+ * @author Alex McWhae
+ */
+public class TimingWheel<T>
+{
+    private static final int WAITING = 0;
+    private static final int CANCELLED = 1;
+    private static final int EXPIRED = 2;
+
+    /**
+     * An item waiting on the wheel
+     */
+    public static class Timeout<T>
+    {
+        private final T item;
+        // the time the item is due, in milliseconds
+        private final long deadline;
+        private final AtomicInteger state = new AtomicInteger(WAITING);
+        private final TimingWheel<T> wheel;
+        // the turns of the wheel left before the item is due, only used by the wheel's thread
+        private long remainingRounds;
+        private Timeout<T> previous;
+        private Timeout<T> next;
+        private Bucket<T> bucket;
+
+        private Timeout(TimingWheel<T> wheel, T item, long deadline)
+        {
+            this.wheel = wheel;
+            this.item = item;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Cancels the timeout so the item never expires. Exactly one of cancel and expiry wins, so a cancel that
+         * returns true means the item will not be expired
+         *
+         * @return boolean true if the timeout was cancelled, false if it had already expired or been cancelled
+         */
+        public boolean cancel()
+        {
+            if (!state.compareAndSet(WAITING, CANCELLED))
+                return false;
+            wheel.cancelled.add(this);
+            return true;
+        }
+
+        /**
+         * An accessor method to get the item
+         *
+         * @return T the item
+         */
+        public T getItem()
+        {
+            return item;
+        }
+
+        /**
+         * An accessor method to get the deadline
+         *
+         * @return long the time the item is due, in milliseconds
+         */
+        public long getDeadline()
+        {
+            return deadline;
+        }
+    }
+
+    /**
+     * The items due in one slot of the wheel, as a doubly linked list so any item can be unlinked in constant time
+     */
+    private static class Bucket<T>
+    {
+        private Timeout<T> head;
+        private Timeout<T> tail;
+
+        private void add(Timeout<T> timeout)
+        {
+            timeout.bucket = this;
+            if (head == null)
+                head = tail = timeout;
+            else
+            {
+                tail.next = timeout;
+                timeout.previous = tail;
+                tail = timeout;
+            }
+        }
+
+        private void remove(Timeout<T> timeout)
+        {
+            if (timeout.previous != null)
+                timeout.previous.next = timeout.next;
+            else
+                head = timeout.next;
+            if (timeout.next != null)
+                timeout.next.previous = timeout.previous;
+            else
+                tail = timeout.previous;
+            timeout.previous = timeout.next = null;
+            timeout.bucket = null;
+        }
+    }
+
+    private final Bucket<T>[] buckets;
+    // the number of buckets less one, the number of buckets is a power of two
+    private final int mask;
+    private final long tickMillis;
+    // called with each item as it expires, on the wheel's thread
+    private final Consumer<T> onExpiry;
+    // items scheduled or cancelled since the last tick, waiting for the wheel's thread
+    private final ConcurrentLinkedQueue<Timeout<T>> scheduled = new ConcurrentLinkedQueue<Timeout<T>>();
+    private final ConcurrentLinkedQueue<Timeout<T>> cancelled = new ConcurrentLinkedQueue<Timeout<T>>();
+    private final Thread worker;
+    private final long startMillis;
+    // the number of ticks the wheel has advanced
+    private long tick;
+    private final AtomicInteger pending = new AtomicInteger();
+    private volatile boolean stopped;
+
+    /**
+     * Constructor, starts the wheel's thread
+     *
+     * @param name the name of the wheel's thread
+     * @param tickMillis the length of a tick in milliseconds, how late an item may expire
+     * @param bucketCount the least number of buckets, rounded up to a power of two
+     * @param onExpiry called with each item as it expires
+     */
+    @SuppressWarnings("unchecked")
+    public TimingWheel(String name, long tickMillis, int bucketCount, Consumer<T> onExpiry)
+    {
+        if (tickMillis < 1 || bucketCount < 1)
+            throw new IllegalArgumentException("The tick and number of buckets must be positive");
+
+        int size = Integer.highestOneBit(bucketCount);
+        if (size < bucketCount)
+            size <<= 1;
+        this.buckets = (Bucket<T>[]) new Bucket<?>[size];
+        for (int i = 0; i < size; i++)
+            buckets[i] = new Bucket<T>();
+        this.mask = size - 1;
+        this.tickMillis = tickMillis;
+        this.onExpiry = onExpiry;
+        this.startMillis = System.currentTimeMillis();
+
+        this.worker = new Thread(this::run, name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Schedules an item to expire after the given delay
+     *
+     * @param item the item
+     * @param delayMillis the delay in milliseconds
+     * @return Timeout the timeout, which can be cancelled
+     */
+    public Timeout<T> schedule(T item, long delayMillis)
+    {
+        if (stopped)
+            throw new IllegalStateException("The timing wheel has been stopped");
+        Timeout<T> timeout = new Timeout<T>(this, item, System.currentTimeMillis() + Math.max(0, delayMillis));
+        pending.incrementAndGet();
+        scheduled.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Gets the number of items waiting to expire
+     *
+     * @return int the number of items
+     */
+    public int size()
+    {
+        return pending.get();
+    }
+
+    /**
+     * Stops the wheel's thread, items still waiting never expire
+     */
+    public void stop()
+    {
+        stopped = true;
+        worker.interrupt();
+    }
+
+    private void run()
+    {
+        while (!stopped)
+        {
+            long next = startMillis + (tick + 1) * tickMillis;
+            long sleep = next - System.currentTimeMillis();
+            if (sleep > 0)
+            {
+                try
+                {
+                    Thread.sleep(sleep);
+                }
+                catch (InterruptedException ex)
+                {
+                    continue;
+                }
+            }
+
+            removeCancelled();
+            transferScheduled();
+            expire(buckets[(int) (tick & mask)], System.currentTimeMillis());
+            tick++;
+        }
+    }
+
+    /**
+     * Places newly scheduled items in their buckets. An item already due goes in the current bucket so it expires
+     * this tick
+     */
+    private void transferScheduled()
+    {
+        Timeout<T> timeout;
+        while ((timeout = scheduled.poll()) != null)
+        {
+            if (timeout.state.get() != WAITING)
+                continue;
+            long dueTick = Math.max((timeout.deadline - startMillis) / tickMillis, tick);
+            timeout.remainingRounds = (dueTick - tick) / buckets.length;
+            buckets[(int) (dueTick & mask)].add(timeout);
+        }
+    }
+
+    private void removeCancelled()
+    {
+        Timeout<T> timeout;
+        while ((timeout = cancelled.poll()) != null)
+        {
+            // a timeout cancelled before it was placed is skipped when it is transferred instead
+            if (timeout.bucket != null)
+                timeout.bucket.remove(timeout);
+            pending.decrementAndGet();
+        }
+    }
+
+    /**
+     * Expires the items in the bucket that are due on this turn of the wheel, the rest wait another turn
+     *
+     * @param bucket the current bucket
+     * @param now the current time in milliseconds
+     */
+    private void expire(Bucket<T> bucket, long now)
+    {
+        Timeout<T> timeout = bucket.head;
+        while (timeout != null)
+        {
+            Timeout<T> next = timeout.next;
+            if (timeout.remainingRounds <= 0 && timeout.deadline <= now + tickMillis)
+            {
+                bucket.remove(timeout);
+                if (timeout.state.compareAndSet(WAITING, EXPIRED))
+                {
+                    pending.decrementAndGet();
+                    try
+                    {
+                        onExpiry.accept(timeout.item);
+                    }
+                    catch (RuntimeException ex)
+                    {
+                        System.out.println("Expiring " + timeout.item + " failed: " + ex);
+                    }
+                }
+            }
+            else
+                timeout.remainingRounds--;
+            timeout = next;
+        }
+    }
+}
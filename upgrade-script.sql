@@ -0,0 +1,43 @@
+-- Brings a court_booking schema made with an earlier creation-script.sql up to date. Safe to run more than once.
+USE `court_booking`;
+
+--
+-- Court slots claimed by each booking, see BookingWriter
+--
+
+CREATE TABLE IF NOT EXISTS `booking_slot` (
+  `courtId` int(11) NOT NULL,
+  `date` date NOT NULL,
+  `slot` tinyint(4) NOT NULL,
+  `bookingId` int(11) NOT NULL,
+  PRIMARY KEY (`courtId`,`date`,`slot`),
+  KEY `booking_slot__bookingId_idx` (`bookingId`),
+  CONSTRAINT `booking_slot__bookingId` FOREIGN KEY (`bookingId`) REFERENCES `booking` (`id`) ON DELETE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_0900_ai_ci;
+
+-- the half hour slots of every booking from today on, earlier bookings can no longer clash with a new one. Where two
+-- existing bookings already share a slot the first one keeps it
+INSERT IGNORE INTO `booking_slot` (`courtId`, `date`, `slot`, `bookingId`)
+WITH RECURSIVE `slots` (`slot`) AS (SELECT 0 UNION ALL SELECT `slot` + 1 FROM `slots` WHERE `slot` < 47)
+SELECT b.`courtId`, b.`date`, s.`slot`, b.`id`
+FROM `booking` b
+JOIN `slots` s ON s.`slot` >= FLOOR(TIME_TO_SEC(b.`startTime`) / 1800) AND s.`slot` < CEIL(TIME_TO_SEC(b.`endTime`) / 1800)
+WHERE b.`date` >= CURDATE()
+ORDER BY b.`id`;
+
+--
+-- Bookings saved and deleted by each copy of the program, see BookingChangeLog
+--
+
+CREATE TABLE IF NOT EXISTS `booking_change` (
+  `seq` bigint(20) NOT NULL AUTO_INCREMENT,
+  `source` char(36) NOT NULL,
+  `deleted` tinyint(1) NOT NULL,
+  `bookingId` int(11) NOT NULL,
+  `memberId` int(11) NOT NULL,
+  `courtId` int(11) NOT NULL,
+  `date` date NOT NULL,
+  `startTime` time NOT NULL,
+  `endTime` time NOT NULL,
+  PRIMARY KEY (`seq`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_0900_ai_ci;